@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/*
+    Checks the cached day labels against the formatting they replaced, across midnight, a
+    daylight saving change and a locale change.  The benchmark compares labels per second, JMH style: warm-up iterations,
+    then the mean and deviation of the measured ones.  Results are written to logcat under this
+    class's tag.
+ */
+public class TestDayLabels extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDayLabels.class.getSimpleName();
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final int LABELS_PER_ITERATION = 20000;
+
+    // The labels as Utility formatted them before the cache
+    private static String legacyFriendlyDayString(Context context, long dateInMillis,
+                                                  boolean displayLongToday) {
+        Time time = new Time();
+        time.setToNow();
+        long currentTime = System.currentTimeMillis();
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
+        if (displayLongToday && julianDay == currentJulianDay) {
+            return String.format(context.getString(R.string.format_full_friendly_date,
+                    context.getString(R.string.today),
+                    legacyFormattedMonthDay(dateInMillis)));
+        } else if (julianDay < currentJulianDay + 7) {
+            return legacyDayName(context, dateInMillis);
+        } else {
+            return new SimpleDateFormat("EEE MMM dd").format(dateInMillis);
+        }
+    }
+
+    private static String legacyFullFriendlyDayString(Context context, long dateInMillis) {
+        return String.format(context.getString(R.string.format_full_friendly_date,
+                legacyDayName(context, dateInMillis), legacyFormattedMonthDay(dateInMillis)));
+    }
+
+    private static String legacyDayName(Context context, long dateInMillis) {
+        Time t = new Time();
+        t.setToNow();
+        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
+        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
+        if (julianDay == currentJulianDay) {
+            return context.getString(R.string.today);
+        } else if (julianDay == currentJulianDay + 1) {
+            return context.getString(R.string.tomorrow);
+        } else {
+            return new SimpleDateFormat("EEEE").format(dateInMillis);
+        }
+    }
+
+    private static String legacyFormattedMonthDay(long dateInMillis) {
+        Time time = new Time();
+        time.setToNow();
+        new SimpleDateFormat(Utility.DATE_FORMAT);
+        return new SimpleDateFormat("MMMM dd").format(dateInMillis);
+    }
+
+    private static long day(int offset) {
+        return WeatherContract.normalizeDate(System.currentTimeMillis())
+                + offset * DateUtils.DAY_IN_MILLIS;
+    }
+
+    private void assertSameAsLegacy(int offset) {
+        long date = day(offset);
+        String message = "Error: wrong label for day " + offset;
+        assertEquals(message, legacyFriendlyDayString(mContext, date, true),
+                Utility.getFriendlyDayString(mContext, date, true));
+        assertEquals(message, legacyFriendlyDayString(mContext, date, false),
+                Utility.getFriendlyDayString(mContext, date, false));
+        assertEquals(message, legacyFullFriendlyDayString(mContext, date),
+                Utility.getFullFriendlyDayString(mContext, date));
+        assertEquals(message, legacyDayName(mContext, date),
+                Utility.getDayName(mContext, date));
+        assertEquals(message, legacyFormattedMonthDay(date),
+                Utility.getFormattedMonthDay(mContext, date));
+    }
+
+    public void testLabelsMatchLegacyFormatting() {
+        // Twice over, so the second pass reads the cache
+        for (int pass = 0; pass < 2; pass++) {
+            for (int offset = -10; offset <= 40; offset++) {
+                assertSameAsLegacy(offset);
+            }
+            // Outside the cached days
+            assertSameAsLegacy(-800);
+            assertSameAsLegacy(200);
+        }
+    }
+
+    public void testLabelsMoveOnAtMidnight() {
+        DayLabels labels = DayLabels.get(mContext);
+        long now = System.currentTimeMillis();
+        long tomorrow = day(1);
+        String before = labels.getLabel(tomorrow, DayLabels.STYLE_DAY_NAME, now);
+        assertEquals(mContext.getString(R.string.tomorrow), before);
+
+        // A day later, the same date is today
+        String after = labels.getLabel(tomorrow, DayLabels.STYLE_DAY_NAME,
+                now + DateUtils.DAY_IN_MILLIS);
+        assertEquals(mContext.getString(R.string.today), after);
+        assertEquals(before, labels.getLabel(tomorrow, DayLabels.STYLE_DAY_NAME, now));
+    }
+
+    // A time of day in March 2016, in New York
+    private static long newYork(int dayOfMonth, int hourOfDay, int minute) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("America/New_York"));
+        calendar.clear();
+        calendar.set(2016, Calendar.MARCH, dayOfMonth, hourOfDay, minute);
+        return calendar.getTimeInMillis();
+    }
+
+    public void testLabelsMoveOnAfterAShortDay() {
+        TimeZone timeZone = TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+            DayLabels labels = DayLabels.get(mContext);
+            labels.invalidate();
+            // Daylight saving started at 2am on March 13th, so that day was only 23 hours long
+            long monday = newYork(14, 12, 0);
+            assertEquals(mContext.getString(R.string.tomorrow),
+                    labels.getLabel(monday, DayLabels.STYLE_DAY_NAME, newYork(13, 1, 0)));
+            assertEquals(mContext.getString(R.string.today),
+                    labels.getLabel(monday, DayLabels.STYLE_DAY_NAME, newYork(14, 0, 30)));
+        } finally {
+            TimeZone.setDefault(timeZone);
+            DayLabels.get(mContext).invalidate();
+        }
+    }
+
+    public void testLabelsFollowTheLocale() {
+        Locale locale = Locale.getDefault();
+        long date = day(4);
+        try {
+            Locale.setDefault(Locale.US);
+            String english = Utility.getDayName(mContext, date);
+            Locale.setDefault(Locale.FRANCE);
+            assertEquals(new SimpleDateFormat("EEEE").format(date),
+                    Utility.getDayName(mContext, date));
+            assertFalse(english.equals(Utility.getDayName(mContext, date)));
+        } finally {
+            Locale.setDefault(locale);
+            DayLabels.get(mContext).invalidate();
+        }
+    }
+
+    private interface Labeler {
+        String label(long date);
+    }
+
+    // Labels the days of a two week forecast, and a year of history, the way the list and the
+    // detail view ask for them
+    private static long[] benchmarkDates() {
+        long[] dates = new long[14 + 365];
+        for (int i = 0; i < 14; i++) {
+            dates[i] = day(i);
+        }
+        for (int i = 0; i < 365; i++) {
+            dates[14 + i] = day(-i - 1);
+        }
+        return dates;
+    }
+
+    private static double[] measure(Labeler labeler, long[] dates) {
+        double[] labelsPerSecond = new double[MEASURED_ITERATIONS];
+        int sink = 0;
+        for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < LABELS_PER_ITERATION; i++) {
+                sink += labeler.label(dates[i % dates.length]).length();
+            }
+            long nanos = System.nanoTime() - start;
+            if (iteration >= WARMUP_ITERATIONS) {
+                labelsPerSecond[iteration - WARMUP_ITERATIONS] =
+                        LABELS_PER_ITERATION / (nanos / 1e9);
+            }
+        }
+        assertTrue(sink > 0);
+        return labelsPerSecond;
+    }
+
+    private static void report(String name, double[] labelsPerSecond) {
+        double mean = 0;
+        for (double value : labelsPerSecond) {
+            mean += value;
+        }
+        mean /= labelsPerSecond.length;
+        double variance = 0;
+        for (double value : labelsPerSecond) {
+            variance += (value - mean) * (value - mean);
+        }
+        double deviation = Math.sqrt(variance / (labelsPerSecond.length - 1));
+        Log.i(LOG_TAG, String.format(Locale.US, "%s: %.0f ± %.0f labels/s (%d iterations)",
+                name, mean, deviation, labelsPerSecond.length));
+    }
+
+    public void testBenchmarkLabelsPerSecond() {
+        long[] dates = benchmarkDates();
+        report("Friendly, before", measure(new Labeler() {
+            @Override
+            public String label(long date) {
+                return legacyFriendlyDayString(mContext, date, false);
+            }
+        }, dates));
+        report("Friendly, cached", measure(new Labeler() {
+            @Override
+            public String label(long date) {
+                return Utility.getFriendlyDayString(mContext, date, false);
+            }
+        }, dates));
+        report("Full, before", measure(new Labeler() {
+            @Override
+            public String label(long date) {
+                return legacyFullFriendlyDayString(mContext, date);
+            }
+        }, dates));
+        report("Full, cached", measure(new Labeler() {
+            @Override
+            public String label(long date) {
+                return Utility.getFullFriendlyDayString(mContext, date);
+            }
+        }, dates));
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.database.MatrixCursor;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.view.ViewGroup;
+
+import com.example.android.sunshine.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Checks that the forecast list's diff notifies exactly the rows a new load changed, in
+    positions an adapter can apply one after another.
+ */
+public class TestForecastDiff extends AndroidTestCase {
+
+    private static final int DAYS = 14;
+
+    // Records notifications in the order they arrive
+    private static class RecordingAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        final List<String> ops = new ArrayList<String>();
+
+        RecordingAdapter() {
+            registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+                @Override
+                public void onChanged() {
+                    ops.add("all");
+                }
+
+                @Override
+                public void onItemRangeChanged(int positionStart, int itemCount) {
+                    ops.add("change " + positionStart + " " + itemCount);
+                }
+
+                @Override
+                public void onItemRangeInserted(int positionStart, int itemCount) {
+                    ops.add("insert " + positionStart + " " + itemCount);
+                }
+
+                @Override
+                public void onItemRangeRemoved(int positionStart, int itemCount) {
+                    ops.add("remove " + positionStart + " " + itemCount);
+                }
+            });
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getItemCount() {
+            return 0;
+        }
+    }
+
+    private static long today() {
+        return WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    // Rows in ForecastFragment's columns, one per day from firstDay, with highs from the array
+    private ForecastDiff.Snapshot snapshot(int firstDay, double... highs) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                "_id", "date", "short_desc", "max", "min", "location_setting", "weather_id",
+                "coord_lat", "coord_long"});
+        for (int i = 0; i < highs.length; i++) {
+            cursor.addRow(new Object[]{i, today() + (firstDay + i) * DateUtils.DAY_IN_MILLIS,
+                    "Clear", highs[i], 5.0, "94043", 800, 37.4, -122.1});
+        }
+        try {
+            return ForecastDiff.Snapshot.of(mContext, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static double[] highs(int count) {
+        double[] highs = new double[count];
+        for (int i = 0; i < count; i++) {
+            highs[i] = 20 + i;
+        }
+        return highs;
+    }
+
+    private static void assertOps(ForecastDiff diff, boolean firstRowSpecial, String... expected) {
+        RecordingAdapter adapter = new RecordingAdapter();
+        diff.dispatchTo(adapter, firstRowSpecial);
+        assertEquals(Arrays.asList(expected), adapter.ops);
+    }
+
+    public void testUnchangedLoadNotifiesNothing() {
+        ForecastDiff diff = ForecastDiff.compute(snapshot(0, highs(DAYS)), snapshot(0, highs(DAYS)));
+        assertTrue(diff.isEmpty());
+        assertOps(diff, true);
+    }
+
+    public void testOneChangedDayRebindsOneRow() {
+        double[] changed = highs(DAYS);
+        changed[3] += 0.5;
+        changed[4] += 0.5;
+        changed[9] -= 1;
+        ForecastDiff diff = ForecastDiff.compute(snapshot(0, highs(DAYS)), snapshot(0, changed));
+        assertOps(diff, true, "change 3 2", "change 9 1");
+    }
+
+    public void testChangeTooSmallToShowRebindsNothing() {
+        // Temperatures are shown in whole degrees
+        double[] changed = highs(DAYS);
+        changed[5] += 0.1;
+        ForecastDiff diff = ForecastDiff.compute(snapshot(0, highs(DAYS)), snapshot(0, changed));
+        assertTrue(diff.isEmpty());
+    }
+
+    public void testDaysAddedAndRemoved() {
+        // A new day starts: yesterday drops off the top and a day is added at the bottom
+        ForecastDiff diff = ForecastDiff.compute(snapshot(-1, highs(DAYS)),
+                snapshot(0, Arrays.copyOfRange(highs(DAYS + 1), 1, DAYS + 1)));
+        // The row that is now first changes layout
+        assertOps(diff, true, "remove 0 1", "insert 13 1", "change 0 1");
+        assertOps(diff, false, "remove 0 1", "insert 13 1");
+
+        // Positions are in the list as the earlier notifications left it
+        ForecastDiff shrink = ForecastDiff.compute(snapshot(0, highs(DAYS)), snapshot(0, highs(3)));
+        assertOps(shrink, false, "remove 3 11");
+        ForecastDiff grow = ForecastDiff.compute(snapshot(0, highs(3)), snapshot(0, highs(DAYS)));
+        assertOps(grow, false, "insert 3 11");
+    }
+
+    public void testUnsortedListsAreNotDiffed() {
+        ForecastDiff.Snapshot sorted = snapshot(0, highs(DAYS));
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                "_id", "date", "short_desc", "max", "min", "location_setting", "weather_id",
+                "coord_lat", "coord_long"});
+        cursor.addRow(new Object[]{1, today() + DateUtils.DAY_IN_MILLIS, "Clear", 20.0, 5.0,
+                "94043", 800, 37.4, -122.1});
+        cursor.addRow(new Object[]{2, today(), "Clear", 20.0, 5.0, "94043", 800, 37.4, -122.1});
+        ForecastDiff.Snapshot unsorted = ForecastDiff.Snapshot.of(mContext, cursor);
+        cursor.close();
+        assertNull(ForecastDiff.compute(sorted, unsorted));
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.preference.PreferenceManager;
+import android.support.v4.view.ViewCompat;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.AbsListView;
+
+import com.example.android.sunshine.data.WeatherContract;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+    Scrolls a year of forecast through a RecyclerView the size of the screen, once binding from
+    the cursor as the adapter used to and once from the loader's preformatted rows, and times
+    each frame: the scroll, with the binds it causes, and a draw.  Results are written to
+    logcat under this class's tag.
+ */
+public class TestForecastScrollBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastScrollBenchmark.class.getSimpleName();
+
+    private static final int DAYS = 365;
+    // Pixels per frame, as a quick fling would scroll
+    private static final int FRAME_SCROLL_DP = 48;
+    private static final long FRAME_BUDGET_NANOS = 16666667;
+
+    private static final int[] WEATHER_IDS = {200, 301, 500, 511, 600, 741, 800, 801, 803};
+
+    private static final ForecastAdapter.ForecastAdapterOnClickHandler NO_CLICKS =
+            new ForecastAdapter.ForecastAdapterOnClickHandler() {
+                @Override
+                public void onClick(Long date, ForecastAdapter.ForecastAdapterViewHolder vh) {
+                }
+            };
+
+    // Binds the way ForecastAdapter did before rows were formatted by the loader
+    private static class CursorBindingAdapter extends ForecastAdapter {
+        private final Context mContext;
+
+        CursorBindingAdapter(Context context) {
+            super(context, NO_CLICKS, new View(context), AbsListView.CHOICE_MODE_NONE);
+            mContext = context;
+        }
+
+        @Override
+        public void onBindViewHolder(ForecastAdapterViewHolder holder, int position) {
+            Cursor cursor = getCursor();
+            cursor.moveToPosition(position);
+            int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+            boolean today = position == 0;
+            int defaultImage = today ? Utility.getArtResourceForWeatherCondition(weatherId)
+                    : Utility.getIconResourceForWeatherCondition(weatherId);
+            if (Utility.usingLocalGraphics(mContext)) {
+                holder.mIconView.setImageResource(defaultImage);
+            }
+            long dateInMillis = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+            ViewCompat.setTransitionName(holder.mIconView, "iconView" + dateInMillis);
+            holder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, today));
+            String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+            holder.mDescriptionView.setText(description);
+            holder.mDescriptionView.setContentDescription(
+                    mContext.getString(R.string.a11y_forecast, description));
+            String high = Utility.formatTemperature(mContext,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+            holder.mHighTempView.setText(high);
+            holder.mHighTempView.setContentDescription(
+                    mContext.getString(R.string.a11y_high_temp, high));
+            String low = Utility.formatTemperature(mContext,
+                    cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+            holder.mLowTempView.setText(low);
+            holder.mLowTempView.setContentDescription(
+                    mContext.getString(R.string.a11y_low_temp, low));
+        }
+    }
+
+    private Context mThemedContext;
+    private String mArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThemedContext = new ContextThemeWrapper(mContext, R.style.AppTheme);
+        // Remote art would bind through Glide, which needs the main thread and the network
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String key = mContext.getString(R.string.pref_art_pack_key);
+        mArtPack = prefs.getString(key, null);
+        prefs.edit().putString(key, mContext.getString(R.string.pref_art_pack_sunshine)).commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String key = mContext.getString(R.string.pref_art_pack_key);
+        if (mArtPack == null) {
+            prefs.edit().remove(key).commit();
+        } else {
+            prefs.edit().putString(key, mArtPack).commit();
+        }
+        super.tearDown();
+    }
+
+    // A year of rows in ForecastFragment's columns
+    private static MatrixCursor createForecast() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                "_id", "date", "short_desc", "max", "min", "location_setting", "weather_id",
+                "coord_lat", "coord_long"});
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (int i = 0; i < DAYS; i++) {
+            cursor.addRow(new Object[]{i, today + i * DateUtils.DAY_IN_MILLIS, "Clear",
+                    15 + i % 17 + 0.3, 2 + i % 11 - 0.4, "94043",
+                    WEATHER_IDS[i % WEATHER_IDS.length], 37.4, -122.1});
+        }
+        return cursor;
+    }
+
+    private RecyclerView createRecyclerView(ForecastAdapter adapter, int width, int height) {
+        RecyclerView recyclerView = new RecyclerView(mThemedContext);
+        recyclerView.setLayoutManager(new LinearLayoutManager(mThemedContext));
+        recyclerView.setHasFixedSize(true);
+        recyclerView.setAdapter(adapter);
+        layout(recyclerView, width, height);
+        return recyclerView;
+    }
+
+    private static void layout(View view, int width, int height) {
+        view.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, width, height);
+    }
+
+    // Scrolls from the top to the bottom, returning each frame's time in nanoseconds
+    private static long[] scrollThrough(RecyclerView recyclerView, Canvas canvas, int step) {
+        recyclerView.scrollToPosition(0);
+        layout(recyclerView, canvas.getWidth(), canvas.getHeight());
+        long[] frames = new long[DAYS * 8];
+        int count = 0;
+        while (count < frames.length && ViewCompat.canScrollVertically(recyclerView, 1)) {
+            long start = System.nanoTime();
+            recyclerView.scrollBy(0, step);
+            recyclerView.draw(canvas);
+            frames[count++] = System.nanoTime() - start;
+        }
+        assertFalse("Error: the list never reached its last row",
+                ViewCompat.canScrollVertically(recyclerView, 1));
+        return Arrays.copyOf(frames, count);
+    }
+
+    private static void report(String name, long[] frames) {
+        long[] sorted = frames.clone();
+        Arrays.sort(sorted);
+        int janky = 0;
+        for (long frame : sorted) {
+            if (frame > FRAME_BUDGET_NANOS) {
+                janky++;
+            }
+        }
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%s: %d frames, median %.2f ms, 90th %.2f ms, 99th %.2f ms, max %.2f ms, "
+                        + "%d over 16 ms",
+                name, sorted.length, sorted[sorted.length / 2] / 1e6,
+                sorted[sorted.length * 9 / 10] / 1e6, sorted[sorted.length * 99 / 100] / 1e6,
+                sorted[sorted.length - 1] / 1e6, janky));
+    }
+
+    public void testBenchmarkScroll365Days() {
+        DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
+        int width = metrics.widthPixels;
+        int height = metrics.heightPixels;
+        int step = Math.round(FRAME_SCROLL_DP * metrics.density);
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        MatrixCursor cursor = createForecast();
+        try {
+            // What the loader does off the main thread
+            long start = System.nanoTime();
+            ForecastDiff.Snapshot snapshot = ForecastDiff.Snapshot.of(mContext, cursor);
+            long formatNanos = System.nanoTime() - start;
+            assertEquals(DAYS, snapshot.size());
+
+            ForecastAdapter cursorBinding = new CursorBindingAdapter(mThemedContext);
+            cursorBinding.swapCursor(cursor);
+            RecyclerView before = createRecyclerView(cursorBinding, width, height);
+
+            ForecastAdapter rowBinding = new ForecastAdapter(mThemedContext, NO_CLICKS,
+                    new View(mThemedContext), AbsListView.CHOICE_MODE_NONE);
+            rowBinding.swapCursor(new ForecastLoader.ForecastCursor(cursor, snapshot, null));
+            RecyclerView after = createRecyclerView(rowBinding, width, height);
+
+            // The first pass of each warms up inflation, the view pool and the JIT
+            scrollThrough(before, canvas, step);
+            scrollThrough(after, canvas, step);
+
+            report("Cursor binding", scrollThrough(before, canvas, step));
+            report("Preformatted rows", scrollThrough(after, canvas, step));
+            Log.i(LOG_TAG, String.format(Locale.US,
+                    "Formatting %d rows on the loader thread: %.2f ms", DAYS, formatNanos / 1e6));
+        } finally {
+            cursor.close();
+            bitmap.recycle();
+        }
+    }
+}
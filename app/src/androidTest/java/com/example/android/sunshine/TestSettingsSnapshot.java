@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import java.util.Locale;
+
+/*
+    Checks that the settings snapshot follows the preferences, and that its version, and the
+    art urls derived from it, only change when a setting does.
+ */
+public class TestSettingsSnapshot extends AndroidTestCase {
+
+    private static final long LISTENER_TIMEOUT_MILLIS = 5000;
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mArtPackKey;
+    private String mUnits;
+    private String mArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mArtPackKey = mContext.getString(R.string.pref_art_pack_key);
+        mUnits = mPrefs.getString(mUnitsKey, null);
+        mArtPack = mPrefs.getString(mArtPackKey, null);
+        mPrefs.edit()
+                .putString(mUnitsKey, mContext.getString(R.string.pref_units_metric))
+                .putString(mArtPackKey, mContext.getString(R.string.pref_art_pack_sunshine))
+                .commit();
+        SettingsSnapshot.refresh(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        restore(editor, mUnitsKey, mUnits);
+        restore(editor, mArtPackKey, mArtPack);
+        editor.commit();
+        SettingsSnapshot.refresh(mContext);
+        super.tearDown();
+    }
+
+    private static void restore(SharedPreferences.Editor editor, String key, String value) {
+        if (value == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, value);
+        }
+    }
+
+    public void testVersionOnlyChangesWithSettings() {
+        SettingsSnapshot before = SettingsSnapshot.get(mContext);
+        assertTrue(before.isMetric);
+        assertSame("Error: nothing changed, yet a new snapshot was published",
+                before, SettingsSnapshot.refresh(mContext));
+
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_imperial))
+                .commit();
+        SettingsSnapshot after = SettingsSnapshot.refresh(mContext);
+        assertFalse(after.isMetric);
+        assertFalse(Utility.isMetric(mContext));
+        assertEquals(before.version + 1, after.version);
+        assertEquals(before.location, after.location);
+    }
+
+    public void testListenerPublishesChanges() {
+        int version = SettingsSnapshot.get(mContext).version;
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(R.string.pref_units_imperial))
+                .commit();
+
+        // SharedPreferences calls its listeners on the main thread
+        long deadline = SystemClock.uptimeMillis() + LISTENER_TIMEOUT_MILLIS;
+        while (SettingsSnapshot.get(mContext).isMetric && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(10);
+        }
+        assertFalse("Error: the change never reached the snapshot",
+                SettingsSnapshot.get(mContext).isMetric);
+        assertTrue(SettingsSnapshot.get(mContext).version > version);
+    }
+
+    public void testArtUrlsFollowTheArtPack() {
+        assertTrue(Utility.usingLocalGraphics(mContext));
+        String sunshineClear = String.format(Locale.US,
+                mContext.getString(R.string.pref_art_pack_sunshine), "clear");
+        assertEquals(sunshineClear, Utility.getArtUrlForWeatherCondition(mContext, 800));
+        assertNull(Utility.getArtUrlForWeatherCondition(mContext, 999));
+
+        String dogs = mContext.getString(R.string.pref_art_pack_cute_dogs);
+        mPrefs.edit().putString(mArtPackKey, dogs).commit();
+        SettingsSnapshot.refresh(mContext);
+        assertFalse(Utility.usingLocalGraphics(mContext));
+        assertEquals(String.format(Locale.US, dogs, "clear"),
+                Utility.getArtUrlForWeatherCondition(mContext, 800));
+        assertEquals(String.format(Locale.US, dogs, "storm"),
+                Utility.getArtUrlForWeatherCondition(mContext, 781));
+    }
+}
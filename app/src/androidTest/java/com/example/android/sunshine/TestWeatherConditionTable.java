@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+
+/*
+    Checks the condition table against the if/else chains and switch it replaced, for every id
+    and some either side, and compares lookups per second.  Benchmark results are written to
+    logcat under this class's tag.
+ */
+public class TestWeatherConditionTable extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestWeatherConditionTable.class.getSimpleName();
+
+    private static final int FIRST_ID = -10;
+    private static final int LAST_ID = 1100;
+
+    private static final int LOOKUP_ROUNDS = 200;
+
+    // The mappings as Utility had them
+    private static int legacyIconResource(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.ic_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.ic_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.ic_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.ic_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.ic_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.ic_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.ic_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.ic_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.ic_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.ic_cloudy;
+        }
+        return -1;
+    }
+
+    private static int legacyArtResource(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.art_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.art_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.art_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.art_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.art_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.art_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.art_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.art_clouds;
+        }
+        return -1;
+    }
+
+    private static String legacyArtUrl(String formatArtUrl, int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return String.format(Locale.US, formatArtUrl, "storm");
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return String.format(Locale.US, formatArtUrl, "light_rain");
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return String.format(Locale.US, formatArtUrl, "rain");
+        } else if (weatherId == 511) {
+            return String.format(Locale.US, formatArtUrl, "snow");
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return String.format(Locale.US, formatArtUrl, "rain");
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return String.format(Locale.US, formatArtUrl, "snow");
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return String.format(Locale.US, formatArtUrl, "fog");
+        } else if (weatherId == 761 || weatherId == 781) {
+            return String.format(Locale.US, formatArtUrl, "storm");
+        } else if (weatherId == 800) {
+            return String.format(Locale.US, formatArtUrl, "clear");
+        } else if (weatherId == 801) {
+            return String.format(Locale.US, formatArtUrl, "light_clouds");
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return String.format(Locale.US, formatArtUrl, "clouds");
+        }
+        return null;
+    }
+
+    // 0 where getStringForWeatherCondition fell back to condition_unknown
+    private static int legacyDescription(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.string.condition_2xx;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.string.condition_3xx;
+        }
+        switch (weatherId) {
+            case 500:
+                return R.string.condition_500;
+            case 501:
+                return R.string.condition_501;
+            case 502:
+                return R.string.condition_502;
+            case 503:
+                return R.string.condition_503;
+            case 504:
+                return R.string.condition_504;
+            case 511:
+                return R.string.condition_511;
+            case 520:
+                return R.string.condition_520;
+            case 531:
+                return R.string.condition_531;
+            case 600:
+                return R.string.condition_600;
+            case 601:
+                return R.string.condition_601;
+            case 602:
+                return R.string.condition_602;
+            case 611:
+                return R.string.condition_611;
+            case 612:
+                return R.string.condition_612;
+            case 615:
+                return R.string.condition_615;
+            case 616:
+                return R.string.condition_616;
+            case 620:
+                return R.string.condition_620;
+            case 621:
+                return R.string.condition_621;
+            case 622:
+                return R.string.condition_622;
+            case 701:
+                return R.string.condition_701;
+            case 711:
+                return R.string.condition_711;
+            case 721:
+                return R.string.condition_721;
+            case 731:
+                return R.string.condition_731;
+            case 741:
+                return R.string.condition_741;
+            case 751:
+                return R.string.condition_751;
+            case 761:
+                return R.string.condition_761;
+            case 762:
+                return R.string.condition_762;
+            case 771:
+                return R.string.condition_771;
+            case 781:
+                return R.string.condition_781;
+            case 800:
+                return R.string.condition_800;
+            case 801:
+                return R.string.condition_801;
+            case 802:
+                return R.string.condition_802;
+            case 803:
+                return R.string.condition_803;
+            case 804:
+                return R.string.condition_804;
+            case 900:
+                return R.string.condition_900;
+            case 901:
+                return R.string.condition_901;
+            case 902:
+                return R.string.condition_902;
+            case 903:
+                return R.string.condition_903;
+            case 904:
+                return R.string.condition_904;
+            case 905:
+                return R.string.condition_905;
+            case 906:
+                return R.string.condition_906;
+            case 951:
+                return R.string.condition_951;
+            case 952:
+                return R.string.condition_952;
+            case 953:
+                return R.string.condition_953;
+            case 954:
+                return R.string.condition_954;
+            case 955:
+                return R.string.condition_955;
+            case 956:
+                return R.string.condition_956;
+            case 957:
+                return R.string.condition_957;
+            case 958:
+                return R.string.condition_958;
+            case 959:
+                return R.string.condition_959;
+            case 960:
+                return R.string.condition_960;
+            case 961:
+                return R.string.condition_961;
+            case 962:
+                return R.string.condition_962;
+            default:
+                return 0;
+        }
+    }
+
+    public void testTableMatchesLegacyMappings() {
+        SettingsSnapshot settings = SettingsSnapshot.get(mContext);
+        for (int id = FIRST_ID; id <= LAST_ID; id++) {
+            String message = "Error: wrong mapping for condition " + id;
+            assertEquals(message, legacyIconResource(id),
+                    Utility.getIconResourceForWeatherCondition(id));
+            assertEquals(message, legacyArtResource(id),
+                    Utility.getArtResourceForWeatherCondition(id));
+            assertEquals(message, legacyArtUrl(settings.artUrlFormat, id),
+                    Utility.getArtUrlForWeatherCondition(settings, id));
+            int description = legacyDescription(id);
+            assertEquals(message, description, WeatherConditionTable.getDescription(id));
+            assertEquals(message, description == 0
+                            ? mContext.getString(R.string.condition_unknown, id)
+                            : mContext.getString(description),
+                    Utility.getStringForWeatherCondition(mContext, id));
+        }
+    }
+
+    private static double lookupsPerSecond(int lookups, long nanos) {
+        return lookups / (nanos / 1e9);
+    }
+
+    public void testBenchmarkLookups() {
+        SettingsSnapshot settings = SettingsSnapshot.get(mContext);
+        int lookups = LOOKUP_ROUNDS * (LAST_ID - FIRST_ID + 1);
+        // Both paths run once first, to warm up
+        for (int pass = 0; pass < 2; pass++) {
+            int sink = 0;
+            long start = System.nanoTime();
+            for (int round = 0; round < LOOKUP_ROUNDS; round++) {
+                for (int id = FIRST_ID; id <= LAST_ID; id++) {
+                    sink += legacyIconResource(id) + legacyArtResource(id)
+                            + legacyDescription(id);
+                }
+            }
+            long chainNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int round = 0; round < LOOKUP_ROUNDS; round++) {
+                for (int id = FIRST_ID; id <= LAST_ID; id++) {
+                    sink -= WeatherConditionTable.getIconResource(id)
+                            + WeatherConditionTable.getArtResource(id)
+                            + WeatherConditionTable.getDescription(id);
+                }
+            }
+            long tableNanos = System.nanoTime() - start;
+            assertEquals(0, sink);
+
+            // Art urls are formatted for each lookup by the old code, so fewer of them
+            int urlLookups = LAST_ID - FIRST_ID + 1;
+            start = System.nanoTime();
+            for (int id = FIRST_ID; id <= LAST_ID; id++) {
+                legacyArtUrl(settings.artUrlFormat, id);
+            }
+            long formatNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int id = FIRST_ID; id <= LAST_ID; id++) {
+                Utility.getArtUrlForWeatherCondition(settings, id);
+            }
+            long cachedNanos = System.nanoTime() - start;
+
+            if (pass == 1) {
+                Log.i(LOG_TAG, String.format(Locale.US,
+                        "Icon, art and description: chains %.0f lookups/s, table %.0f lookups/s",
+                        lookupsPerSecond(lookups, chainNanos),
+                        lookupsPerSecond(lookups, tableNanos)));
+                Log.i(LOG_TAG, String.format(Locale.US,
+                        "Art url: formatted %.0f lookups/s, table %.0f lookups/s",
+                        lookupsPerSecond(urlLookups, formatNanos),
+                        lookupsPerSecond(urlLookups, cachedNanos)));
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/*
+    Checks that applyBatch is all-or-nothing and that observers hear about a batch once per
+    changed URI, after it commits, instead of once per operation.
+ */
+public class TestApplyBatch extends AndroidTestCase {
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int DAYS = 7;
+
+    private TestUtilities.CountingObserver mObserver;
+
+    private static boolean isSupported() {
+        return TestUtilities.canTellNotifiedUris();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mObserver = TestUtilities.CountingObserver.create();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.BASE_CONTENT_URI, true, mObserver);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+        mObserver.mThread.quit();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private List<Uri> drainNotifications() {
+        return mObserver.drain(mContext);
+    }
+
+    // A new location and a week of its forecast, the weather rows referring back to the
+    // location's insert, then a correction and a cleanup
+    private static ArrayList<ContentProviderOperation> buildOperations() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation
+                .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues values = TestUtilities.createWeatherValues(0);
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            operations.add(ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        operations.add(ContentProviderOperation
+                .newUpdate(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withValue(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Clear")
+                .build());
+        operations.add(ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                        new String[]{Long.toString(TestUtilities.TEST_DATE)})
+                .build());
+        return operations;
+    }
+
+    private int countWeather() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testBatchNotifiesOncePerUri() throws Exception {
+        if (!isSupported()) {
+            return;
+        }
+        ArrayList<ContentProviderOperation> operations = buildOperations();
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        List<Uri> notified = drainNotifications();
+
+        assertEquals(DAYS - 1, countWeather());
+        // The location, and each day under both forms of its URI, however many operations
+        // touched it
+        assertEquals("Error: each changed URI should be notified once, whatever the batch size",
+                1 + 2 * DAYS, notified.size());
+        assertEquals(notified.size(), new HashSet<Uri>(notified).size());
+        assertTrue(notified.contains(WeatherContract.LocationEntry.CONTENT_URI));
+        for (int i = 0; i < DAYS; i++) {
+            assertTrue(notified.contains(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                    TestUtilities.TEST_LOCATION,
+                    WeatherContract.normalizeDate(TestUtilities.TEST_DATE + i * DAY_IN_MILLIS))));
+        }
+    }
+
+    public void testUnbatchedOperationsNotifyEachTime() throws Exception {
+        if (!isSupported()) {
+            return;
+        }
+        // The batch's inserts and correction, one call each, for comparison
+        Uri locationUri = mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = Long.parseLong(locationUri.getLastPathSegment());
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            mContext.getContentResolver().insert(WeatherContract.WeatherEntry.CONTENT_URI, values);
+        }
+        ContentValues correction = new ContentValues();
+        correction.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        mContext.getContentResolver().update(
+                WeatherContract.WeatherEntry.CONTENT_URI, correction, null, null);
+        List<Uri> notified = drainNotifications();
+        // Every day is notified by its insert and again by the update
+        assertEquals(1 + 2 * DAYS + 2 * DAYS, notified.size());
+    }
+
+    public void testFailedBatchRollsBackSilently() throws Exception {
+        if (!isSupported()) {
+            return;
+        }
+        ArrayList<ContentProviderOperation> operations = buildOperations();
+        // Fails after everything else has been applied
+        operations.add(ContentProviderOperation
+                .newUpdate(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withValue(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Rain")
+                .withExpectedCount(DAYS * 10)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: the batch should have failed on its expected count");
+        } catch (OperationApplicationException expected) {
+        }
+
+        assertEquals("Error: nothing from a failed batch should be notified",
+                0, drainNotifications().size());
+        assertEquals("Error: a failed batch should leave nothing behind", 0, countWeather());
+        assertEquals(-1, LocationIdCache.getLocationId(mContext, TestUtilities.TEST_LOCATION));
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+
+/*
+    Compares the old bulk insert (SQLiteDatabase.insert per row, with a Time allocated to
+    normalize each date) against the provider's compiled-statement path, for both tables, JMH
+    style: warm-up iterations, then the mean and deviation of the measured ones, with the two
+    paths taking turns.  Results, in rows per second, are written to logcat under this class's
+    tag.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+
+    private WeatherDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mDbHelper = new WeatherDbHelper(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static ContentValues[] createWeatherRows(long locationRowId, int count) {
+        ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues values = TestUtilities.createWeatherValues(locationRowId);
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 75 + i % 10);
+            rows[i] = values;
+        }
+        return rows;
+    }
+
+    private static ContentValues[] createLocationRows(int count) {
+        ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues values = TestUtilities.createNorthPoleLocationValues();
+            values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                    TestUtilities.TEST_LOCATION + "-" + i);
+            rows[i] = values;
+        }
+        return rows;
+    }
+
+    // The bulk insert this replaced
+    private int legacyBulkInsert(String table, ContentValues[] rows) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        int count = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : rows) {
+                Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (date != null) {
+                    value.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                            WeatherContract.normalizeDate(date));
+                }
+                if (db.insert(table, null, value) != -1) {
+                    count++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return count;
+    }
+
+    private long countRows(String table) {
+        Cursor cursor = mDbHelper.getReadableDatabase().rawQuery(
+                "SELECT COUNT(*) FROM " + table, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static double rowsPerSecond(int rows, long nanos) {
+        return rows / (nanos / 1e9);
+    }
+
+    private interface RowSource {
+        ContentValues[] create();
+    }
+
+    // Rows per second of the old path and the compiled one, in that order.  Both run in every
+    // iteration, taking turns to go first so neither always gets the warmer caches.
+    private double[][] measure(String table, Uri uri, RowSource source, int rowCount) {
+        double[] legacy = new double[MEASURED_ITERATIONS];
+        double[] compiled = new double[MEASURED_ITERATIONS];
+        for (int iteration = 0; iteration < WARMUP_ITERATIONS + MEASURED_ITERATIONS; iteration++) {
+            for (int turn = 0; turn < 2; turn++) {
+                boolean runLegacy = (iteration + turn) % 2 == 0;
+                ContentValues[] rows = source.create();
+                long start = System.nanoTime();
+                int inserted = runLegacy ? legacyBulkInsert(table, rows)
+                        : mContext.getContentResolver().bulkInsert(uri, rows);
+                long nanos = System.nanoTime() - start;
+                assertEquals(rowCount, inserted);
+                assertEquals(rowCount, countRows(table));
+                mDbHelper.getWritableDatabase().delete(table, null, null);
+                if (iteration >= WARMUP_ITERATIONS) {
+                    double[] results = runLegacy ? legacy : compiled;
+                    results[iteration - WARMUP_ITERATIONS] = rowsPerSecond(rowCount, nanos);
+                }
+            }
+        }
+        return new double[][]{legacy, compiled};
+    }
+
+    private void compareWeather(final int rowCount) {
+        final long locationRowId = mDbHelper.getWritableDatabase().insert(
+                WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        double[][] results = measure(WeatherContract.WeatherEntry.TABLE_NAME,
+                WeatherContract.WeatherEntry.CONTENT_URI, new RowSource() {
+                    @Override
+                    public ContentValues[] create() {
+                        return createWeatherRows(locationRowId, rowCount);
+                    }
+                }, rowCount);
+        report("weather", rowCount, "insert()", results[0]);
+        report("weather", rowCount, "compiled", results[1]);
+    }
+
+    private void compareLocation(final int rowCount) {
+        double[][] results = measure(WeatherContract.LocationEntry.TABLE_NAME,
+                WeatherContract.LocationEntry.CONTENT_URI, new RowSource() {
+                    @Override
+                    public ContentValues[] create() {
+                        return createLocationRows(rowCount);
+                    }
+                }, rowCount);
+        report("location", rowCount, "insert()", results[0]);
+        report("location", rowCount, "compiled", results[1]);
+    }
+
+    private static void report(String table, int rowCount, String path, double[] rowsPerSecond) {
+        double mean = 0;
+        for (double value : rowsPerSecond) {
+            mean += value;
+        }
+        mean /= rowsPerSecond.length;
+        double variance = 0;
+        for (double value : rowsPerSecond) {
+            variance += (value - mean) * (value - mean);
+        }
+        double deviation = Math.sqrt(variance / (rowsPerSecond.length - 1));
+        Log.i(LOG_TAG, String.format(Locale.US, "%s x %d, %s: %.0f ± %.0f rows/s (%d iterations)",
+                table, rowCount, path, mean, deviation, rowsPerSecond.length));
+    }
+
+    public void testConflictingLocationIsSkipped() {
+        ContentValues[] rows = createLocationRows(3);
+        rows[2].put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                rows[0].getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING));
+        // Like insert(), a row that violates location_setting's UNIQUE constraint is skipped
+        assertEquals(2, mContext.getContentResolver().bulkInsert(
+                WeatherContract.LocationEntry.CONTENT_URI, rows));
+        assertEquals(2, countRows(WeatherContract.LocationEntry.TABLE_NAME));
+    }
+
+    public void testBenchmark14Rows() {
+        compareWeather(14);
+        deleteAllRecords();
+        compareLocation(14);
+    }
+
+    public void testBenchmark1kRows() {
+        compareWeather(1000);
+        deleteAllRecords();
+        compareLocation(1000);
+    }
+
+    public void testBenchmark100kRows() {
+        compareWeather(100000);
+        deleteAllRecords();
+        compareLocation(100000);
+    }
+}
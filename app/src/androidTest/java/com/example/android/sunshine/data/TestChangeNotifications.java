@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.HashSet;
+import java.util.List;
+
+/*
+    Checks that weather writes notify the days they touched, under both forms of the day's URI,
+    and nothing else, so that observers of other locations and days sleep through them.
+ */
+public class TestChangeNotifications extends AndroidTestCase {
+
+    private static final long FIRST_DAY = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+    private static final String OTHER_LOCATION = "94043";
+    private static final int DAYS = 3;
+
+    private TestUtilities.CountingObserver mObserver;
+    private long mLocationRowId;
+    private long mOtherLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mLocationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        ContentValues other = TestUtilities.createNorthPoleLocationValues();
+        other.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, OTHER_LOCATION);
+        other.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        mOtherLocationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, other));
+        TestUtilities.insertWeatherDays(mContext, mLocationRowId, FIRST_DAY, 0, DAYS, null);
+        TestUtilities.insertWeatherDays(mContext, mOtherLocationRowId, FIRST_DAY, 0, DAYS, null);
+
+        mObserver = TestUtilities.CountingObserver.create();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.BASE_CONTENT_URI, true, mObserver);
+        if (TestUtilities.canTellNotifiedUris()) {
+            // Forget the setup's own notifications
+            mObserver.drain(mContext);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+        mObserver.mThread.quit();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static long day(int day) {
+        return TestUtilities.dayAfter(FIRST_DAY, day);
+    }
+
+    // Both URIs of each of the test location's days, in any order
+    private void assertNotifiedDays(List<Uri> notified, int... days) {
+        HashSet<Uri> expected = new HashSet<Uri>();
+        for (int day : days) {
+            expected.add(WeatherEntry.buildWeatherLocationWithDate(
+                    TestUtilities.TEST_LOCATION, day(day)));
+            expected.add(WeatherEntry.buildWeatherLocationIdWithDate(mLocationRowId, day(day)));
+        }
+        assertEquals("Error: only the changed days should be notified, once each: " + notified,
+                expected.size(), notified.size());
+        assertEquals(expected, new HashSet<Uri>(notified));
+    }
+
+    private List<Uri> drainNotifications() {
+        return mObserver.drain(mContext);
+    }
+
+    public void testInsertNotifiesItsDay() {
+        if (!TestUtilities.canTellNotifiedUris()) {
+            return;
+        }
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(mLocationRowId, day(DAYS)));
+        assertNotifiedDays(drainNotifications(), DAYS);
+    }
+
+    public void testBulkInsertNotifiesItsDays() {
+        if (!TestUtilities.canTellNotifiedUris()) {
+            return;
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, new ContentValues[]{
+                TestUtilities.createWeatherValues(mLocationRowId, day(DAYS)),
+                TestUtilities.createWeatherValues(mLocationRowId, day(DAYS + 1))});
+        assertNotifiedDays(drainNotifications(), DAYS, DAYS + 1);
+    }
+
+    public void testUpdateNotifiesMatchedDays() {
+        if (!TestUtilities.canTellNotifiedUris()) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(mLocationRowId), Long.toString(day(1))});
+        assertNotifiedDays(drainNotifications(), 1);
+    }
+
+    public void testUpdateThatMovesADayNotifiesBothDays() {
+        if (!TestUtilities.canTellNotifiedUris()) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_DATE, day(DAYS));
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(mLocationRowId), Long.toString(day(0))});
+        assertNotifiedDays(drainNotifications(), 0, DAYS);
+    }
+
+    public void testDeleteNotifiesDeletedDays() {
+        if (!TestUtilities.canTellNotifiedUris()) {
+            return;
+        }
+        int rowsDeleted = mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{Long.toString(mLocationRowId), Long.toString(day(1))});
+        assertEquals(DAYS - 1, rowsDeleted);
+        assertNotifiedDays(drainNotifications(), 1, 2);
+    }
+
+    public void testWritesThatChangeNothingNotifyNothing() {
+        if (!TestUtilities.canTellNotifiedUris()) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        String[] nowhere = new String[]{Long.toString(day(DAYS + 10))};
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_DATE + " = ?", nowhere);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " = ?", nowhere);
+        assertEquals(0, drainNotifications().size());
+    }
+}
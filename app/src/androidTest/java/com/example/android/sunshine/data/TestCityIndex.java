@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.CityEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Locale;
+
+/*
+    Checks the city index's import and prefix search against a small list in an in-memory
+    database, and that the provider searches the bundled list.  The bulk-load benchmark writes
+    its results to logcat under this class's tag.
+ */
+public class TestCityIndex extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestCityIndex.class.getSimpleName();
+
+    private static final int BENCHMARK_CITIES = 20000;
+
+    private static final String CITIES =
+            "# A comment\n" +
+            "London\tGB\t51.5085\t-0.1257\t7556900\n" +
+            "London\tCA\t42.9834\t-81.2330\t346765\n" +
+            "Londonderry\tGB\t54.9977\t-7.3093\t83652\n" +
+            "São Paulo\tBR\t-23.5475\t-46.6361\t10021295\n" +
+            "San Francisco\tUS\t37.7749\t-122.4194\t864816\n" +
+            "San Diego\tus\t32.7153\t-117.1573\t1307402\n" +
+            "\n" +
+            "Nowhere\tXX\tnot a number\t0\t1\n" +
+            "Too\tFew\tFields\n" +
+            "Too\tMany\t1\t2\t3\t4\n" +
+            "Empty\t\t1\t2\t3\n";
+    private static final int VALID_CITIES = 6;
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = SQLiteDatabase.create(null);
+        CityIndex.createTables(mDb);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    private String[] search(String query, int limit) {
+        Cursor cursor = CityIndex.search(mDb, query,
+                new String[]{CityEntry.COLUMN_NAME, CityEntry.COLUMN_COUNTRY}, limit);
+        try {
+            String[] settings = new String[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                settings[i] = CityEntry.buildLocationSetting(cursor.getString(0),
+                        cursor.getString(1));
+            }
+            return settings;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertSettings(String query, String[] actual, String... expected) {
+        assertEquals("Error: wrong number of cities for \"" + query + "\"",
+                expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Error: city " + i + " for \"" + query + "\"", expected[i], actual[i]);
+        }
+    }
+
+    private void assertSearch(String query, String... expected) {
+        assertSettings(query, search(query, CityEntry.DEFAULT_SEARCH_LIMIT), expected);
+    }
+
+    public void testLoadSkipsCommentsAndMalformedLines() throws IOException {
+        assertEquals(VALID_CITIES, CityIndex.load(mDb, new BufferedReader(new StringReader(CITIES))));
+        assertTrue(CityIndex.isLoaded(mDb));
+
+        // Loading again replaces the cities rather than adding to them
+        assertEquals(VALID_CITIES, CityIndex.load(mDb, new BufferedReader(new StringReader(CITIES))));
+        assertSearch("london", "London,GB", "London,CA", "Londonderry,GB");
+    }
+
+    public void testPrefixSearch() throws IOException {
+        CityIndex.load(mDb, new BufferedReader(new StringReader(CITIES)));
+
+        // Most populous first, and every word has to match
+        assertSearch("lon", "London,GB", "London,CA", "Londonderry,GB");
+        assertSearch("london gb", "London,GB", "Londonderry,GB");
+        assertSearch("san", "San Diego,US", "San Francisco,US");
+        assertSearch("san fr", "San Francisco,US");
+        assertSettings("lon", search("lon", 1), "London,GB");
+
+        // Case, accents and punctuation don't matter
+        assertSearch("SAO", "São Paulo,BR");
+        assertSearch("são paulo", "São Paulo,BR");
+        assertSearch("London, CA", "London,CA");
+
+        // FTS syntax is searched for, not obeyed
+        assertSearch("lon*don");
+        assertSearch("\"san\" OR london");
+        assertSearch("-");
+        assertSearch("");
+    }
+
+    public void testProviderSearchesBundledList() {
+        Cursor cursor = mContext.getContentResolver().query(
+                CityEntry.buildCitySearchUri("mountain vi", 5),
+                new String[]{CityEntry.COLUMN_NAME, CityEntry.COLUMN_COUNTRY,
+                        CityEntry.COLUMN_COORD_LAT, CityEntry.COLUMN_COORD_LONG},
+                null, null, null);
+        try {
+            assertTrue("Error: the bundled list has no Mountain View", cursor.moveToFirst());
+            assertEquals("Mountain View", cursor.getString(0));
+            assertEquals("US", cursor.getString(1));
+            assertEquals(37.386, cursor.getDouble(2), 0.01);
+            assertEquals(-122.084, cursor.getDouble(3), 0.01);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testBenchmarkBulkLoad() throws IOException {
+        StringBuilder list = new StringBuilder(BENCHMARK_CITIES * 48);
+        for (int i = 0; i < BENCHMARK_CITIES; i++) {
+            list.append("City ").append(i).append('\t').append("C").append((char) ('A' + i % 26))
+                    .append('\t').append(i % 180 - 90).append(".5\t")
+                    .append(i % 360 - 180).append(".25\t").append(i * 7 % 100000).append('\n');
+        }
+        String cities = list.toString();
+
+        long start = System.nanoTime();
+        int count = CityIndex.load(mDb, new BufferedReader(new StringReader(cities)));
+        long loadNanos = System.nanoTime() - start;
+        assertEquals(BENCHMARK_CITIES, count);
+
+        final int ROUNDS = 50;
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            assertEquals(CityEntry.DEFAULT_SEARCH_LIMIT,
+                    search("city " + (i + 1), CityEntry.DEFAULT_SEARCH_LIMIT).length);
+        }
+        long searchNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "Loaded %d cities in %.1f ms (%.0f rows/s); prefix search %.2f ms",
+                count, loadNanos / 1e6, count / (loadNanos / 1e9), searchNanos / 1e6 / ROUNDS));
+    }
+}
@@ -18,9 +18,13 @@ package com.example.android.sunshine.data;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.test.AndroidTestCase;
+import android.util.Log;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 
 public class TestDb extends AndroidTestCase {
 
@@ -55,6 +59,11 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.ArchiveEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.AggregateEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.StatsEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HourlyEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.CityEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -234,4 +243,138 @@ public class TestDb extends AndroidTestCase {
         db.close();
         return locationRowId;
     }
+
+    /*
+        Runs EXPLAIN QUERY PLAN and returns the plan's detail lines.
+     */
+    private static List<String> explain(SQLiteDatabase db, String sql, String[] args) {
+        ArrayList<String> details = new ArrayList<String>();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detailIndex = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            details.add(cursor.getString(detailIndex));
+        }
+        cursor.close();
+        return details;
+    }
+
+    private static void assertUsesIndexes(String name, SQLiteDatabase db, String sql,
+                                          String[] args) {
+        List<String> details = explain(db, sql, args);
+        Log.d(LOG_TAG, name + ": " + details);
+        assertFalse("Error: no query plan for " + name, details.isEmpty());
+        for (String detail : details) {
+            // A SCAN is a full pass over a table (or a whole index); hot queries should SEARCH
+            assertFalse("Error: " + name + " scans: " + detail, detail.startsWith("SCAN"));
+            assertFalse("Error: " + name + " sorts without an index: " + detail,
+                    detail.contains("TEMP B-TREE"));
+        }
+    }
+
+    /*
+        Every query the provider and the sync adapter run on the hot path should be served
+        by an index.  These are built exactly the way WeatherProvider builds them.
+     */
+    public void testHotQueriesUseIndexes() {
+        long locationRowId = insertLocation();
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                TestUtilities.createWeatherValues(locationRowId));
+
+        final String[] projection = {
+                WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+                WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                WeatherContract.LocationEntry.COLUMN_CITY_NAME
+        };
+        final String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        final String location = TestUtilities.TEST_LOCATION;
+        final String date = Long.toString(TestUtilities.TEST_DATE);
+        SQLiteQueryBuilder builder = WeatherProvider.sWeatherByLocationSettingQueryBuilder;
+
+        // weather/*
+        assertUsesIndexes("weather/*", db,
+                builder.buildQuery(projection, WeatherProvider.sLocationSettingSelection,
+                        null, null, sortOrder, null),
+                new String[]{location});
+
+        // weather/*?date=
+        assertUsesIndexes("weather/*?date=", db,
+                builder.buildQuery(projection,
+                        WeatherProvider.sLocationSettingWithStartDateSelection,
+                        null, null, sortOrder, null),
+                new String[]{location, date});
+
+        // weather/*/#
+        assertUsesIndexes("weather/*/#", db,
+                builder.buildQuery(projection, WeatherProvider.sLocationSettingAndDaySelection,
+                        null, null, null, null),
+                new String[]{location, date});
+
+        // weather/location_id/#?date=, which skips the join
+        assertUsesIndexes("weather/location_id/#?date=", db,
+                SQLiteQueryBuilder.buildQueryString(false, WeatherContract.WeatherEntry.TABLE_NAME,
+                        new String[]{WeatherContract.WeatherEntry.COLUMN_DATE,
+                                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP},
+                        WeatherProvider.sLocationIdWithStartDateSelection,
+                        null, null, sortOrder, null),
+                new String[]{Long.toString(locationRowId), date});
+
+        // The diffing bulkInsert's lookup of the stored row, and weather/location_id/#/#
+        assertUsesIndexes("diff lookup", db,
+                SQLiteQueryBuilder.buildQueryString(false, WeatherContract.WeatherEntry.TABLE_NAME,
+                        null, WeatherProvider.sLocationIdAndDaySelection, null, null, null, null),
+                new String[]{Long.toString(locationRowId), date});
+
+        // location?location_setting= (the sync adapter's addLocation)
+        assertUsesIndexes("location lookup", db,
+                SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.LocationEntry.TABLE_NAME,
+                        new String[]{WeatherContract.LocationEntry._ID},
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        null, null, null, null),
+                new String[]{location});
+
+        // The sync adapter's delete of past days
+        assertUsesIndexes("old weather delete", db,
+                "DELETE FROM " + WeatherContract.WeatherEntry.TABLE_NAME + " WHERE " +
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{date});
+
+        dbHelper.close();
+    }
+
+    /*
+        A version 2 database should be upgraded in place, keeping its rows.
+     */
+    public void testUpgradeKeepsData() {
+        SQLiteDatabase oldDb = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME), null);
+        WeatherDbHelper.createBaseTables(oldDb);
+        oldDb.setVersion(WeatherDbHelper.BASE_VERSION);
+        long locationRowId = oldDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        oldDb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+        oldDb.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        assertTrue("Error: the upgrade lost the weather rows", cursor.moveToFirst());
+        TestUtilities.validateCurrentRecord("testUpgradeKeepsData", cursor, weatherValues);
+        cursor.close();
+
+        cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+                new String[]{WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE});
+        assertTrue("Error: the upgrade didn't create the index", cursor.moveToFirst());
+        cursor.close();
+        dbHelper.close();
+    }
 }
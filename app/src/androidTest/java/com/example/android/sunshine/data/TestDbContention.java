@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+/*
+    Measures how long the forecast query takes on one thread while another thread holds a
+    10,000-row import transaction open, with write-ahead logging off (the old behaviour) and
+    on.  Results are written to logcat under this class's tag.
+ */
+public class TestDbContention extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbContention.class.getSimpleName();
+
+    private static final int IMPORT_ROWS = 10000;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    private WeatherDbHelper mDbHelper;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext);
+        mLocationRowId = mDbHelper.getWritableDatabase().insert(
+                WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        // A readable forecast to query while the import runs
+        importRows(mDbHelper.getWritableDatabase(), 0, 14);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private void importRows(SQLiteDatabase db, int firstDay, int count) {
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+                values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                        TestUtilities.TEST_DATE + (firstDay + i) * DAY_IN_MILLIS);
+                db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private long queryForecast(SQLiteDatabase db) {
+        long start = System.nanoTime();
+        Cursor cursor = WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(db,
+                FORECAST_COLUMNS,
+                WeatherProvider.sLocationSettingWithStartDateSelection,
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC LIMIT 14");
+        // Reading the rows is what actually runs the query
+        while (cursor.moveToNext()) {
+            cursor.getDouble(3);
+        }
+        cursor.close();
+        return System.nanoTime() - start;
+    }
+
+    /*
+        Runs a 10k-row import on a background thread and queries the forecast in a loop on
+        this one until it finishes.
+
+        @return the query latencies, in nanoseconds, sorted
+     */
+    private long[] measureReaderLatency(final SQLiteDatabase db) throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        Thread writer = new Thread("ContentionImport") {
+            @Override
+            public void run() {
+                db.beginTransaction();
+                started.countDown();
+                try {
+                    // Keep clear of the rows the reader is looking at
+                    for (int i = 0; i < IMPORT_ROWS; i++) {
+                        ContentValues values = TestUtilities.createWeatherValues(mLocationRowId);
+                        values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                                TestUtilities.TEST_DATE + (1000 + i) * DAY_IN_MILLIS);
+                        db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        };
+        writer.start();
+        started.await();
+
+        long[] samples = new long[1024];
+        int count = 0;
+        do {
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = queryForecast(db);
+        } while (writer.isAlive());
+        writer.join();
+
+        // Remove the import so the next run starts from the same state
+        db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{Long.toString(TestUtilities.TEST_DATE + 1000 * DAY_IN_MILLIS)});
+
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static double percentileMillis(long[] sorted, int percentile) {
+        int index = Math.min(sorted.length - 1, (sorted.length * percentile) / 100);
+        return sorted[index] / 1e6;
+    }
+
+    private static void report(String name, long[] sorted) {
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%s: %d reads during a %d-row import, p50 %.3f ms, p99 %.3f ms, max %.3f ms",
+                name, sorted.length, IMPORT_ROWS, percentileMillis(sorted, 50),
+                percentileMillis(sorted, 99), sorted[sorted.length - 1] / 1e6));
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void testReaderLatencyDuringImport() throws Exception {
+        if (!WeatherDbHelper.isWriteAheadLoggingSupported()
+                || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // The comparison needs disableWriteAheadLogging
+            return;
+        }
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        assertTrue("Error: the helper should enable write-ahead logging",
+                db.isWriteAheadLoggingEnabled());
+
+        // Before: one connection, so every read waits for the import to commit
+        db.disableWriteAheadLogging();
+        long[] serialized = measureReaderLatency(db);
+        report("rollback journal", serialized);
+
+        // After: readers get their own connections
+        db.enableWriteAheadLogging();
+        long[] concurrent = measureReaderLatency(db);
+        report("write-ahead log", concurrent);
+
+        assertTrue("Error: readers should keep making progress during the import",
+                concurrent.length > serialized.length);
+    }
+}
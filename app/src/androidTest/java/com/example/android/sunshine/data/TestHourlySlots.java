@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.data.WeatherContract.HourlyEntry;
+
+/*
+    Checks that a day of 3-hour slots survives the trip through its packed blob and the
+    provider, including the partial days at either end of a forecast.
+ */
+public class TestHourlySlots extends AndroidTestCase {
+
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+    private static final long DAY_IN_MILLIS = 24 * HOUR_IN_MILLIS;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    // Distinct values for every field of every slot
+    private static void fill(HourlySlots slots, int fromSlot, int toSlot) {
+        for (int i = fromSlot; i < toSlot; i++) {
+            slots.set(i, 800 + i, -4.5f + i, 60 + i, 1010.25f + i, 3.5f + i, 45 * i);
+        }
+    }
+
+    private static void assertSlots(HourlySlots slots, int fromSlot, int toSlot) {
+        assertEquals(toSlot - fromSlot, slots.getCount());
+        for (int i = 0; i < HourlyEntry.SLOTS_PER_DAY; i++) {
+            boolean expected = i >= fromSlot && i < toSlot;
+            assertEquals("Error: slot " + i + " has the wrong presence", expected, slots.has(i));
+            if (expected) {
+                assertEquals(800 + i, slots.getWeatherId(i));
+                assertEquals(-4.5f + i, slots.getTemperature(i));
+                assertEquals(60f + i, slots.getHumidity(i));
+                assertEquals(1010.25f + i, slots.getPressure(i));
+                assertEquals(3.5f + i, slots.getWindSpeed(i));
+                assertEquals(45f * i, slots.getWindDirection(i));
+            }
+        }
+    }
+
+    public void testRoundTrip() {
+        HourlySlots slots = new HourlySlots();
+        fill(slots, 0, HourlyEntry.SLOTS_PER_DAY);
+        byte[] blob = slots.encode();
+        assertEquals(HourlySlots.BLOB_SIZE, blob.length);
+
+        HourlySlots decoded = new HourlySlots();
+        assertTrue(decoded.decode(blob));
+        assertSlots(decoded, 0, HourlyEntry.SLOTS_PER_DAY);
+    }
+
+    public void testPartialDaysKeepTheirGaps() {
+        HourlySlots slots = new HourlySlots();
+        fill(slots, 5, HourlyEntry.SLOTS_PER_DAY);
+        HourlySlots decoded = new HourlySlots();
+        assertTrue(decoded.decode(slots.encode()));
+        assertSlots(decoded, 5, HourlyEntry.SLOTS_PER_DAY);
+
+        // Decoding reuses the instance, so a shorter day must not inherit the previous slots
+        slots.clear();
+        fill(slots, 0, 2);
+        assertTrue(decoded.decode(slots.encode()));
+        assertSlots(decoded, 0, 2);
+    }
+
+    public void testUnknownBlobsDecodeEmpty() {
+        HourlySlots slots = new HourlySlots();
+        fill(slots, 0, HourlyEntry.SLOTS_PER_DAY);
+        byte[] blob = slots.encode();
+
+        byte[] newer = blob.clone();
+        newer[0] = HourlySlots.FORMAT_VERSION + 1;
+        assertFalse(slots.decode(newer));
+        assertEquals(0, slots.getCount());
+
+        assertFalse(slots.decode(new byte[HourlySlots.BLOB_SIZE - 1]));
+        assertFalse(slots.decode(null));
+        assertEquals(0, slots.getCount());
+    }
+
+    public void testGetSlot() {
+        long dayStart = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        assertEquals(0, HourlySlots.getSlot(dayStart, dayStart));
+        assertEquals(0, HourlySlots.getSlot(dayStart + 3 * HOUR_IN_MILLIS - 1, dayStart));
+        assertEquals(1, HourlySlots.getSlot(dayStart + 3 * HOUR_IN_MILLIS, dayStart));
+        assertEquals(HourlyEntry.SLOTS_PER_DAY - 1,
+                HourlySlots.getSlot(dayStart + 21 * HOUR_IN_MILLIS, dayStart));
+        // The hours a clock change adds or removes fold into the day's first or last slot
+        assertEquals(HourlyEntry.SLOTS_PER_DAY - 1,
+                HourlySlots.getSlot(dayStart + 24 * HOUR_IN_MILLIS, dayStart));
+        assertEquals(0, HourlySlots.getSlot(dayStart - HOUR_IN_MILLIS, dayStart));
+    }
+
+    public void testProviderStoresDaysPerLocation() {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        long firstDay = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+
+        HourlySlots slots = new HourlySlots();
+        ContentValues[] rows = new ContentValues[2];
+        for (int i = 0; i < rows.length; i++) {
+            slots.clear();
+            fill(slots, i, HourlyEntry.SLOTS_PER_DAY);
+            rows[i] = new ContentValues();
+            rows[i].put(HourlyEntry.COLUMN_LOC_KEY, locationRowId);
+            rows[i].put(HourlyEntry.COLUMN_DATE, firstDay + i * DAY_IN_MILLIS);
+            rows[i].put(HourlyEntry.COLUMN_SLOTS, slots.encode());
+        }
+        assertEquals(rows.length,
+                mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, rows));
+        // A second sync replaces the days rather than adding to them
+        assertEquals(rows.length,
+                mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, rows));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithStartDate(TestUtilities.TEST_LOCATION, firstDay),
+                new String[]{HourlyEntry.COLUMN_DATE, HourlyEntry.COLUMN_SLOTS},
+                null, null, HourlyEntry.COLUMN_DATE + " ASC");
+        try {
+            assertEquals(rows.length, cursor.getCount());
+            for (int i = 0; i < rows.length; i++) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(firstDay + i * DAY_IN_MILLIS, cursor.getLong(0));
+                assertTrue(slots.decode(cursor.getBlob(1)));
+                assertSlots(slots, i, HourlyEntry.SLOTS_PER_DAY);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithDate(TestUtilities.TEST_LOCATION,
+                        firstDay + DAY_IN_MILLIS),
+                new String[]{HourlyEntry.COLUMN_SLOTS}, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+
+/*
+    Checks that LocationIdCache stays coherent with the provider's writes and that the
+    id-addressed weather URIs return what the setting-addressed ones do, then compares the
+    join-based and id-based forecast queries.  Results are written to logcat under this
+    class's tag.
+ */
+public class TestLocationIdCache extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestLocationIdCache.class.getSimpleName();
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int BENCHMARK_LOCATIONS = 50;
+    private static final int BENCHMARK_DAYS = 14;
+    private static final int WARMUP_ROUNDS = 100;
+    private static final int MEASURED_ROUNDS = 1000;
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        Uri uri = mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, values);
+        return ContentUris.parseId(uri);
+    }
+
+    private void insertForecast(long locationRowId, int days) {
+        ContentValues[] rows = new ContentValues[days];
+        for (int i = 0; i < days; i++) {
+            rows[i] = TestUtilities.createWeatherValues(locationRowId);
+            rows[i].put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, rows);
+    }
+
+    public void testCacheFollowsLocationWrites() {
+        assertEquals(-1, LocationIdCache.getLocationId(mContext, TestUtilities.TEST_LOCATION));
+
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        int misses = LocationIdCache.getMissCount();
+        assertEquals(locationRowId,
+                LocationIdCache.getLocationId(mContext, TestUtilities.TEST_LOCATION));
+        assertEquals("Error: the provider should have cached the id of the location it inserted",
+                misses, LocationIdCache.getMissCount());
+        assertEquals(TestUtilities.TEST_LOCATION, LocationIdCache.getLocationSetting(locationRowId));
+
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        assertNull(LocationIdCache.getLocationSetting(locationRowId));
+        assertEquals("Error: a deleted location was still resolved", -1,
+                LocationIdCache.getLocationId(mContext, TestUtilities.TEST_LOCATION));
+
+        // Reinserted under a new id
+        long newRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        assertEquals(newRowId, LocationIdCache.getLocationId(mContext, TestUtilities.TEST_LOCATION));
+    }
+
+    public void testIdUrisMatchSettingUris() {
+        long locationRowId = insertLocation(TestUtilities.TEST_LOCATION);
+        insertForecast(locationRowId, BENCHMARK_DAYS);
+        long startDate = TestUtilities.TEST_DATE + 3 * DAY_IN_MILLIS;
+
+        assertSameRows(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        TestUtilities.TEST_LOCATION, startDate),
+                WeatherContract.WeatherEntry.buildWeatherLocationIdWithStartDate(
+                        locationRowId, startDate),
+                BENCHMARK_DAYS - 3);
+        assertSameRows(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        TestUtilities.TEST_LOCATION, startDate),
+                WeatherContract.WeatherEntry.buildWeatherLocationIdWithDate(
+                        locationRowId, startDate),
+                1);
+        assertEquals(WeatherContract.WeatherEntry.CONTENT_TYPE, mContext.getContentResolver()
+                .getType(WeatherContract.WeatherEntry.buildWeatherLocationId(locationRowId)));
+    }
+
+    private void assertSameRows(Uri settingUri, Uri idUri, int expectedRows) {
+        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        Cursor bySetting = mContext.getContentResolver().query(
+                settingUri, FORECAST_COLUMNS, null, null, sortOrder);
+        Cursor byId = mContext.getContentResolver().query(
+                idUri, FORECAST_COLUMNS, null, null, sortOrder);
+        try {
+            assertEquals(expectedRows, bySetting.getCount());
+            assertEquals(expectedRows, byId.getCount());
+            while (bySetting.moveToNext()) {
+                assertTrue(byId.moveToNext());
+                for (int i = 0; i < FORECAST_COLUMNS.length; i++) {
+                    assertEquals("Error: " + idUri + " differs in " + FORECAST_COLUMNS[i],
+                            bySetting.getString(i), byId.getString(i));
+                }
+            }
+        } finally {
+            bySetting.close();
+            byId.close();
+        }
+    }
+
+    // Runs the forecast query the way the provider does for each URI form, so that the
+    // provider's query cache doesn't hide the difference
+    private static long runQuery(SQLiteDatabase db, boolean byId, String locationSetting,
+                                 long locationRowId) {
+        long start = System.nanoTime();
+        Cursor cursor;
+        if (byId) {
+            cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    FORECAST_COLUMNS,
+                    WeatherProvider.sLocationIdWithStartDateSelection,
+                    new String[]{Long.toString(locationRowId),
+                            Long.toString(TestUtilities.TEST_DATE)},
+                    null,
+                    null,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        } else {
+            cursor = WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(db,
+                    FORECAST_COLUMNS,
+                    WeatherProvider.sLocationSettingWithStartDateSelection,
+                    new String[]{locationSetting, Long.toString(TestUtilities.TEST_DATE)},
+                    null,
+                    null,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        }
+        int rows = 0;
+        while (cursor.moveToNext()) {
+            cursor.getDouble(3);
+            rows++;
+        }
+        cursor.close();
+        assertEquals(BENCHMARK_DAYS, rows);
+        return System.nanoTime() - start;
+    }
+
+    public void testBenchmarkJoinVsId() {
+        long[] locationRowIds = new long[BENCHMARK_LOCATIONS];
+        for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+            locationRowIds[i] = insertLocation(TestUtilities.TEST_LOCATION + "-" + i);
+            insertForecast(locationRowIds[i], BENCHMARK_DAYS);
+        }
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        try {
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                int location = i % BENCHMARK_LOCATIONS;
+                runQuery(db, false, TestUtilities.TEST_LOCATION + "-" + location,
+                        locationRowIds[location]);
+                runQuery(db, true, null, locationRowIds[location]);
+            }
+            long joinNanos = 0;
+            long idNanos = 0;
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                int location = i % BENCHMARK_LOCATIONS;
+                joinNanos += runQuery(db, false, TestUtilities.TEST_LOCATION + "-" + location,
+                        locationRowIds[location]);
+                idNanos += runQuery(db, true, null, locationRowIds[location]);
+            }
+            Log.i(LOG_TAG, String.format(Locale.US,
+                    "%d-day forecast, %d locations: join %.1f us/query, by id %.1f us/query",
+                    BENCHMARK_DAYS, BENCHMARK_LOCATIONS, joinNanos / 1e3 / MEASURED_ROUNDS,
+                    idNanos / 1e3 / MEASURED_ROUNDS));
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    public void testBenchmarkSettingResolution() {
+        insertLocation(TestUtilities.TEST_LOCATION);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            // The always-true term makes every query distinct, so the query cache can't answer
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherContract.LocationEntry.CONTENT_URI,
+                    new String[]{WeatherContract.LocationEntry._ID},
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " + i + " >= 0",
+                    new String[]{TestUtilities.TEST_LOCATION},
+                    null);
+            assertTrue(cursor.moveToFirst());
+            cursor.close();
+        }
+        long queryNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            assertTrue(LocationIdCache.getLocationId(mContext, TestUtilities.TEST_LOCATION) != -1);
+        }
+        long cacheNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "location_setting -> _id: query %.1f us, cache %.2f us",
+                queryNanos / 1e3 / MEASURED_ROUNDS, cacheNanos / 1e3 / MEASURED_ROUNDS));
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+
+/*
+    Checks location/near against a brute-force ranking of the same places, including near the
+    antimeridian and the poles, and that the index follows location writes.  The benchmark
+    writes its results to logcat under this class's tag.
+ */
+public class TestLocationIndex extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestLocationIndex.class.getSimpleName();
+
+    private static final int PLACES = 2000;
+    private static final int BENCHMARK_PLACES = 20000;
+    private static final int K = 5;
+
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+    private long[] mRowIds;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static ContentValues createPlace(int i, double latitude, double longitude) {
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, "place " + i);
+        values.put(LocationEntry.COLUMN_CITY_NAME, "Place " + i);
+        values.put(LocationEntry.COLUMN_COORD_LAT, latitude);
+        values.put(LocationEntry.COLUMN_COORD_LONG, longitude);
+        return values;
+    }
+
+    // Places scattered over the whole globe, the same ones every run
+    private void insertPlaces(int count) {
+        Random random = new Random(42);
+        mLatitudes = new double[count];
+        mLongitudes = new double[count];
+        ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            mLatitudes[i] = Math.toDegrees(Math.asin(2 * random.nextDouble() - 1));
+            mLongitudes[i] = 360 * random.nextDouble() - 180;
+            rows[i] = createPlace(i, mLatitudes[i], mLongitudes[i]);
+        }
+        assertEquals(count, mContext.getContentResolver().bulkInsert(
+                LocationEntry.CONTENT_URI, rows));
+
+        mRowIds = new long[count];
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_CITY_NAME},
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                int i = Integer.parseInt(cursor.getString(1).substring("Place ".length()));
+                mRowIds[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // The same metric as the index, ranked in Java over every place
+    private long[] bruteForceNearest(final double latitude, final double longitude, int k) {
+        final double cosLatitude = Math.max(0.01, Math.cos(Math.toRadians(latitude)));
+        ArrayList<Integer> places = new ArrayList<Integer>(mLatitudes.length);
+        for (int i = 0; i < mLatitudes.length; i++) {
+            places.add(i);
+        }
+        Collections.sort(places, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(distanceSquared(a), distanceSquared(b));
+            }
+
+            private double distanceSquared(int i) {
+                double dLat = mLatitudes[i] - latitude;
+                double dLong = Math.abs(mLongitudes[i] - longitude);
+                dLong = Math.min(dLong, 360 - dLong) * cosLatitude;
+                return dLat * dLat + dLong * dLong;
+            }
+        });
+        long[] nearest = new long[Math.min(k, places.size())];
+        for (int i = 0; i < nearest.length; i++) {
+            nearest[i] = mRowIds[places.get(i)];
+        }
+        return nearest;
+    }
+
+    private long[] queryNearest(double latitude, double longitude, int k) {
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.buildLocationNearUri(latitude, longitude, k),
+                new String[]{LocationEntry.TABLE_NAME + "." + LocationEntry._ID},
+                null, null, null);
+        try {
+            long[] nearest = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                nearest[i] = cursor.getLong(0);
+            }
+            return nearest;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void assertNearest(double latitude, double longitude, int k) {
+        long[] expected = bruteForceNearest(latitude, longitude, k);
+        long[] actual = queryNearest(latitude, longitude, k);
+        assertEquals("Error: wrong number of places near " + latitude + "," + longitude,
+                expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Error: place " + i + " near " + latitude + "," + longitude
+                    + " is out of order", expected[i], actual[i]);
+        }
+    }
+
+    public void testNearestMatchesBruteForce() {
+        insertPlaces(PLACES);
+        assertNearest(37.386, -122.0838, K);
+        assertNearest(-33.87, 151.21, K);
+        // Across the antimeridian, and around the poles
+        assertNearest(-17.7, 179.9, K);
+        assertNearest(65.0, -179.95, K);
+        assertNearest(89.9, 0, K);
+        assertNearest(-89.9, 45, K);
+        // More places than are near, and more than there are
+        assertNearest(0, 0, 200);
+        assertNearest(0, 0, PLACES + 10);
+    }
+
+    public void testIndexFollowsLocationWrites() {
+        long paris = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, createPlace(0, 48.857, 2.352)));
+        long london = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, createPlace(1, 51.507, -0.128)));
+
+        long[] nearest = queryNearest(50.0, 1.0, 1);
+        assertEquals(1, nearest.length);
+        assertEquals(paris, nearest[0]);
+
+        // Paris moves to Sydney: London is now the nearest, and Paris the furthest
+        ContentValues moved = new ContentValues();
+        moved.put(LocationEntry.COLUMN_COORD_LAT, -33.87);
+        moved.put(LocationEntry.COLUMN_COORD_LONG, 151.21);
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, moved,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(paris)});
+        nearest = queryNearest(50.0, 1.0, 2);
+        assertEquals(2, nearest.length);
+        assertEquals(london, nearest[0]);
+        assertEquals(paris, nearest[1]);
+
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(london)});
+        nearest = queryNearest(50.0, 1.0, 2);
+        assertEquals(1, nearest.length);
+        assertEquals(paris, nearest[0]);
+    }
+
+    public void testBenchmarkNearestIn20kPlaces() {
+        insertPlaces(BENCHMARK_PLACES);
+        Random random = new Random(7);
+        final int ROUNDS = 50;
+        long indexNanos = 0;
+        long scanNanos = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            double latitude = 140 * random.nextDouble() - 70;
+            double longitude = 340 * random.nextDouble() - 170;
+
+            // A new point every time, so the provider's query cache never answers
+            long start = System.nanoTime();
+            long[] indexed = queryNearest(latitude, longitude, K);
+            indexNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long[] scanned = bruteForceNearest(latitude, longitude, K);
+            scanNanos += System.nanoTime() - start;
+            assertEquals(scanned[0], indexed[0]);
+        }
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d nearest of %d places: location/near %.2f ms, in-memory scan %.2f ms",
+                K, BENCHMARK_PLACES, indexNanos / 1e6 / ROUNDS, scanNanos / 1e6 / ROUNDS));
+    }
+}
@@ -183,6 +183,7 @@ public class TestProvider extends AndroidTestCase {
         assertTrue("Unable to Insert WeatherEntry into the Database", weatherRowId != -1);
 
         db.close();
+        TestUtilities.clearProviderQueryCache(mContext);
 
         // Test the basic content provider query
         Cursor weatherCursor = mContext.getContentResolver().query(
@@ -209,6 +210,7 @@ public class TestProvider extends AndroidTestCase {
 
         ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
         long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        TestUtilities.clearProviderQueryCache(mContext);
 
         // Test the basic content provider query
         Cursor locationCursor = mContext.getContentResolver().query(
@@ -512,4 +514,50 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // The diffing bulkInsert should only write, and only notify, the days that changed.
+    public void testDiffBulkInsert() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+
+        int changedCount = mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherDiffUri(), bulkInsertContentValues);
+        assertEquals("Every row is new the first time", BULK_INSERT_RECORDS_TO_INSERT, changedCount);
+
+        changedCount = mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherDiffUri(), createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Identical rows should be skipped", 0, changedCount);
+
+        // Change a single day, and watch for that day only
+        ContentValues[] updatedValues = createBulkInsertWeatherValues(locationRowId);
+        updatedValues[3].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        long changedDate = updatedValues[3].getAsLong(WeatherEntry.COLUMN_DATE);
+
+        TestUtilities.TestContentObserver dayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, changedDate),
+                true, dayObserver);
+
+        changedCount = mContext.getContentResolver().bulkInsert(
+                WeatherEntry.buildWeatherDiffUri(), updatedValues);
+        assertEquals(1, changedCount);
+
+        dayObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(dayObserver);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testDiffBulkInsert.  Error validating WeatherEntry " + i,
+                    cursor, updatedValues[i]);
+        }
+        cursor.close();
+    }
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Bundle;
+import android.test.AndroidTestCase;
+
+import java.util.Collections;
+
+/*
+    Checks QueryCache's bookkeeping directly, and that the provider serves repeated queries
+    from it and drops them when the underlying rows change.
+ */
+public class TestQueryCache extends AndroidTestCase {
+
+    private static final String[] COLUMNS = {"_id", "date", "short_desc", "max"};
+
+    private static Cursor buildResult(int rows) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow(new Object[]{(long) i, 1419033600L + i, "Clear", 21.5 + i});
+        }
+        return cursor;
+    }
+
+    private static String key(String locationSetting) {
+        return QueryCache.buildKey(WeatherContract.WeatherEntry
+                .buildWeatherLocation(locationSetting).toString(), COLUMNS, null, null, null);
+    }
+
+    private static void put(QueryCache cache, String locationSetting, int rows) {
+        cache.put(key(locationSetting), buildResult(rows),
+                QueryCache.TABLE_WEATHER | QueryCache.TABLE_LOCATION, locationSetting,
+                cache.getGeneration()).close();
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        if (!QueryCache.isSupported()) {
+            return;
+        }
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    public void testHitReturnsCopiedRows() {
+        if (!QueryCache.isSupported()) {
+            return;
+        }
+        QueryCache cache = new QueryCache(QueryCache.DEFAULT_MAX_BYTES);
+        assertNull(cache.get(key("94043")));
+        put(cache, "94043", 3);
+
+        Cursor cursor = cache.get(key("94043"));
+        assertNotNull("Error: the result should have been cached", cursor);
+        assertEquals(3, cursor.getCount());
+        assertTrue(cursor.moveToPosition(2));
+        assertEquals(2L, cursor.getLong(0));
+        assertEquals("Clear", cursor.getString(2));
+        assertEquals(23.5, cursor.getDouble(3));
+        assertEquals(Cursor.FIELD_TYPE_FLOAT, cursor.getType(3));
+        cursor.close();
+
+        // Every hit gets its own cursor position
+        Cursor first = cache.get(key("94043"));
+        Cursor second = cache.get(key("94043"));
+        first.moveToLast();
+        assertEquals(-1, second.getPosition());
+        first.close();
+        second.close();
+        assertEquals(0.75f, cache.getHitRatio());
+    }
+
+    public void testInvalidationIsPerLocation() {
+        if (!QueryCache.isSupported()) {
+            return;
+        }
+        QueryCache cache = new QueryCache(QueryCache.DEFAULT_MAX_BYTES);
+        put(cache, "94043", 14);
+        put(cache, "99705", 14);
+
+        cache.invalidateLocations(QueryCache.TABLE_WEATHER, Collections.singleton("99705"));
+        assertNotNull("Error: another location's result was dropped", cache.get(key("94043")));
+        assertNull("Error: the changed location's result was kept", cache.get(key("99705")));
+
+        cache.invalidateTable(QueryCache.TABLE_LOCATION);
+        assertNull("Error: a join should depend on the location table", cache.get(key("94043")));
+    }
+
+    public void testRacingQueryIsNotCached() {
+        if (!QueryCache.isSupported()) {
+            return;
+        }
+        QueryCache cache = new QueryCache(QueryCache.DEFAULT_MAX_BYTES);
+        long generation = cache.getGeneration();
+        // A write lands while the query is running
+        cache.invalidateLocations(QueryCache.TABLE_WEATHER, Collections.singleton("94043"));
+        Cursor cursor = cache.put(key("94043"), buildResult(14),
+                QueryCache.TABLE_WEATHER, "94043", generation);
+        assertEquals("Error: the caller should still get the result", 14, cursor.getCount());
+        cursor.close();
+        assertNull("Error: a possibly stale result was cached", cache.get(key("94043")));
+    }
+
+    public void testEvictsLeastRecentlyUsedByBytes() {
+        if (!QueryCache.isSupported()) {
+            return;
+        }
+        int maxBytes = 16 * 1024;
+        QueryCache cache = new QueryCache(maxBytes);
+        put(cache, "1", 14);
+        put(cache, "2", 14);
+        cache.get(key("1")).close();
+        // Fill the cache until something has to go
+        for (int i = 3; cache.getStats().getInt(QueryCache.STAT_EVICTIONS) == 0; i++) {
+            put(cache, Integer.toString(i), 14);
+        }
+
+        assertEquals(1, cache.getStats().getInt(QueryCache.STAT_EVICTIONS));
+        assertNull("Error: the least recently used result should go first", cache.get(key("2")));
+        assertNotNull(cache.get(key("1")));
+        assertTrue(cache.getStats().getInt(QueryCache.STAT_SIZE_BYTES) <= maxBytes);
+    }
+
+    private Bundle getProviderStats() {
+        return mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_QUERY_CACHE_STATS, null, null);
+    }
+
+    private int queryForecastCount() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testProviderServesRepeatedQueries() {
+        if (!QueryCache.isSupported() || !WeatherProvider.QUERY_CACHE_ENABLED) {
+            return;
+        }
+        mContext.getContentResolver().insert(WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        Cursor location = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI, null, null, null, null);
+        assertTrue(location.moveToFirst());
+        long locationRowId = location.getLong(location.getColumnIndex(
+                WeatherContract.LocationEntry._ID));
+        location.close();
+
+        assertEquals(0, queryForecastCount());
+        int hits = getProviderStats().getInt(QueryCache.STAT_HITS);
+        assertEquals(0, queryForecastCount());
+        assertEquals("Error: the repeated query should have been a hit",
+                hits + 1, getProviderStats().getInt(QueryCache.STAT_HITS));
+
+        // A write to the location must be visible straight away
+        ContentValues weather = TestUtilities.createWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(
+                WeatherContract.WeatherEntry.CONTENT_URI, new ContentValues[]{weather});
+        assertEquals(1, queryForecastCount());
+    }
+}
@@ -34,8 +34,21 @@ public class TestUriMatcher extends AndroidTestCase {
     private static final Uri TEST_WEATHER_DIR = WeatherContract.WeatherEntry.CONTENT_URI;
     private static final Uri TEST_WEATHER_WITH_LOCATION_DIR = WeatherContract.WeatherEntry.buildWeatherLocation(LOCATION_QUERY);
     private static final Uri TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_WEATHER_WITH_LOCATION_ID_DIR = WeatherContract.WeatherEntry.buildWeatherLocationId(TEST_LOCATION_ID);
+    private static final Uri TEST_WEATHER_WITH_LOCATION_ID_AND_DATE_DIR = WeatherContract.WeatherEntry.buildWeatherLocationIdWithDate(TEST_LOCATION_ID, TEST_DATE);
     // content://com.example.android.sunshine.app/location"
     private static final Uri TEST_LOCATION_DIR = WeatherContract.LocationEntry.CONTENT_URI;
+    private static final Uri TEST_LOCATION_NEAR_DIR = WeatherContract.LocationEntry.buildLocationNearUri(51.5, -0.1, 5);
+    private static final Uri TEST_WEATHER_STATS_DIR = WeatherContract.StatsEntry.buildStatsUri(LOCATION_QUERY, WeatherContract.StatsEntry.BUCKET_WEEK, TEST_DATE, TEST_DATE);
+    private static final Uri TEST_ARCHIVE_DIR = WeatherContract.ArchiveEntry.CONTENT_URI;
+    private static final Uri TEST_ARCHIVE_WITH_LOCATION_DIR = WeatherContract.ArchiveEntry.buildArchiveLocation(LOCATION_QUERY);
+    private static final Uri TEST_AGGREGATE_DIR = WeatherContract.AggregateEntry.CONTENT_URI;
+    private static final Uri TEST_AGGREGATE_WITH_LOCATION_AND_PERIOD_DIR = WeatherContract.AggregateEntry.buildAggregateLocation(LOCATION_QUERY, WeatherContract.AggregateEntry.PERIOD_WEEK);
+    private static final Uri TEST_HOURLY_DIR = WeatherContract.HourlyEntry.CONTENT_URI;
+    private static final Uri TEST_HOURLY_WITH_LOCATION_DIR = WeatherContract.HourlyEntry.buildHourlyLocation(LOCATION_QUERY);
+    private static final Uri TEST_HOURLY_WITH_LOCATION_AND_DATE_DIR = WeatherContract.HourlyEntry.buildHourlyLocationWithDate(LOCATION_QUERY, TEST_DATE);
+    private static final Uri TEST_CITY_DIR = WeatherContract.CityEntry.CONTENT_URI;
+    private static final Uri TEST_CITY_SEARCH_DIR = WeatherContract.CityEntry.buildCitySearchUri("san fr", 5);
 
     /*
         Students: This function tests that your UriMatcher returns the correct integer value
@@ -51,7 +64,33 @@ public class TestUriMatcher extends AndroidTestCase {
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_DIR), WeatherProvider.WEATHER_WITH_LOCATION);
         assertEquals("Error: The WEATHER WITH LOCATION AND DATE URI was matched incorrectly.",
                 testMatcher.match(TEST_WEATHER_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The WEATHER WITH LOCATION ID URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_WITH_LOCATION_ID_DIR), WeatherProvider.WEATHER_WITH_LOCATION_ID);
+        assertEquals("Error: The WEATHER WITH LOCATION ID AND DATE URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_WITH_LOCATION_ID_AND_DATE_DIR), WeatherProvider.WEATHER_WITH_LOCATION_ID_AND_DATE);
+        assertEquals("Error: The WEATHER STATS URI was matched incorrectly.",
+                testMatcher.match(TEST_WEATHER_STATS_DIR), WeatherProvider.WEATHER_STATS);
         assertEquals("Error: The LOCATION URI was matched incorrectly.",
                 testMatcher.match(TEST_LOCATION_DIR), WeatherProvider.LOCATION);
+        assertEquals("Error: The LOCATION NEAR URI was matched incorrectly.",
+                testMatcher.match(TEST_LOCATION_NEAR_DIR), WeatherProvider.LOCATION_NEAR);
+        assertEquals("Error: The ARCHIVE URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_DIR), WeatherProvider.ARCHIVE);
+        assertEquals("Error: The ARCHIVE WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_ARCHIVE_WITH_LOCATION_DIR), WeatherProvider.ARCHIVE_WITH_LOCATION);
+        assertEquals("Error: The AGGREGATE URI was matched incorrectly.",
+                testMatcher.match(TEST_AGGREGATE_DIR), WeatherProvider.AGGREGATE);
+        assertEquals("Error: The AGGREGATE WITH LOCATION AND PERIOD URI was matched incorrectly.",
+                testMatcher.match(TEST_AGGREGATE_WITH_LOCATION_AND_PERIOD_DIR), WeatherProvider.AGGREGATE_WITH_LOCATION_AND_PERIOD);
+        assertEquals("Error: The HOURLY URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_DIR), WeatherProvider.HOURLY);
+        assertEquals("Error: The HOURLY WITH LOCATION URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_DIR), WeatherProvider.HOURLY_WITH_LOCATION);
+        assertEquals("Error: The HOURLY WITH LOCATION AND DATE URI was matched incorrectly.",
+                testMatcher.match(TEST_HOURLY_WITH_LOCATION_AND_DATE_DIR), WeatherProvider.HOURLY_WITH_LOCATION_AND_DATE);
+        assertEquals("Error: The CITY URI was matched incorrectly.",
+                testMatcher.match(TEST_CITY_DIR), WeatherProvider.CITY);
+        assertEquals("Error: The CITY SEARCH URI was matched incorrectly.",
+                testMatcher.match(TEST_CITY_SEARCH_DIR), WeatherProvider.CITY_SEARCH);
     }
 }
@@ -21,12 +21,15 @@ import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.test.AndroidTestCase;
 
 import com.example.android.sunshine.app.utils.PollingCheck;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -38,6 +41,7 @@ import java.util.Set;
 public class TestUtilities extends AndroidTestCase {
     static final String TEST_LOCATION = "99705";
     static final long TEST_DATE = 1419033600L;  // December 20th, 2014
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
 
     static void validateCursor(String error, Cursor valueCursor, ContentValues expectedValues) {
         assertTrue("Empty cursor returned. " + error, valueCursor.moveToFirst());
@@ -77,6 +81,48 @@ public class TestUtilities extends AndroidTestCase {
         return weatherValues;
     }
 
+    /*
+        The default weather values, for one day.
+     */
+    static ContentValues createWeatherValues(long locationRowId, long date) {
+        ContentValues weatherValues = createWeatherValues(locationRowId);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+        return weatherValues;
+    }
+
+    /*
+        The date a number of days after a first one, for tests that lay out a run of days.
+     */
+    static long dayAfter(long firstDay, int days) {
+        return firstDay + days * DAY_IN_MILLIS;
+    }
+
+    /*
+        Sets the values a test wants to vary from day to day, for insertWeatherDays.
+     */
+    interface DayValues {
+        void put(ContentValues values, int day);
+    }
+
+    /*
+        Inserts the default weather values for the days from "from" up to but not including
+        "to", counted from firstDay, through the provider's bulkInsert.  dayValues, if not null,
+        adjusts each day's values first.
+     */
+    static int insertWeatherDays(Context context, long locationRowId, long firstDay, int from,
+                                 int to, DayValues dayValues) {
+        ContentValues[] rows = new ContentValues[to - from];
+        for (int day = from; day < to; day++) {
+            ContentValues values = createWeatherValues(locationRowId, dayAfter(firstDay, day));
+            if (dayValues != null) {
+                dayValues.put(values, day);
+            }
+            rows[day - from] = values;
+        }
+        return context.getContentResolver().bulkInsert(
+                WeatherContract.WeatherEntry.CONTENT_URI, rows);
+    }
+
     /*
         Students: You can uncomment this helper function once you have finished creating the
         LocationEntry part of the WeatherContract.
@@ -111,6 +157,17 @@ public class TestUtilities extends AndroidTestCase {
         return locationRowId;
     }
 
+    /*
+        The provider caches query results and only invalidates them on its own writes, so tests
+        that write the database directly must call this before reading through the provider.
+     */
+    static void clearProviderQueryCache(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            context.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_CLEAR_QUERY_CACHE, null, null);
+        }
+    }
+
     /*
         Students: The functions we provide inside of TestProvider use this utility class to test
         the ContentObserver callbacks using the PollingCheck class that we grabbed from the Android
@@ -163,4 +220,60 @@ public class TestUtilities extends AndroidTestCase {
     static TestContentObserver getTestContentObserver() {
         return TestContentObserver.getTestContentObserver();
     }
+
+    // Notified at the end of each scenario.  Oneway binder calls to one observer arrive in
+    // order, so once the observer has seen this, it has seen everything the provider sent
+    // before it.
+    static final Uri SENTINEL_URI =
+            WeatherContract.BASE_CONTENT_URI.buildUpon().appendPath("test_sentinel").build();
+
+    /*
+        Records every URI it is notified of, on its own thread.  Register it on
+        BASE_CONTENT_URI, with descendants, so that it sees the sentinel.
+     */
+    static class CountingObserver extends ContentObserver {
+        final HandlerThread mThread;
+        final List<Uri> mUris = new ArrayList<Uri>();
+
+        static CountingObserver create() {
+            HandlerThread thread = new HandlerThread("CountingObserverThread");
+            thread.start();
+            return new CountingObserver(thread);
+        }
+
+        private CountingObserver(HandlerThread thread) {
+            super(new Handler(thread.getLooper()));
+            mThread = thread;
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            synchronized (mUris) {
+                mUris.add(uri);
+            }
+        }
+
+        // Returns the URIs notified before the sentinel, and forgets them
+        List<Uri> drain(Context context) {
+            context.getContentResolver().notifyChange(SENTINEL_URI, null);
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    synchronized (mUris) {
+                        return mUris.contains(SENTINEL_URI);
+                    }
+                }
+            }.run();
+            synchronized (mUris) {
+                List<Uri> uris = new ArrayList<Uri>(mUris.subList(0, mUris.indexOf(SENTINEL_URI)));
+                mUris.clear();
+                return uris;
+            }
+        }
+    }
+
+    // onChange(boolean, Uri), which tells the URIs apart, arrived in Jelly Bean
+    static boolean canTellNotifiedUris() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+    }
 }
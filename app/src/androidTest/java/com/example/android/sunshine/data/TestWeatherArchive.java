@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+/*
+    Checks that the archiving delete moves expired days into the archive, rolls them up into
+    weekly and monthly aggregates with the right figures, and never counts a day twice.
+ */
+public class TestWeatherArchive extends AndroidTestCase {
+
+    // Monday, March 2nd, 2015, noon UTC; the two weeks after it stay within March everywhere
+    private static final long FIRST_DAY = WeatherContract.normalizeDate(1425297600000L);
+    private static final int DAYS = 14;
+
+    private static final String[] AGGREGATE_COLUMNS = {
+            WeatherContract.AggregateEntry.COLUMN_PERIOD_START,
+            WeatherContract.AggregateEntry.COLUMN_DAY_COUNT,
+            WeatherContract.AggregateEntry.COLUMN_MIN_TEMP,
+            WeatherContract.AggregateEntry.COLUMN_MAX_TEMP,
+            WeatherContract.AggregateEntry.COLUMN_MEAN_MIN_TEMP,
+            WeatherContract.AggregateEntry.COLUMN_MEAN_MAX_TEMP
+    };
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        Uri uri = mContext.getContentResolver().insert(WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mLocationRowId = ContentUris.parseId(uri);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.ArchiveEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.AggregateEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private void insertDays(int from, int to) {
+        TestUtilities.insertWeatherDays(mContext, mLocationRowId, FIRST_DAY, from, to,
+                new TestUtilities.DayValues() {
+                    @Override
+                    public void put(ContentValues values, int day) {
+                        values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10 + day);
+                        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20 + day);
+                    }
+                });
+    }
+
+    private int archiveUpTo(int lastDay) {
+        return mContext.getContentResolver().delete(
+                WeatherContract.WeatherEntry.buildWeatherArchivingUri(),
+                WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(TestUtilities.dayAfter(FIRST_DAY, lastDay))});
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Cursor queryAggregates(String period) {
+        return mContext.getContentResolver().query(
+                WeatherContract.AggregateEntry.buildAggregateLocation(
+                        TestUtilities.TEST_LOCATION, period),
+                AGGREGATE_COLUMNS, null, null,
+                WeatherContract.AggregateEntry.COLUMN_PERIOD_START + " ASC");
+    }
+
+    public void testArchivingMovesDays() {
+        insertDays(0, DAYS);
+        assertEquals(10, archiveUpTo(9));
+
+        assertEquals("Error: the forecast should only keep the days that weren't archived",
+                DAYS - 10, count(WeatherContract.WeatherEntry.CONTENT_URI));
+        assertEquals(10, count(WeatherContract.ArchiveEntry.buildArchiveLocation(
+                TestUtilities.TEST_LOCATION)));
+    }
+
+    public void testAggregatesAreMerged() {
+        insertDays(0, DAYS);
+        archiveUpTo(9);
+        assertMonth(10, 10, 29, 14.5, 24.5);
+
+        // The second pass has to merge with the stored aggregates, weighted by day count
+        archiveUpTo(DAYS - 1);
+        assertMonth(DAYS, 10, 33, 16.5, 26.5);
+
+        Cursor weeks = queryAggregates(WeatherContract.AggregateEntry.PERIOD_WEEK);
+        try {
+            int days = 0;
+            double sumMin = 0;
+            Time scratch = new Time();
+            while (weeks.moveToNext()) {
+                assertEquals("Error: a week should start on a Monday",
+                        WeatherArchive.getWeekStart(weeks.getLong(0), scratch), weeks.getLong(0));
+                days += weeks.getInt(1);
+                sumMin += weeks.getDouble(4) * weeks.getInt(1);
+            }
+            assertEquals(DAYS, days);
+            assertEquals(16.5, sumMin / days, 1e-9);
+        } finally {
+            weeks.close();
+        }
+    }
+
+    public void testDayIsOnlyCountedOnce() {
+        insertDays(0, DAYS);
+        archiveUpTo(DAYS - 1);
+
+        // The same day comes back (say, from a late sync) and expires again
+        insertDays(0, 1);
+        assertEquals(1, archiveUpTo(0));
+        assertEquals(0, count(WeatherContract.WeatherEntry.CONTENT_URI));
+        assertEquals(DAYS, count(WeatherContract.ArchiveEntry.CONTENT_URI));
+        assertMonth(DAYS, 10, 33, 16.5, 26.5);
+    }
+
+    private void assertMonth(int dayCount, double min, double max, double meanMin,
+                             double meanMax) {
+        Cursor months = queryAggregates(WeatherContract.AggregateEntry.PERIOD_MONTH);
+        try {
+            assertEquals("Error: every day is in March", 1, months.getCount());
+            assertTrue(months.moveToFirst());
+            assertEquals(WeatherArchive.getMonthStart(FIRST_DAY, new Time()), months.getLong(0));
+            assertEquals(dayCount, months.getInt(1));
+            assertEquals(min, months.getDouble(2));
+            assertEquals(max, months.getDouble(3));
+            assertEquals(meanMin, months.getDouble(4), 1e-9);
+            assertEquals(meanMax, months.getDouble(5), 1e-9);
+        } finally {
+            months.close();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.data.WeatherContract.StatsEntry;
+
+import java.util.TreeMap;
+
+/*
+    Checks the statistics computed in SQLite against the same figures computed in Java, for
+    each kind of bucket, and that they are only recomputed after the weather changes.
+ */
+public class TestWeatherStats extends AndroidTestCase {
+
+    // March 2nd, 2015, noon UTC; five weeks cross a month boundary wherever the test runs
+    private static final long FIRST_DAY = WeatherContract.normalizeDate(1425297600000L);
+    private static final int DAYS = 35;
+
+    private static final String[] STATS_COLUMNS = {
+            StatsEntry.COLUMN_BUCKET_START,
+            StatsEntry.COLUMN_COUNT,
+            StatsEntry.COLUMN_LOW_MIN,
+            StatsEntry.COLUMN_HIGH_MAX,
+            StatsEntry.COLUMN_HIGH_MEAN,
+            StatsEntry.COLUMN_WIND_SPEED_MEAN
+    };
+
+    private long mLocationRowId;
+    private WeatherDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        Uri uri = mContext.getContentResolver().insert(WeatherContract.LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mLocationRowId = ContentUris.parseId(uri);
+        mDbHelper = new WeatherDbHelper(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static long day(int day) {
+        return TestUtilities.dayAfter(FIRST_DAY, day);
+    }
+
+    private static double high(int day) {
+        return 20 + (day * 7) % 11;
+    }
+
+    private static final TestUtilities.DayValues DAY_VALUES = new TestUtilities.DayValues() {
+        @Override
+        public void put(ContentValues values, int day) {
+            values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10 + day % 7);
+            values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high(day));
+            values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, day);
+        }
+    };
+
+    private void insertDays() {
+        TestUtilities.insertWeatherDays(mContext, mLocationRowId, FIRST_DAY, 0, DAYS, DAY_VALUES);
+    }
+
+    private Cursor queryStats(String bucket, long from, long to) {
+        return mContext.getContentResolver().query(
+                StatsEntry.buildStatsUri(TestUtilities.TEST_LOCATION, bucket, from, to),
+                STATS_COLUMNS, null, null, null);
+    }
+
+    // Buckets the days in Java, and checks every SQL bucket against them
+    private void assertBuckets(String bucket) {
+        // bucket start -> {count, low min, high max, high sum, wind sum}
+        TreeMap<Long, double[]> expected = new TreeMap<Long, double[]>();
+        for (int i = 0; i < DAYS; i++) {
+            long start = WeatherStats.getBucketStart(bucket, day(i));
+            double[] figures = expected.get(start);
+            if (figures == null) {
+                figures = new double[]{0, Double.MAX_VALUE, -Double.MAX_VALUE, 0, 0};
+                expected.put(start, figures);
+            }
+            figures[0]++;
+            figures[1] = Math.min(figures[1], 10 + i % 7);
+            figures[2] = Math.max(figures[2], high(i));
+            figures[3] += high(i);
+            figures[4] += i;
+        }
+
+        Cursor cursor = queryStats(bucket, day(0), day(DAYS - 1));
+        try {
+            assertEquals("Error: wrong number of " + bucket + " buckets",
+                    expected.size(), cursor.getCount());
+            for (Long start : expected.keySet()) {
+                assertTrue(cursor.moveToNext());
+                double[] figures = expected.get(start);
+                assertEquals("Error: " + bucket + " buckets should start where Java says",
+                        (long) start, cursor.getLong(0));
+                assertEquals((int) figures[0], cursor.getInt(1));
+                assertEquals(figures[1], cursor.getDouble(2));
+                assertEquals(figures[2], cursor.getDouble(3));
+                assertEquals(figures[3] / figures[0], cursor.getDouble(4), 1e-9);
+                assertEquals(figures[4] / figures[0], cursor.getDouble(5), 1e-9);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testBucketsMatchJava() {
+        insertDays();
+        assertBuckets(StatsEntry.BUCKET_DAY);
+        assertBuckets(StatsEntry.BUCKET_WEEK);
+        assertBuckets(StatsEntry.BUCKET_MONTH);
+    }
+
+    public void testRangeCoversWholeBuckets() {
+        insertDays();
+        // Mid-week to mid-week: both weeks, whole
+        Cursor cursor = queryStats(StatsEntry.BUCKET_WEEK, day(10), day(16));
+        try {
+            int days = 0;
+            while (cursor.moveToNext()) {
+                days += cursor.getInt(1);
+            }
+            assertTrue(cursor.getCount() >= 1 && cursor.getCount() <= 2);
+            assertEquals(7 * cursor.getCount(), days);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testMaterializedUntilWeatherChanges() {
+        insertDays();
+        queryStats(StatsEntry.BUCKET_WEEK, day(0), day(6)).close();
+        // Another range of the same buckets is read from the table, not recomputed
+        queryStats(StatsEntry.BUCKET_WEEK, day(7), day(20)).close();
+        assertFalse("Error: the weeks should have been materialized by the first query",
+                WeatherStats.materialize(mDbHelper.getWritableDatabase(), mLocationRowId,
+                        StatsEntry.BUCKET_WEEK));
+
+        // A hotter first day has to show up in its week
+        ContentValues hotter = TestUtilities.createWeatherValues(mLocationRowId, day(0));
+        DAY_VALUES.put(hotter, 0);
+        hotter.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 99);
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                new ContentValues[]{hotter});
+        Cursor cursor = queryStats(StatsEntry.BUCKET_WEEK, day(0), day(0));
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(99.0, cursor.getDouble(3));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs BatchSyncEngine against the loopback stand-in server from TestForecastResponseCache,
+    checking that every location comes back, in order, and that a second pass revalidates.
+ */
+public class TestBatchSyncEngine extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBatchSyncEngine.class.getSimpleName();
+
+    private static final int LOCATION_COUNT = 12;
+
+    private ForecastResponseCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getSharedPreferences(ForecastResponseCache.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+        mCache = new ForecastResponseCache(mContext);
+    }
+
+    private static List<String> locations() {
+        ArrayList<String> locations = new ArrayList<String>(LOCATION_COUNT);
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            locations.add("9970" + i);
+        }
+        return locations;
+    }
+
+    private static void closeAll(List<BatchSyncEngine.LocationResult> results) {
+        for (BatchSyncEngine.LocationResult result : results) {
+            if (result.response != null) {
+                result.response.close();
+            }
+        }
+    }
+
+    public void testFetchAllLocations() throws Exception {
+        final TestForecastResponseCache.StandInServer server =
+                new TestForecastResponseCache.StandInServer("no-cache");
+        server.start();
+        try {
+            BatchSyncEngine engine = new BatchSyncEngine(new ForecastFetcher(mCache),
+                    new BatchSyncEngine.UrlFactory() {
+                        @Override
+                        public URL buildUrl(String locationQuery) throws IOException {
+                            return new URL(server.url().toString() + "&id=" + locationQuery);
+                        }
+                    }, ForecastJsonParser.isStreamingSupported(), 2);
+
+            List<String> locations = locations();
+            List<BatchSyncEngine.LocationResult> results = engine.fetchAll(locations, true);
+            try {
+                assertEquals(LOCATION_COUNT, results.size());
+                for (int i = 0; i < LOCATION_COUNT; i++) {
+                    BatchSyncEngine.LocationResult result = results.get(i);
+                    Log.d(LOG_TAG, result.toString());
+                    assertEquals("Results must come back in query order",
+                            locations.get(i), result.locationQuery);
+                    assertEquals(ForecastFetcher.RESULT_FETCHED, result.fetchResult);
+                    assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, result.status);
+                    assertTrue(result.hasForecast());
+                    assertEquals(14, result.forecast.days.size());
+                    result.response.commit();
+                }
+            } finally {
+                closeAll(results);
+            }
+            assertEquals(LOCATION_COUNT, server.mRequests.get());
+            assertEquals(LOCATION_COUNT, mCache.getMissCount());
+
+            // Everything was committed, so the next pass is all 304s
+            results = engine.fetchAll(locations, true);
+            try {
+                for (BatchSyncEngine.LocationResult result : results) {
+                    assertEquals(ForecastFetcher.RESULT_NOT_MODIFIED, result.fetchResult);
+                    assertFalse(result.hasForecast());
+                }
+            } finally {
+                closeAll(results);
+            }
+            assertEquals(LOCATION_COUNT, server.mConditionalRequests.get());
+            assertEquals(LOCATION_COUNT, mCache.getRevalidationCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Exercises ForecastFetcher and ForecastResponseCache against a tiny stand-in for the
+    OpenWeatherMap server running on the loopback interface.
+ */
+public class TestForecastResponseCache extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "99705";
+    private static final String TEST_ETAG = "\"forecast-v1\"";
+    private static final String TEST_BODY =
+            TestIngestionBenchmark.buildForecastJson("North Pole", 14);
+
+    /**
+     * Serves TEST_BODY with an ETag, and answers 304 to any request carrying that ETag.
+     */
+    static class StandInServer extends Thread {
+        final ServerSocket mSocket;
+        final String mCacheControl;
+        final AtomicInteger mRequests = new AtomicInteger();
+        final AtomicInteger mConditionalRequests = new AtomicInteger();
+
+        StandInServer(String cacheControl) throws IOException {
+            mSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+            mCacheControl = cacheControl;
+            setDaemon(true);
+        }
+
+        URL url() throws IOException {
+            return new URL("http://127.0.0.1:" + mSocket.getLocalPort() + "/forecast/daily?q="
+                    + TEST_LOCATION);
+        }
+
+        @Override
+        public void run() {
+            while (!mSocket.isClosed()) {
+                try {
+                    Socket client = mSocket.accept();
+                    handle(client);
+                } catch (IOException e) {
+                    // The socket was closed by shutdown()
+                }
+            }
+        }
+
+        private void handle(Socket client) throws IOException {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(client.getInputStream(), "UTF-8"));
+            boolean conditional = false;
+            String line;
+            while ((line = in.readLine()) != null && line.length() > 0) {
+                if (line.regionMatches(true, 0, "If-None-Match:", 0, 14)
+                        && line.substring(14).trim().equals(TEST_ETAG)) {
+                    conditional = true;
+                }
+            }
+            mRequests.incrementAndGet();
+
+            StringBuilder response = new StringBuilder();
+            byte[] body = new byte[0];
+            if (conditional) {
+                mConditionalRequests.incrementAndGet();
+                response.append("HTTP/1.1 304 Not Modified\r\n");
+            } else {
+                body = TEST_BODY.getBytes("UTF-8");
+                response.append("HTTP/1.1 200 OK\r\n")
+                        .append("Content-Type: application/json; charset=utf-8\r\n");
+            }
+            response.append("ETag: ").append(TEST_ETAG).append("\r\n");
+            if (mCacheControl != null) {
+                response.append("Cache-Control: ").append(mCacheControl).append("\r\n");
+            }
+            response.append("Content-Length: ").append(body.length).append("\r\n")
+                    .append("Connection: close\r\n\r\n");
+
+            OutputStream out = client.getOutputStream();
+            out.write(response.toString().getBytes("UTF-8"));
+            out.write(body);
+            out.flush();
+            client.close();
+        }
+
+        void shutdown() throws IOException {
+            mSocket.close();
+        }
+    }
+
+    private ForecastResponseCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getSharedPreferences(ForecastResponseCache.PREFS_NAME, Context.MODE_PRIVATE)
+                .edit().clear().commit();
+        mCache = new ForecastResponseCache(mContext);
+    }
+
+    private int fetchAndStore(ForecastFetcher fetcher, URL url, boolean allowFresh)
+            throws Exception {
+        ForecastFetcher.Response response = fetcher.fetch(url, TEST_LOCATION, allowFresh);
+        try {
+            if (response.result == ForecastFetcher.RESULT_FETCHED) {
+                ForecastJsonParser.Forecast forecast =
+                        new ForecastJsonParser(ForecastJsonParser.currentJulianStartDay())
+                                .parseStream(response.body);
+                assertEquals(14, forecast.days.size());
+                response.commit();
+            }
+            return response.result;
+        } finally {
+            response.close();
+        }
+    }
+
+    public void testRevalidatesWithEtag() throws Exception {
+        StandInServer server = new StandInServer("no-cache");
+        server.start();
+        try {
+            ForecastFetcher fetcher = new ForecastFetcher(mCache);
+
+            assertEquals(ForecastFetcher.RESULT_FETCHED, fetchAndStore(fetcher, server.url(), true));
+            assertEquals(ForecastFetcher.RESULT_NOT_MODIFIED,
+                    fetchAndStore(fetcher, server.url(), true));
+            assertEquals(ForecastFetcher.RESULT_NOT_MODIFIED,
+                    fetchAndStore(fetcher, server.url(), true));
+
+            assertEquals(3, server.mRequests.get());
+            assertEquals(2, server.mConditionalRequests.get());
+            assertEquals(1, mCache.getMissCount());
+            assertEquals(2, mCache.getRevalidationCount());
+            assertEquals(0, mCache.getHitCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public void testFreshEntrySkipsNetwork() throws Exception {
+        StandInServer server = new StandInServer("max-age=3600");
+        server.start();
+        try {
+            ForecastFetcher fetcher = new ForecastFetcher(mCache);
+
+            assertEquals(ForecastFetcher.RESULT_FETCHED, fetchAndStore(fetcher, server.url(), true));
+            assertEquals(ForecastFetcher.RESULT_FRESH, fetchAndStore(fetcher, server.url(), true));
+            assertEquals(1, server.mRequests.get());
+
+            // A manual refresh still asks the server, but only conditionally
+            assertEquals(ForecastFetcher.RESULT_NOT_MODIFIED,
+                    fetchAndStore(fetcher, server.url(), false));
+            assertEquals(2, server.mRequests.get());
+
+            assertEquals(1, mCache.getHitCount());
+            assertEquals(1, mCache.getMissCount());
+            assertEquals(1, mCache.getRevalidationCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    public void testUncommittedResponseIsNotRevalidated() throws Exception {
+        StandInServer server = new StandInServer("no-cache");
+        server.start();
+        try {
+            ForecastFetcher fetcher = new ForecastFetcher(mCache);
+
+            // Simulate a sync that fetched but failed to store: nothing is committed
+            ForecastFetcher.Response response = fetcher.fetch(server.url(), TEST_LOCATION, true);
+            assertEquals(ForecastFetcher.RESULT_FETCHED, response.result);
+            response.close();
+
+            assertEquals(ForecastFetcher.RESULT_FETCHED, fetchAndStore(fetcher, server.url(), true));
+            assertEquals(0, server.mConditionalRequests.get());
+        } finally {
+            server.shutdown();
+        }
+    }
+}
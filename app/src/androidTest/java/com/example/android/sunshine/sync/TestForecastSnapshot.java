@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Locale;
+
+/*
+    Checks that a snapshot survives the trip through its file, that a damaged file is ignored,
+    and compares reading the mapped file against querying the provider.  Benchmark results are
+    written to logcat under this class's tag.
+ */
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastSnapshot.class.getSimpleName();
+
+    private static final String LOCATION_SETTING = "99705";
+    private static final int DAYS = 14;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 50;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        ForecastSnapshot.invalidate(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        ForecastSnapshot.invalidate(mContext);
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static long today() {
+        return WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    private static ForecastSnapshot createSnapshot(String locationSetting, int days) {
+        long[] rowIds = new long[days];
+        long[] dates = new long[days];
+        int[] weatherIds = new int[days];
+        String[] descriptions = new String[days];
+        double[] highs = new double[days];
+        double[] lows = new double[days];
+        for (int i = 0; i < days; i++) {
+            rowIds[i] = 100 + i;
+            dates[i] = today() + i * DateUtils.DAY_IN_MILLIS;
+            weatherIds[i] = 800 + i;
+            // Multi-byte characters, and an empty description
+            descriptions[i] = i == 1 ? "" : "Chute de neige n°" + i;
+            highs[i] = 20.5 + i;
+            lows[i] = -3.25 - i;
+        }
+        return ForecastSnapshot.create(locationSetting, today(), rowIds, dates, weatherIds,
+                descriptions, highs, lows);
+    }
+
+    private static void assertSameDays(ForecastSnapshot expected, ForecastSnapshot actual) {
+        assertEquals(expected.getLocationSetting(), actual.getLocationSetting());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getRowId(i), actual.getRowId(i));
+            assertEquals(expected.getDate(i), actual.getDate(i));
+            assertEquals(expected.getWeatherId(i), actual.getWeatherId(i));
+            assertEquals(expected.getDescription(i), actual.getDescription(i));
+            assertEquals(expected.getHigh(i), actual.getHigh(i));
+            assertEquals(expected.getLow(i), actual.getLow(i));
+            assertEquals(expected.getIconResourceId(i), actual.getIconResourceId(i));
+        }
+    }
+
+    private void insertForecast() {
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, LOCATION_SETTING);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+
+        ContentValues[] rows = new ContentValues[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            rows[i].put(WeatherEntry.COLUMN_DATE, today() + i * DateUtils.DAY_IN_MILLIS);
+            rows[i].put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            rows[i].put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            rows[i].put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            rows[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i);
+            rows[i].put(WeatherEntry.COLUMN_MIN_TEMP, 65 - i);
+            rows[i].put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            rows[i].put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            rows[i].put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, rows);
+    }
+
+    public void testFileRoundTrip() {
+        ForecastSnapshot snapshot = createSnapshot(LOCATION_SETTING, DAYS);
+        ForecastSnapshot.write(mContext, snapshot);
+        ForecastSnapshot mapped = ForecastSnapshot.map(mContext);
+        assertNotNull("Error: a written snapshot should map", mapped);
+        assertSameDays(snapshot, mapped);
+
+        // Replacing the file leaves an existing mapping intact
+        ForecastSnapshot.write(mContext, createSnapshot("94043", 2));
+        assertSameDays(snapshot, mapped);
+        assertEquals(2, ForecastSnapshot.map(mContext).size());
+    }
+
+    public void testLoadedSnapshotMatchesProvider() {
+        insertForecast();
+        ForecastSnapshot loaded = ForecastSnapshot.load(mContext, LOCATION_SETTING);
+        assertEquals(DAYS, loaded.size());
+        assertEquals(today(), loaded.getDate(0));
+        assertEquals("Asteroids", loaded.getDescription(DAYS - 1));
+        assertEquals(75.0 + DAYS - 1, loaded.getHigh(DAYS - 1));
+
+        ForecastSnapshot.write(mContext, loaded);
+        assertSameDays(loaded, ForecastSnapshot.map(mContext));
+    }
+
+    public void testDamagedFileIsIgnored() throws Exception {
+        ForecastSnapshot.write(mContext, createSnapshot(LOCATION_SETTING, DAYS));
+        File file = new File(mContext.getFilesDir(), ForecastSnapshot.FILE_NAME);
+        long length = file.length();
+
+        // Truncated in the middle of the records
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.getChannel().truncate(length / 2);
+        out.close();
+        assertNull(ForecastSnapshot.map(mContext));
+
+        out = new FileOutputStream(file);
+        out.write(new byte[]{'n', 'o', 'p', 'e'});
+        out.close();
+        assertNull(ForecastSnapshot.map(mContext));
+    }
+
+    public void testBenchmarkMappedFileAgainstProvider() {
+        insertForecast();
+        ForecastSnapshot.write(mContext, ForecastSnapshot.load(mContext, LOCATION_SETTING));
+
+        // What a consumer in a new process pays for every day: through the provider, or
+        // mapping the file
+        double sum = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sum += readAll(ForecastSnapshot.load(mContext, LOCATION_SETTING));
+            sum += readAll(ForecastSnapshot.map(mContext));
+        }
+        long providerNanos = 0, mappedNanos = 0;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            sum += readAll(ForecastSnapshot.load(mContext, LOCATION_SETTING));
+            providerNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            sum += readAll(ForecastSnapshot.map(mContext));
+            mappedNanos += System.nanoTime() - start;
+        }
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%d days (%d-byte file): provider %.3f ms, mapped file %.3f ms (checksum %.1f)",
+                DAYS, new File(mContext.getFilesDir(), ForecastSnapshot.FILE_NAME).length(),
+                providerNanos / 1e6 / MEASURED_ROUNDS, mappedNanos / 1e6 / MEASURED_ROUNDS, sum));
+    }
+
+    private static double readAll(ForecastSnapshot snapshot) {
+        double sum = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            sum += snapshot.getDate(i) % 1000 + snapshot.getWeatherId(i) + snapshot.getHigh(i)
+                    + snapshot.getLow(i) + snapshot.getDescription(i).length();
+        }
+        return sum;
+    }
+}
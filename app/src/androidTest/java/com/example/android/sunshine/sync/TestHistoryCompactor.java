@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherContract.AggregateEntry;
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherDbHelper;
+
+/*
+    Checks that HistoryCompactor keeps each grain of history for as long as the retention
+    preference allows it, and no longer.
+ */
+public class TestHistoryCompactor extends AndroidTestCase {
+
+    // June 1st, 2015, noon UTC
+    private static final long NOW = 1433160000000L;
+    private static final long LOCATION_ID = 1;
+
+    private WeatherDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDbHelper = new WeatherDbHelper(mContext);
+        deleteHistory();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteHistory();
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    private void deleteHistory() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.delete(ArchiveEntry.TABLE_NAME, null, null);
+        db.delete(AggregateEntry.TABLE_NAME, null, null);
+    }
+
+    private static long daysAgo(int days) {
+        return WeatherContract.normalizeDate(NOW - days * DateUtils.DAY_IN_MILLIS);
+    }
+
+    private void insertArchivedDay(int daysAgo) {
+        ContentValues values = new ContentValues();
+        values.put(ArchiveEntry.COLUMN_LOC_KEY, LOCATION_ID);
+        values.put(ArchiveEntry.COLUMN_DATE, daysAgo(daysAgo));
+        values.put(ArchiveEntry.COLUMN_WEATHER_ID, 800);
+        values.put(ArchiveEntry.COLUMN_MIN_TEMP, 10);
+        values.put(ArchiveEntry.COLUMN_MAX_TEMP, 20);
+        values.put(ArchiveEntry.COLUMN_HUMIDITY, 50);
+        values.put(ArchiveEntry.COLUMN_PRESSURE, 1013);
+        values.put(ArchiveEntry.COLUMN_WIND_SPEED, 3);
+        values.put(ArchiveEntry.COLUMN_DEGREES, 180);
+        assertTrue(mDbHelper.getWritableDatabase().insert(
+                ArchiveEntry.TABLE_NAME, null, values) != -1);
+    }
+
+    private void insertAggregate(String period, int daysAgo) {
+        ContentValues values = new ContentValues();
+        values.put(AggregateEntry.COLUMN_LOC_KEY, LOCATION_ID);
+        values.put(AggregateEntry.COLUMN_PERIOD, period);
+        values.put(AggregateEntry.COLUMN_PERIOD_START, daysAgo(daysAgo));
+        values.put(AggregateEntry.COLUMN_DAY_COUNT, 7);
+        values.put(AggregateEntry.COLUMN_MIN_TEMP, 5);
+        values.put(AggregateEntry.COLUMN_MAX_TEMP, 25);
+        values.put(AggregateEntry.COLUMN_MEAN_MIN_TEMP, 10);
+        values.put(AggregateEntry.COLUMN_MEAN_MAX_TEMP, 20);
+        values.put(AggregateEntry.COLUMN_MEAN_HUMIDITY, 50);
+        values.put(AggregateEntry.COLUMN_MEAN_PRESSURE, 1013);
+        values.put(AggregateEntry.COLUMN_MEAN_WIND_SPEED, 3);
+        assertTrue(mDbHelper.getWritableDatabase().insert(
+                AggregateEntry.TABLE_NAME, null, values) != -1);
+    }
+
+    private long countArchive() {
+        return DatabaseUtils.longForQuery(mDbHelper.getReadableDatabase(),
+                "SELECT COUNT(*) FROM " + ArchiveEntry.TABLE_NAME, null);
+    }
+
+    private long countAggregates(String period) {
+        return DatabaseUtils.longForQuery(mDbHelper.getReadableDatabase(),
+                "SELECT COUNT(*) FROM " + AggregateEntry.TABLE_NAME + " WHERE "
+                        + AggregateEntry.COLUMN_PERIOD + " = ?", new String[]{period});
+    }
+
+    public void testShortRetention() {
+        insertArchivedDay(10);
+        insertArchivedDay(40);
+        insertAggregate(AggregateEntry.PERIOD_WEEK, 20);
+        insertAggregate(AggregateEntry.PERIOD_WEEK, 100);
+        insertAggregate(AggregateEntry.PERIOD_MONTH, 60);
+        insertAggregate(AggregateEntry.PERIOD_MONTH, 200);
+
+        assertEquals(3, HistoryCompactor.compact(mContext.getContentResolver(), 92, NOW));
+        assertEquals("Error: days should only be kept for a month", 1, countArchive());
+        assertEquals(1, countAggregates(AggregateEntry.PERIOD_WEEK));
+        assertEquals(1, countAggregates(AggregateEntry.PERIOD_MONTH));
+    }
+
+    public void testLongRetentionKeepsOnlyMonths() {
+        insertAggregate(AggregateEntry.PERIOD_WEEK, 400);
+        insertAggregate(AggregateEntry.PERIOD_MONTH, 400);
+        insertAggregate(AggregateEntry.PERIOD_MONTH, 2000);
+
+        assertEquals(2, HistoryCompactor.compact(mContext.getContentResolver(), 1827, NOW));
+        assertEquals("Error: weeks should be dropped after a year",
+                0, countAggregates(AggregateEntry.PERIOD_WEEK));
+        assertEquals(1, countAggregates(AggregateEntry.PERIOD_MONTH));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentValues;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.JsonReader;
+import android.util.Log;
+
+import org.json.JSONArray;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/*
+    Compares the String/JSONObject ingestion path against the streaming JsonReader path on
+    synthetic OpenWeatherMap fixtures.  Results are written to logcat under this class's tag.
+ */
+public class TestIngestionBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestIngestionBenchmark.class.getSimpleName();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int JULIAN_START_DAY = 2457012;  // December 20th, 2014
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 10;
+
+    static String buildForecastJson(String cityName, int numDays) {
+        StringBuilder sb = new StringBuilder(256 + numDays * 320);
+        sb.append("{\"city\":{\"id\":5375480,\"name\":\"").append(cityName)
+                .append("\",\"coord\":{\"lon\":-122.0838,\"lat\":37.386},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,\"night\":%.2f,"
+                            + "\"eve\":%.2f,\"morn\":%.2f},\"pressure\":%.2f,\"humidity\":%d,"
+                            + "\"weather\":[{\"id\":%d,\"main\":\"Clear\",\"description\":"
+                            + "\"sky is clear\",\"icon\":\"01d\"}],\"speed\":%.2f,\"deg\":%d,"
+                            + "\"clouds\":0}",
+                    1419109200L + i * 86400L, 15.0 + i, 8.0 + i * 0.5, 21.0 + i * 0.5, 10.0,
+                    18.0, 9.0, 1013.25 - i, 40 + i, 800 + (i % 5), 3.5 + i * 0.1, (i * 37) % 360));
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    static String buildMultiCityJson(int numCities, int numDays) {
+        StringBuilder sb = new StringBuilder(numCities * (256 + numDays * 320));
+        sb.append('[');
+        for (int i = 0; i < numCities; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(buildForecastJson("City " + i, numDays));
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    private static InputStream asStream(byte[] fixture) {
+        return new ByteArrayInputStream(fixture);
+    }
+
+    private int ingestTree(byte[] fixture, boolean multiCity) throws Exception {
+        ForecastJsonParser parser = new ForecastJsonParser(JULIAN_START_DAY);
+        String json = SunshineSyncAdapter.readFully(asStream(fixture));
+        int rows = 0;
+        if (multiCity) {
+            JSONArray cities = new JSONArray(json);
+            for (int i = 0; i < cities.length(); i++) {
+                rows += parser.parseTree(cities.getJSONObject(i)).days.size();
+            }
+        } else {
+            rows = parser.parseTree(json).days.size();
+        }
+        return rows;
+    }
+
+    private int ingestStream(byte[] fixture, boolean multiCity) throws Exception {
+        ForecastJsonParser parser = new ForecastJsonParser(JULIAN_START_DAY);
+        int rows = 0;
+        if (multiCity) {
+            JsonReader reader = new JsonReader(new InputStreamReader(asStream(fixture), UTF_8));
+            reader.beginArray();
+            while (reader.hasNext()) {
+                rows += parser.parseStream(reader).days.size();
+            }
+            reader.endArray();
+            reader.close();
+        } else {
+            rows = parser.parseStream(asStream(fixture)).days.size();
+        }
+        return rows;
+    }
+
+    private void compare(String name, byte[] fixture, boolean multiCity, int expectedRows)
+            throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            assertEquals(expectedRows, ingestTree(fixture, multiCity));
+            assertEquals(expectedRows, ingestStream(fixture, multiCity));
+        }
+
+        long treeNanos = 0, streamNanos = 0;
+        long treeBytes = 0, streamBytes = 0;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+            ingestTree(fixture, multiCity);
+            treeNanos += System.nanoTime() - start;
+            Debug.stopAllocCounting();
+            treeBytes += Debug.getThreadAllocSize();
+
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            start = System.nanoTime();
+            ingestStream(fixture, multiCity);
+            streamNanos += System.nanoTime() - start;
+            Debug.stopAllocCounting();
+            streamBytes += Debug.getThreadAllocSize();
+        }
+
+        Log.i(LOG_TAG, String.format(Locale.US,
+                "%s (%d bytes, %d rows): tree %.2f ms / %d KiB, stream %.2f ms / %d KiB",
+                name, fixture.length, expectedRows,
+                treeNanos / 1e6 / MEASURED_ROUNDS, treeBytes / 1024 / MEASURED_ROUNDS,
+                streamNanos / 1e6 / MEASURED_ROUNDS, streamBytes / 1024 / MEASURED_ROUNDS));
+    }
+
+    public void testStreamMatchesTree() throws Exception {
+        String json = buildForecastJson("Mountain View", 14);
+        ForecastJsonParser parser = new ForecastJsonParser(JULIAN_START_DAY);
+        ForecastJsonParser.Forecast tree = parser.parseTree(json);
+        ForecastJsonParser.Forecast stream =
+                parser.parseStream(asStream(json.getBytes(UTF_8)));
+
+        assertEquals(tree.cityName, stream.cityName);
+        assertEquals(tree.cityLatitude, stream.cityLatitude);
+        assertEquals(tree.cityLongitude, stream.cityLongitude);
+        ArrayList<ContentValues> treeDays = tree.days;
+        ArrayList<ContentValues> streamDays = stream.days;
+        assertEquals(treeDays.size(), streamDays.size());
+        for (int i = 0; i < treeDays.size(); i++) {
+            assertEquals("Row " + i + " differs between ingestion paths",
+                    treeDays.get(i), streamDays.get(i));
+        }
+    }
+
+    public void testStreamReportsErrorCode() throws Exception {
+        String json = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}";
+        ForecastJsonParser.Forecast forecast = new ForecastJsonParser(JULIAN_START_DAY)
+                .parseStream(asStream(json.getBytes(UTF_8)));
+        assertEquals(404, forecast.messageCode);
+        assertTrue(forecast.days.isEmpty());
+    }
+
+    public void testBenchmark14Days() throws Exception {
+        compare("14-day", buildForecastJson("Mountain View", 14).getBytes(UTF_8), false, 14);
+    }
+
+    public void testBenchmark16Days() throws Exception {
+        compare("16-day", buildForecastJson("Mountain View", 16).getBytes(UTF_8), false, 16);
+    }
+
+    public void testBenchmark500Cities() throws Exception {
+        compare("500-city", buildMultiCityJson(500, 14).getBytes(UTF_8), true, 500 * 14);
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.BroadcastReceiver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.SettingsSnapshot;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks that a sync which writes nothing still tells the widgets, Muzei and Wear when the
+    preferred location has moved to one that is already stored, and stays quiet otherwise.
+ */
+public class TestSyncFanOut extends AndroidTestCase {
+
+    private static final String OLD_LOCATION = "99705";
+    private static final String NEW_LOCATION = "94043";
+    private static final long BROADCAST_TIMEOUT_SECONDS = 5;
+
+    private SharedPreferences mPrefs;
+    private String mLocationKey;
+    private String mNotificationsKey;
+    private String mLocation;
+    private boolean mHadNotificationsSetting;
+    private boolean mNotifications;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mLocationKey = mContext.getString(R.string.pref_location_key);
+        mNotificationsKey = mContext.getString(R.string.pref_enable_notifications_key);
+        mLocation = mPrefs.getString(mLocationKey, null);
+        mHadNotificationsSetting = mPrefs.contains(mNotificationsKey);
+        mNotifications = mPrefs.getBoolean(mNotificationsKey, false);
+        // The fan-out would otherwise post the day's notification
+        mPrefs.edit().putBoolean(mNotificationsKey, false).commit();
+        deleteAllRecords();
+        ForecastSnapshot.invalidate(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (mLocation == null) {
+            editor.remove(mLocationKey);
+        } else {
+            editor.putString(mLocationKey, mLocation);
+        }
+        if (mHadNotificationsSetting) {
+            editor.putBoolean(mNotificationsKey, mNotifications);
+        } else {
+            editor.remove(mNotificationsKey);
+        }
+        editor.commit();
+        SettingsSnapshot.refresh(mContext);
+        deleteAllRecords();
+        ForecastSnapshot.invalidate(mContext);
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private void insertForecast(String locationSetting) {
+        ContentValues location = new ContentValues();
+        location.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        location.put(LocationEntry.COLUMN_CITY_NAME, "City " + locationSetting);
+        location.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        location.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        long locationId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, location));
+
+        ContentValues today = new ContentValues();
+        today.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+        today.put(WeatherEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(System.currentTimeMillis()));
+        today.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+        today.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+        today.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+        today.put(WeatherEntry.COLUMN_MAX_TEMP, 75);
+        today.put(WeatherEntry.COLUMN_MIN_TEMP, 65);
+        today.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+        today.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+        today.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, today);
+    }
+
+    private void setPreferredLocation(String locationSetting) {
+        mPrefs.edit().putString(mLocationKey, locationSetting).commit();
+        SettingsSnapshot.refresh(mContext);
+    }
+
+    // Stores what a 304 for the preferred location leaves: a result with no forecast
+    private boolean syncSendsDataUpdated(boolean manual) throws InterruptedException {
+        final CountDownLatch received = new CountDownLatch(1);
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                received.countDown();
+            }
+        };
+        mContext.registerReceiver(receiver,
+                new IntentFilter(SunshineSyncAdapter.ACTION_DATA_UPDATED));
+        try {
+            new SunshineSyncAdapter(mContext, false).storeForecasts(
+                    Collections.singletonList(new BatchSyncEngine.LocationResult(
+                            SettingsSnapshot.get(mContext).location)),
+                    manual, new SyncTelemetry.Record());
+            return received.await(BROADCAST_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } finally {
+            mContext.unregisterReceiver(receiver);
+        }
+    }
+
+    public void testSwitchToStoredLocationFansOut() throws InterruptedException {
+        insertForecast(OLD_LOCATION);
+        insertForecast(NEW_LOCATION);
+        setPreferredLocation(OLD_LOCATION);
+        ForecastSnapshot.publish(mContext, ForecastSnapshot.load(mContext, OLD_LOCATION));
+
+        setPreferredLocation(NEW_LOCATION);
+        assertTrue("Error: switching to an unchanged stored location sent no update",
+                syncSendsDataUpdated(false));
+        assertEquals(NEW_LOCATION, ForecastSnapshot.getPublishedLocationSetting(mContext));
+    }
+
+    public void testManualSyncFansOut() throws InterruptedException {
+        insertForecast(OLD_LOCATION);
+        setPreferredLocation(OLD_LOCATION);
+        ForecastSnapshot.publish(mContext, ForecastSnapshot.load(mContext, OLD_LOCATION));
+
+        assertTrue("Error: a manual sync sent no update", syncSendsDataUpdated(true));
+    }
+
+    public void testUnchangedSyncStaysQuiet() throws InterruptedException {
+        insertForecast(OLD_LOCATION);
+        setPreferredLocation(OLD_LOCATION);
+        ForecastSnapshot.publish(mContext, ForecastSnapshot.load(mContext, OLD_LOCATION));
+
+        assertFalse("Error: a sync that changed nothing sent an update",
+                syncSendsDataUpdated(false));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.test.AndroidTestCase;
+
+/*
+    Checks the scheduling policy in SyncScheduler.chooseInterval and the coalescing of
+    immediate sync requests.
+ */
+public class TestSyncScheduler extends AndroidTestCase {
+
+    private static final SyncScheduler.Conditions CHARGING_WIFI =
+            new SyncScheduler.Conditions(true, true);
+    private static final SyncScheduler.Conditions ON_BATTERY_METERED =
+            new SyncScheduler.Conditions(false, false);
+    private static final SyncScheduler.Conditions ON_BATTERY_WIFI =
+            new SyncScheduler.Conditions(false, true);
+
+    public void testBackoffGrowsAndIsCapped() {
+        int previous = 0;
+        for (int failures = 1; failures <= 6; failures++) {
+            // With no jitter we get exactly half the backoff
+            int interval = SyncScheduler.chooseInterval(0, 0f, ON_BATTERY_WIFI, failures, 0f);
+            assertTrue("Backoff should grow with each failure", interval > previous);
+            previous = interval;
+        }
+        for (int failures = 1; failures < 40; failures++) {
+            assertTrue("Backoff must stay under the cap",
+                    SyncScheduler.chooseInterval(0, 0f, ON_BATTERY_WIFI, failures, 0.999f)
+                            <= SyncScheduler.MAX_BACKOFF_SECONDS);
+        }
+    }
+
+    public void testBackoffStaysAbovePlatformMinimum() {
+        for (int failures = 1; failures < 40; failures++) {
+            assertTrue("SyncManager would round a shorter period up",
+                    SyncScheduler.chooseInterval(0, 0f, ON_BATTERY_WIFI, failures, 0f)
+                            >= SyncScheduler.MIN_PERIODIC_SYNC_SECONDS);
+        }
+    }
+
+    public void testBackoffIsJittered() {
+        int low = SyncScheduler.chooseInterval(0, 0f, ON_BATTERY_WIFI, 3, 0f);
+        int high = SyncScheduler.chooseInterval(0, 0f, ON_BATTERY_WIFI, 3, 0.999f);
+        assertTrue("Devices failing together should not all retry together", high > low);
+        assertTrue(high < 2 * low);
+    }
+
+    public void testStableForecastSyncsLessOften() {
+        int stable = SyncScheduler.chooseInterval(0, 0f, ON_BATTERY_WIFI, 0, 0.5f);
+        int volatile_ = SyncScheduler.chooseInterval(0, 1f, ON_BATTERY_WIFI, 0, 0.5f);
+        assertTrue(stable > volatile_);
+    }
+
+    public void testCheapConditionsSyncMoreOften() {
+        int cheap = SyncScheduler.chooseInterval(0, 0.3f, CHARGING_WIFI, 0, 0.5f);
+        int expensive = SyncScheduler.chooseInterval(0, 0.3f, ON_BATTERY_METERED, 0, 0.5f);
+        assertTrue(cheap < expensive);
+    }
+
+    public void testIntervalStaysInBounds() {
+        float[] changes = {0f, 0.3f, 1f};
+        SyncScheduler.Conditions[] conditions = {CHARGING_WIFI, ON_BATTERY_METERED};
+        long[] staleness = {0, 60 * 60 * 6, Long.MAX_VALUE};
+        for (float change : changes) {
+            for (SyncScheduler.Conditions condition : conditions) {
+                for (long stale : staleness) {
+                    int interval = SyncScheduler.chooseInterval(stale, change, condition, 0, 0.999f);
+                    assertTrue(interval >= SyncScheduler.MIN_INTERVAL_SECONDS);
+                    assertTrue(interval <= SyncScheduler.MAX_INTERVAL_SECONDS);
+                    assertTrue("Data must not be allowed to go stale",
+                            stale == 0 || interval <= SyncScheduler.MAX_STALENESS_SECONDS
+                                    - Math.min(stale, SyncScheduler.MAX_STALENESS_SECONDS)
+                                    || interval == SyncScheduler.MIN_INTERVAL_SECONDS);
+                }
+            }
+        }
+    }
+
+    public void testImmediateRequestsAreCoalesced() {
+        SyncScheduler.onSyncStarted();
+        assertTrue(SyncScheduler.claimImmediateRequest());
+        assertFalse(SyncScheduler.claimImmediateRequest());
+        assertFalse(SyncScheduler.claimImmediateRequest());
+
+        // Once the sync has started, a new request needs a sync of its own
+        SyncScheduler.onSyncStarted();
+        assertTrue(SyncScheduler.claimImmediateRequest());
+        SyncScheduler.onSyncStarted();
+    }
+}
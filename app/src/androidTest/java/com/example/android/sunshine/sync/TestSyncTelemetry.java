@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.util.List;
+
+/*
+    Checks that the sync telemetry ring buffer wraps around without growing, and returns the
+    records newest first.
+ */
+public class TestSyncTelemetry extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncTelemetry.clear(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyncTelemetry.clear(mContext);
+        super.tearDown();
+    }
+
+    private static SyncTelemetry.Record createRecord(int i) {
+        SyncTelemetry.Record record = new SyncTelemetry.Record();
+        record.rowsFetched = i;
+        record.rowsChanged = i / 2;
+        record.bytesReceived = i * 1000L;
+        record.addPhase(SyncTelemetry.PHASE_PARSE, i);
+        return record;
+    }
+
+    public void testRingBufferWraps() {
+        int total = SyncTelemetry.CAPACITY + 5;
+        for (int i = 0; i < total; i++) {
+            SyncTelemetry.append(mContext, createRecord(i));
+        }
+
+        List<SyncTelemetry.Record> records = SyncTelemetry.read(mContext);
+        assertEquals(SyncTelemetry.CAPACITY, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            int expected = total - 1 - i;
+            SyncTelemetry.Record record = records.get(i);
+            assertEquals("Records should come back newest first", expected, record.rowsFetched);
+            assertEquals(expected / 2, record.rowsChanged);
+            assertEquals(expected * 1000L, record.bytesReceived);
+            assertEquals(expected, record.getPhaseMillis(SyncTelemetry.PHASE_PARSE));
+        }
+
+        File file = new File(mContext.getFilesDir(), SyncTelemetry.FILE_NAME);
+        long fullSize = file.length();
+        SyncTelemetry.append(mContext, createRecord(total));
+        assertEquals("The buffer must not grow once full", fullSize, file.length());
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.Time;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Process-wide cache of the day labels the app shows ("Today, June 8", "Tomorrow", "Wednesday",
+ * "Mon Jun 8"), keyed by Julian day and style.  Each label used to cost a Time, a
+ * SimpleDateFormat or two and a recomputation of today; now a label from a few days back to a
+ * month ahead is formatted once per day.
+ *
+ * Which label a day gets depends on today, the time zone and the locale, so the labels are
+ * dropped at local midnight, when the locale or time zone change, and when the clock is set.
+ */
+final class DayLabels {
+
+    // "Today, June 8" for today, otherwise as STYLE_FRIENDLY
+    static final int STYLE_FRIENDLY_LONG_TODAY = 0;
+    // The day name within the week, "Mon Jun 8" after that
+    static final int STYLE_FRIENDLY = 1;
+    // "Wednesday, June 10", with today and tomorrow named as such
+    static final int STYLE_FULL = 2;
+    // "Today", "Tomorrow", "Wednesday"
+    static final int STYLE_DAY_NAME = 3;
+    // "June 10"
+    static final int STYLE_MONTH_DAY = 4;
+    private static final int STYLE_COUNT = 5;
+
+    // The days that are cached, relative to today: a year of history and the whole forecast
+    private static final int FIRST_CACHED_DAY = -400;
+    private static final int LAST_CACHED_DAY = 32;
+
+    private static final Object sLock = new Object();
+    private static DayLabels sInstance;
+
+    private final Context mContext;
+    // Replaced, never modified, when the day, locale or time zone change
+    private volatile Labels mLabels;
+
+    /**
+     * The labels for one day, locale and time zone.  The label slots are filled in as they
+     * are asked for; a reader may miss a label another thread just wrote, and format it again,
+     * but Strings are immutable, so it never sees a partly built one.
+     */
+    private static final class Labels {
+        final Locale locale;
+        final int today;
+        final long gmtoff;
+        final String[] labels = new String[(LAST_CACHED_DAY - FIRST_CACHED_DAY + 1) * STYLE_COUNT];
+
+        // Only used with the Labels' lock held: SimpleDateFormat isn't thread safe
+        final SimpleDateFormat dayNameFormat;
+        final SimpleDateFormat shortDateFormat;
+        final SimpleDateFormat monthDayFormat;
+
+        Labels(long now) {
+            locale = Locale.getDefault();
+            gmtoff = TimeZone.getDefault().getOffset(now) / 1000;
+            today = Time.getJulianDay(now, gmtoff);
+            dayNameFormat = new SimpleDateFormat("EEEE");
+            shortDateFormat = new SimpleDateFormat("EEE MMM dd");
+            monthDayFormat = new SimpleDateFormat("MMMM dd");
+        }
+
+        // Asks the time zone rather than adding a day to midnight, since the days daylight
+        // saving starts or ends on are an hour shorter or longer.  A change of offset within
+        // the day drops the labels too, as days would otherwise be counted from the old one.
+        boolean isCurrent(long now) {
+            long offset = TimeZone.getDefault().getOffset(now) / 1000;
+            return offset == gmtoff && Time.getJulianDay(now, offset) == today
+                    && locale == Locale.getDefault();
+        }
+    }
+
+    private DayLabels(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * @return the process's labels, listening for locale, time zone and clock changes from the
+     * first call on.
+     */
+    static DayLabels get(Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                Context appContext = context.getApplicationContext();
+                if (appContext == null) {
+                    appContext = context;
+                }
+                sInstance = new DayLabels(appContext);
+                IntentFilter filter = new IntentFilter(Intent.ACTION_LOCALE_CHANGED);
+                filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+                filter.addAction(Intent.ACTION_TIME_CHANGED);
+                appContext.registerReceiver(new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context context, Intent intent) {
+                        sInstance.invalidate();
+                    }
+                }, filter);
+            }
+            return sInstance;
+        }
+    }
+
+    /**
+     * Forgets every label, so the next ones are formatted for the current locale and time zone.
+     */
+    void invalidate() {
+        mLabels = null;
+    }
+
+    /**
+     * @return the label in one of the STYLE_ formats for the day of a date.
+     */
+    String getLabel(long dateInMillis, int style) {
+        return getLabel(dateInMillis, style, System.currentTimeMillis());
+    }
+
+    // As if it were now
+    String getLabel(long dateInMillis, int style, long now) {
+        Labels labels = mLabels;
+        if (labels == null || !labels.isCurrent(now)) {
+            labels = new Labels(now);
+            mLabels = labels;
+        }
+        int day = Time.getJulianDay(dateInMillis, labels.gmtoff) - labels.today;
+        if (day < FIRST_CACHED_DAY || day > LAST_CACHED_DAY) {
+            synchronized (labels) {
+                return format(labels, dateInMillis, day, style);
+            }
+        }
+        int slot = (day - FIRST_CACHED_DAY) * STYLE_COUNT + style;
+        String label = labels.labels[slot];
+        if (label == null) {
+            synchronized (labels) {
+                label = format(labels, dateInMillis, day, style);
+            }
+            labels.labels[slot] = label;
+        }
+        return label;
+    }
+
+    // The day is relative to today
+    private String format(Labels labels, long dateInMillis, int day, int style) {
+        switch (style) {
+            case STYLE_FRIENDLY_LONG_TODAY:
+                if (day == 0) {
+                    return mContext.getString(R.string.format_full_friendly_date,
+                            mContext.getString(R.string.today),
+                            format(labels, dateInMillis, day, STYLE_MONTH_DAY));
+                }
+                return format(labels, dateInMillis, day, STYLE_FRIENDLY);
+            case STYLE_FRIENDLY:
+                if (day < 7) {
+                    return format(labels, dateInMillis, day, STYLE_DAY_NAME);
+                }
+                return labels.shortDateFormat.format(dateInMillis);
+            case STYLE_FULL:
+                return mContext.getString(R.string.format_full_friendly_date,
+                        format(labels, dateInMillis, day, STYLE_DAY_NAME),
+                        format(labels, dateInMillis, day, STYLE_MONTH_DAY));
+            case STYLE_DAY_NAME:
+                if (day == 0) {
+                    return mContext.getString(R.string.today);
+                } else if (day == 1) {
+                    return mContext.getString(R.string.tomorrow);
+                }
+                return labels.dayNameFormat.format(dateInMillis);
+            case STYLE_MONTH_DAY:
+                return labels.monthDayFormat.format(dateInMillis);
+            default:
+                throw new IllegalArgumentException("Unknown day label style: " + style);
+        }
+    }
+}
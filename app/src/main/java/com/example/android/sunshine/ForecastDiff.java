@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v7.widget.RecyclerView;
+
+/**
+ * The difference between two versions of the forecast list, as the insertions, removals and
+ * changes that turn one into the other, so {@link ForecastAdapter} can rebind only the rows
+ * that changed instead of calling notifyDataSetChanged.
+ *
+ * Rows are identified by their date, which is unique in a location's forecast and survives a
+ * sync.  The weather row's _id doesn't: the provider replaces a day that changed with a new row.
+ * The list is sorted by date, so rows never move; a list that isn't sorted can't be diffed.
+ */
+final class ForecastDiff {
+
+    private static final int OP_INSERT = 0;
+    private static final int OP_REMOVE = 1;
+    private static final int OP_CHANGE = 2;
+
+    /**
+     * The rows of a version of the list, in order.  Never modified once built.
+     */
+    static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(0);
+
+        final long[] dates;
+        final ForecastRow[] rows;
+
+        private Snapshot(int size) {
+            dates = new long[size];
+            rows = new ForecastRow[size];
+        }
+
+        int size() {
+            return dates.length;
+        }
+
+        /**
+         * Reads and formats every row of a cursor with {@link ForecastFragment}'s columns.
+         * Fills the cursor's window and reads preferences, so it belongs on the thread that
+         * loaded the cursor.
+         */
+        static Snapshot of(Context context, Cursor cursor) {
+            if (cursor == null) {
+                return EMPTY;
+            }
+            Snapshot snapshot = new Snapshot(cursor.getCount());
+            ForecastRow.Formatter formatter = new ForecastRow.Formatter(context);
+            for (int i = 0; i < snapshot.size() && cursor.moveToPosition(i); i++) {
+                ForecastRow row = formatter.format(
+                        cursor.getLong(ForecastFragment.COL_WEATHER_DATE),
+                        cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID),
+                        cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP),
+                        cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+                snapshot.dates[i] = row.date;
+                snapshot.rows[i] = row;
+            }
+            return snapshot;
+        }
+
+        // True if every date is later than the one before it
+        private boolean isSorted() {
+            for (int i = 1; i < dates.length; i++) {
+                if (dates[i] <= dates[i - 1]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // The rows hold the text as shown, so a new day label, units or art pack changes them
+        // as surely as new weather does
+        private boolean sameRow(int i, Snapshot other, int j) {
+            return rows[i].looksLike(other.rows[j]);
+        }
+    }
+
+    // The version this diff applies to, and the one it produces
+    final Snapshot from;
+    final Snapshot to;
+
+    // Triples of operation, position and count, in the order to dispatch them.  Each position
+    // is in the list as the operations before it left it.
+    private final int[] mOps;
+    private final int mOpCount;
+
+    private ForecastDiff(Snapshot from, Snapshot to, int[] ops, int opCount) {
+        this.from = from;
+        this.to = to;
+        mOps = ops;
+        mOpCount = opCount;
+    }
+
+    /**
+     * @return the operations that turn one version of the list into the other, or null if
+     * either isn't sorted by date, and can only be replaced wholesale.
+     */
+    static ForecastDiff compute(Snapshot from, Snapshot to) {
+        if (!from.isSorted() || !to.isSorted()) {
+            return null;
+        }
+        // A merge of the two date-ordered lists; runs of the same operation at adjacent
+        // positions go out as one range
+        int[] ops = new int[3 * (from.size() + to.size())];
+        int opCount = 0;
+        int position = 0;
+        int i = 0, j = 0;
+        while (i < from.size() || j < to.size()) {
+            int op;
+            if (j == to.size() || (i < from.size() && from.dates[i] < to.dates[j])) {
+                op = OP_REMOVE;
+                i++;
+            } else if (i == from.size() || to.dates[j] < from.dates[i]) {
+                op = OP_INSERT;
+                j++;
+            } else {
+                boolean same = from.sameRow(i, to, j);
+                i++;
+                j++;
+                if (same) {
+                    position++;
+                    continue;
+                }
+                op = OP_CHANGE;
+            }
+
+            int last = opCount - 3;
+            if (last >= 0 && ops[last] == op && ops[last + 1] + (op == OP_REMOVE ? 0
+                    : ops[last + 2]) == position) {
+                ops[last + 2]++;
+            } else {
+                ops[opCount++] = op;
+                ops[opCount++] = position;
+                ops[opCount++] = 1;
+            }
+            if (op != OP_REMOVE) {
+                position++;
+            }
+        }
+        return new ForecastDiff(from, to, ops, opCount);
+    }
+
+    /**
+     * @return true if the diff changes nothing.
+     */
+    boolean isEmpty() {
+        return mOpCount == 0;
+    }
+
+    /**
+     * Notifies the adapter of each operation.  Call it right after the adapter switches its
+     * data from the {@link #from} version to the {@link #to} one.
+     *
+     * @param firstRowSpecial true if the first row has a view type of its own, so a row that
+     *                        moves into or out of the first position has to be rebound
+     */
+    void dispatchTo(RecyclerView.Adapter adapter, boolean firstRowSpecial) {
+        for (int op = 0; op < mOpCount; op += 3) {
+            int position = mOps[op + 1];
+            int count = mOps[op + 2];
+            switch (mOps[op]) {
+                case OP_INSERT:
+                    adapter.notifyItemRangeInserted(position, count);
+                    break;
+                case OP_REMOVE:
+                    adapter.notifyItemRangeRemoved(position, count);
+                    break;
+                default:
+                    adapter.notifyItemRangeChanged(position, count);
+            }
+        }
+
+        if (firstRowSpecial && from.size() > 0 && to.size() > 0
+                && from.dates[0] != to.dates[0]) {
+            adapter.notifyItemChanged(0);
+            for (int i = 1; i < to.size(); i++) {
+                if (to.dates[i] == from.dates[0]) {
+                    adapter.notifyItemChanged(i);
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+/**
+ * Loads the forecast list like a CursorLoader, then, still on the loader's thread, formats each
+ * row into a {@link ForecastRow} and diffs them against the previous load.
+ * {@link ForecastAdapter} only has to dispatch the result and set views from the rows.
+ */
+class ForecastLoader extends CursorLoader {
+
+    /**
+     * The loaded cursor, with its snapshot and its diff from the previous load's.
+     */
+    static final class ForecastCursor extends CursorWrapper {
+        final ForecastDiff.Snapshot snapshot;
+        // Null if the loads couldn't be diffed
+        final ForecastDiff diff;
+
+        ForecastCursor(Cursor cursor, ForecastDiff.Snapshot snapshot, ForecastDiff diff) {
+            super(cursor);
+            this.snapshot = snapshot;
+            this.diff = diff;
+        }
+    }
+
+    // Only touched by loadInBackground, which never runs twice at once, though not always on
+    // the same thread
+    private volatile ForecastDiff.Snapshot mLastSnapshot = ForecastDiff.Snapshot.EMPTY;
+
+    ForecastLoader(Context context, Uri uri, String[] projection, String selection,
+                   String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        ForecastDiff.Snapshot snapshot = ForecastDiff.Snapshot.of(getContext(), cursor);
+        // The previous load may have been cancelled rather than shown; the adapter checks the
+        // diff's base against what it shows before using it
+        ForecastDiff diff = ForecastDiff.compute(mLastSnapshot, snapshot);
+        mLastSnapshot = snapshot;
+        return new ForecastCursor(cursor, snapshot, diff);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+
+/**
+ * Everything one row of the forecast list shows, already formatted, so that binding a row only
+ * sets views.  Built on the loader's thread by a {@link Formatter}; never modified after that.
+ */
+final class ForecastRow {
+
+    final long date;
+    final int weatherId;
+
+    // The day label for the today layout ("Today, June 8") and for every other row
+    final String longDayText;
+    final String dayText;
+
+    final String description;
+    final String descriptionA11y;
+    final String highText;
+    final String highA11y;
+    final String lowText;
+    final String lowA11y;
+
+    final int iconResource;
+    final int artResource;
+    // Null when the local graphics are used, or the art pack has nothing for the condition
+    final String artUrl;
+
+    private ForecastRow(Context context, Formatter formatter, long date, int weatherId,
+                        double high, double low) {
+        this.date = date;
+        this.weatherId = weatherId;
+        longDayText = Utility.getFriendlyDayString(context, date, true);
+        dayText = Utility.getFriendlyDayString(context, date, false);
+
+        description = Utility.getStringForWeatherCondition(context, weatherId);
+        descriptionA11y = context.getString(R.string.a11y_forecast, description);
+        highText = Utility.formatTemperature(context, high, formatter.mSettings.isMetric);
+        highA11y = context.getString(R.string.a11y_high_temp, highText);
+        lowText = Utility.formatTemperature(context, low, formatter.mSettings.isMetric);
+        lowA11y = context.getString(R.string.a11y_low_temp, lowText);
+
+        iconResource = Utility.getIconResourceForWeatherCondition(weatherId);
+        artResource = Utility.getArtResourceForWeatherCondition(weatherId);
+        artUrl = formatter.mSettings.usingLocalGraphics
+                ? null : Utility.getArtUrlForWeatherCondition(formatter.mSettings, weatherId);
+    }
+
+    /**
+     * Builds the rows of one load, all with the same version of the settings.
+     */
+    static final class Formatter {
+        private final Context mContext;
+        private final SettingsSnapshot mSettings;
+
+        Formatter(Context context) {
+            mContext = context;
+            mSettings = SettingsSnapshot.get(context);
+        }
+
+        ForecastRow format(long date, int weatherId, double high, double low) {
+            return new ForecastRow(mContext, this, date, weatherId, high, low);
+        }
+    }
+
+    /**
+     * @return true if the rows look the same, so a row showing one needn't be rebound for the
+     * other.
+     */
+    boolean looksLike(ForecastRow other) {
+        return date == other.date
+                && iconResource == other.iconResource
+                && artResource == other.artResource
+                && longDayText.equals(other.longDayText)
+                && dayText.equals(other.dayText)
+                && description.equals(other.description)
+                && highText.equals(other.highText)
+                && lowText.equals(other.lowText)
+                && (artUrl == null ? other.artUrl == null : artUrl.equals(other.artUrl));
+    }
+}
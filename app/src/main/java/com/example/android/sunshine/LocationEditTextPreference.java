@@ -19,18 +19,55 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.res.TypedArray;
-import android.os.Bundle;
+import android.database.Cursor;
+import android.database.DataSetObserver;
 import android.preference.EditTextPreference;
+import android.support.v4.widget.SimpleCursorAdapter;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.AutoCompleteTextView;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.FilterQueryProvider;
+import android.widget.TextView;
 
+import com.example.android.sunshine.data.WeatherContract.CityEntry;
+
+/**
+ * The location setting's dialog.  As the user types, it suggests cities from the offline index
+ * (see {@link CityEntry}).  Text that names a suggested city is saved in the "city,country" form
+ * OpenWeatherMap resolves unambiguously; anything else is saved as typed, and the sync reports
+ * whether it is a location OpenWeatherMap knows.
+ */
 public class LocationEditTextPreference extends EditTextPreference {
+    private static final String LOG_TAG = LocationEditTextPreference.class.getSimpleName();
+
     static final private int DEFAULT_MINIMUM_LOCATION_LENGTH = 2;
     private int mMinLength;
 
+    private static final String[] CITY_COLUMNS = {
+            CityEntry._ID,
+            CityEntry.COLUMN_NAME,
+            CityEntry.COLUMN_COUNTRY
+    };
+    // These indices are tied to CITY_COLUMNS
+    private static final int COL_CITY_NAME = 1;
+    private static final int COL_CITY_COUNTRY = 2;
+
+    private static final int SUGGESTION_LIMIT = 8;
+
+    private final AutoCompleteTextView mEditText;
+    private final SimpleCursorAdapter mAdapter;
+    // False once a search has failed, after which no more are tried
+    private volatile boolean mIndexAvailable = true;
+    // The canonical setting for what is typed, if it names a suggested city
+    private String mResolvedSetting;
+
     public LocationEditTextPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
         TypedArray a = context.getTheme().obtainStyledAttributes(
@@ -42,43 +79,163 @@ public class LocationEditTextPreference extends EditTextPreference {
         } finally {
             a.recycle();
         }
-    }
 
+        // Stands in for EditTextPreference's own EditText, with the same attributes
+        mEditText = new AutoCompleteTextView(context, attrs);
+        mEditText.setId(android.R.id.edit);
+        mEditText.setEnabled(true);
+        mEditText.setThreshold(mMinLength);
 
-    @Override
-    protected void showDialog(Bundle state) {
-        super.showDialog(state);
-
-        EditText et = getEditText();
-        et.addTextChangedListener(new TextWatcher() {
-
+        mAdapter = new SimpleCursorAdapter(context,
+                android.R.layout.simple_dropdown_item_1line, null,
+                new String[]{CityEntry.COLUMN_NAME}, new int[]{android.R.id.text1}, 0);
+        mAdapter.setFilterQueryProvider(new FilterQueryProvider() {
+            @Override
+            public Cursor runQuery(CharSequence constraint) {
+                // Runs on the filter's worker thread, so the first search can afford to load
+                // the index
+                if (constraint == null || !mIndexAvailable) {
+                    return null;
+                }
+                try {
+                    return getContext().getContentResolver().query(
+                            CityEntry.buildCitySearchUri(constraint.toString(), SUGGESTION_LIMIT),
+                            CITY_COLUMNS, null, null, null);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "City search failed, accepting any location", e);
+                    mIndexAvailable = false;
+                    return null;
+                }
+            }
+        });
+        mAdapter.setCursorToStringConverter(new SimpleCursorAdapter.CursorToStringConverter() {
+            @Override
+            public CharSequence convertToString(Cursor cursor) {
+                return CityEntry.buildLocationSetting(
+                        cursor.getString(COL_CITY_NAME), cursor.getString(COL_CITY_COUNTRY));
+            }
+        });
+        mAdapter.setViewBinder(new SimpleCursorAdapter.ViewBinder() {
+            @Override
+            public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
+                ((TextView) view).setText(cursor.getString(COL_CITY_NAME) + ", "
+                        + cursor.getString(COL_CITY_COUNTRY));
+                return true;
+            }
+        });
+        // The suggestions for the latest text arrive after the text does
+        mAdapter.registerDataSetObserver(new DataSetObserver() {
+            @Override
+            public void onChanged() {
+                updatePositiveButton();
+            }
 
+            @Override
+            public void onInvalidated() {
+                updatePositiveButton();
+            }
+        });
+        mEditText.setAdapter(mAdapter);
+        // Once, rather than every time the dialog shows, since the view outlives its dialogs
+        mEditText.addTextChangedListener(new TextWatcher() {
             @Override
             public void beforeTextChanged(CharSequence s, int start, int count, int after) {
-
             }
 
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
-
             }
 
             @Override
             public void afterTextChanged(Editable s) {
-                Dialog d = getDialog();
-                if (d instanceof AlertDialog) {
-                    AlertDialog dialog = (AlertDialog) d;
-                    Button positiveButton = dialog.getButton(AlertDialog.BUTTON_POSITIVE);
-                    // Check if the EditText is empty
-                    if (s.length() < mMinLength) {
-                        // Disable OK button
-                        positiveButton.setEnabled(false);
-                    } else {
-                        // Re-enable the button.
-                        positiveButton.setEnabled(true);
-                    }
-                }
+                updatePositiveButton();
             }
         });
     }
+
+    @Override
+    public EditText getEditText() {
+        return mEditText;
+    }
+
+    @Override
+    protected void onBindDialogView(View view) {
+        super.onBindDialogView(view);
+        mEditText.setText(getText());
+    }
+
+    @Override
+    protected void onAddEditTextToDialogView(View dialogView, EditText editText) {
+        // The superclass hands over its own EditText; ours goes in its place.  It is reused
+        // across dialogs, so it may still be in the last one.
+        ViewParent oldParent = mEditText.getParent();
+        if (oldParent instanceof ViewGroup) {
+            ((ViewGroup) oldParent).removeView(mEditText);
+        }
+        super.onAddEditTextToDialogView(dialogView, mEditText);
+    }
+
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        // Not the superclass's, which would save the text of its own EditText
+        if (positiveResult) {
+            String value = mResolvedSetting != null
+                    ? mResolvedSetting : mEditText.getText().toString().trim();
+            if (callChangeListener(value)) {
+                setText(value);
+            }
+        }
+        mResolvedSetting = null;
+        mAdapter.changeCursor(null);
+    }
+
+    private void updatePositiveButton() {
+        Dialog d = getDialog();
+        if (d instanceof AlertDialog) {
+            AlertDialog dialog = (AlertDialog) d;
+            Button positiveButton = dialog.getButton(AlertDialog.BUTTON_POSITIVE);
+            if (positiveButton == null) {
+                return;
+            }
+            String text = mEditText.getText().toString().trim();
+            mResolvedSetting = text.length() < mMinLength ? null : resolve(text);
+            // The index only holds a starter list of cities, so text it doesn't know, like a
+            // postal code or a smaller town, is still sent as typed
+            positiveButton.setEnabled(text.length() >= mMinLength);
+        }
+    }
+
+    /**
+     * @return the setting of the most populous suggested city the text names, as "city" or
+     * "city,country", or null if it names none of them.
+     */
+    private String resolve(String text) {
+        Cursor cursor = mAdapter.getCursor();
+        if (cursor == null || cursor.isClosed()) {
+            return null;
+        }
+        String key = toKey(text);
+        // Suggestions are ordered by population, so the first match is the likeliest
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            String name = toKey(cursor.getString(COL_CITY_NAME));
+            String country = toKey(cursor.getString(COL_CITY_COUNTRY));
+            if (key.equals(name) || key.equals(name + "," + country)) {
+                return CityEntry.buildLocationSetting(
+                        cursor.getString(COL_CITY_NAME), cursor.getString(COL_CITY_COUNTRY));
+            }
+        }
+        return null;
+    }
+
+    // Case, accents and spacing don't matter: "sao paulo , br" names São Paulo
+    private static String toKey(String text) {
+        String folded = CityEntry.fold(text);
+        StringBuilder key = new StringBuilder(folded.length());
+        for (int i = 0; i < folded.length(); i++) {
+            if (!Character.isWhitespace(folded.charAt(i))) {
+                key.append(folded.charAt(i));
+            }
+        }
+        return key.toString();
+    }
 }
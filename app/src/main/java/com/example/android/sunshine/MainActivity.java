@@ -15,10 +15,11 @@
  */
 package com.example.android.sunshine;
 
+import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.v4.app.ActivityCompat;
@@ -33,6 +34,7 @@ import android.view.View;
 
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.gcm.RegistrationIntentService;
+import com.example.android.sunshine.sync.ForecastSnapshot;
 import com.example.android.sunshine.sync.SunshineSyncAdapter;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
@@ -65,17 +67,6 @@ public class MainActivity extends AppCompatActivity implements
     private static final String HIGH_TEMP_KEY = "high-temp";
     private static final String LOW_TEMP_KEY = "low-temp";
 
-    private String[] mWearableProjection = {
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
-    };
-
-    // Tied to mWearableProjection
-    static final int COL_WEATHER_MAX_TEMP = 0;
-    static final int COL_WEATHER_MIN_TEMP = 1;
-    static final int COL_WEATHER_ID = 2;
-
     private boolean mTwoPane;
     private String mLocation;
 
@@ -154,6 +145,7 @@ public class MainActivity extends AppCompatActivity implements
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.main, menu);
+        menu.findItem(R.id.action_sync_telemetry).setVisible(BuildConfig.DEBUG);
         return true;
     }
 
@@ -169,6 +161,10 @@ public class MainActivity extends AppCompatActivity implements
             startActivity(new Intent(this, SettingsActivity.class));
             return true;
         }
+        if (id == R.id.action_sync_telemetry) {
+            startActivity(new Intent(this, SyncTelemetryActivity.class));
+            return true;
+        }
 
         return super.onOptionsItemSelected(item);
     }
@@ -276,47 +272,56 @@ public class MainActivity extends AppCompatActivity implements
             String path = event.getDataItem().getUri().getPath();
             if (path.equals(WEATHER_REQUEST_PATH)) {
                 //Log.i(LOG_TAG, "Path is all good");
-                // Get the cursor
-                Cursor cursor = getContentResolver().query(
-                        WeatherContract.WeatherEntry.CONTENT_URI,
-                        mWearableProjection,
-                        null,
-                        null,
-                        null);
-
-                if (cursor == null) {
-                    //Log.e(LOG_TAG, "Cursor is null.");
-                    return;
-                }
+                // This runs on the UI thread, and the snapshot may have to be read from disk or
+                // loaded from the provider
+                new WearReplyTask(getApplicationContext(), mGoogleApiClient).execute();
+                break;
+            }
+        }
+    }
 
-                // Move to today's date
-                double high = 0;
-                double low = 0;
-                int weatherId = 0;
-                if (cursor.moveToFirst()) {
-                    high = cursor.getDouble(COL_WEATHER_MAX_TEMP);
-                    low = cursor.getDouble(COL_WEATHER_MIN_TEMP);
-                    weatherId = cursor.getInt(COL_WEATHER_ID);
-                    //Log.i(LOG_TAG, "Cursor moved to first, all good!");
-                }
+    /**
+     * Sends today's weather, from the snapshot the last sync published, to the wearable.
+     */
+    private static class WearReplyTask extends AsyncTask<Void, Void, Void> {
+        private final Context mContext;
+        private final GoogleApiClient mGoogleApiClient;
 
-                // Add our data for the wearable
-                PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEATHER_PATH);
-                putDataMapRequest.getDataMap().putLong("Time", System.currentTimeMillis());
-                putDataMapRequest.getDataMap().putInt(WEATHER_ID_KEY, weatherId);
-                putDataMapRequest.getDataMap().putString(HIGH_TEMP_KEY, Utility.formatTemperature(this, high));
-                putDataMapRequest.getDataMap().putString(LOW_TEMP_KEY, Utility.formatTemperature(this, low));
-                putDataMapRequest.setUrgent();
-
-                // Now send the request
-                PutDataRequest request = putDataMapRequest.asPutDataRequest();
-                Wearable.DataApi.putDataItem(mGoogleApiClient, request).setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                    @Override
-                    public void onResult(final DataApi.DataItemResult result) {
-                        //Log.d(LOG_TAG, "Data item status: " + result.getStatus());
-                    }
-                });
+        WearReplyTask(Context context, GoogleApiClient googleApiClient) {
+            mContext = context;
+            mGoogleApiClient = googleApiClient;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            ForecastSnapshot snapshot = ForecastSnapshot.getCurrent(mContext);
+
+            double high = 0;
+            double low = 0;
+            int weatherId = 0;
+            if (!snapshot.isEmpty()) {
+                high = snapshot.getHigh(0);
+                low = snapshot.getLow(0);
+                weatherId = snapshot.getWeatherId(0);
             }
+
+            // Add our data for the wearable
+            PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEATHER_PATH);
+            putDataMapRequest.getDataMap().putLong("Time", System.currentTimeMillis());
+            putDataMapRequest.getDataMap().putInt(WEATHER_ID_KEY, weatherId);
+            putDataMapRequest.getDataMap().putString(HIGH_TEMP_KEY, Utility.formatTemperature(mContext, high));
+            putDataMapRequest.getDataMap().putString(LOW_TEMP_KEY, Utility.formatTemperature(mContext, low));
+            putDataMapRequest.setUrgent();
+
+            // Now send the request
+            PutDataRequest request = putDataMapRequest.asPutDataRequest();
+            Wearable.DataApi.putDataItem(mGoogleApiClient, request).setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+                @Override
+                public void onResult(final DataApi.DataItemResult result) {
+                    //Log.d(LOG_TAG, "Data item status: " + result.getStatus());
+                }
+            });
+            return null;
         }
     }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.sync.SunshineSyncAdapter;
+
+/**
+ * Process-wide, immutable copy of the preferences the app reads on its hot paths: adapters,
+ * widgets and the sync.  Reading one is a volatile read, where each preference used to cost a
+ * SharedPreferences lookup and a string resource or two.
+ *
+ * A new snapshot is published whenever one of the preferences changes, with a version one
+ * higher than the last.  Anything derived from the settings can keep the version it was built
+ * from and rebuild only when {@link #get} returns another.
+ *
+ * SharedPreferences calls its listeners on the main thread, in no particular order, after a
+ * change is already visible.  Code that writes a preference and code that reads one from
+ * another preference listener should call {@link #refresh} rather than wait for ours.
+ */
+public final class SettingsSnapshot {
+
+    private static final Object sLock = new Object();
+    private static volatile SettingsSnapshot sCurrent;
+    // SharedPreferences only holds its listeners weakly
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    public final int version;
+
+    public final String location;
+    public final boolean isMetric;
+    // The art pack, a format for the art urls with the art's name in it
+    public final String artUrlFormat;
+    public final boolean usingLocalGraphics;
+    public final int locationStatus;
+    public final int historyRetentionDays;
+
+    private SettingsSnapshot(Context context, SharedPreferences prefs, int version) {
+        this.version = version;
+        location = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+
+        String metric = context.getString(R.string.pref_units_metric);
+        isMetric = prefs.getString(context.getString(R.string.pref_units_key), metric)
+                .equals(metric);
+
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        artUrlFormat = prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack);
+        usingLocalGraphics = artUrlFormat.equals(sunshineArtPack);
+
+        locationStatus = prefs.getInt(context.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+
+        String year = context.getString(R.string.pref_history_retention_year);
+        String days = prefs.getString(context.getString(R.string.pref_history_retention_key),
+                year);
+        int retention;
+        try {
+            retention = Integer.parseInt(days);
+        } catch (NumberFormatException e) {
+            retention = Integer.parseInt(year);
+        }
+        historyRetentionDays = retention;
+    }
+
+    /**
+     * @return the current settings.  Only the first call in a process reads the preferences.
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot current = sCurrent;
+        if (current != null) {
+            return current;
+        }
+        synchronized (sLock) {
+            if (sCurrent == null) {
+                Context appContext = context.getApplicationContext();
+                final Context listenerContext = appContext != null ? appContext : context;
+                SharedPreferences prefs =
+                        PreferenceManager.getDefaultSharedPreferences(listenerContext);
+                sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                          String key) {
+                        refresh(listenerContext);
+                    }
+                };
+                prefs.registerOnSharedPreferenceChangeListener(sListener);
+                sCurrent = new SettingsSnapshot(listenerContext, prefs, 1);
+            }
+            return sCurrent;
+        }
+    }
+
+    /**
+     * Re-reads the preferences, publishing a new snapshot if any of them changed.
+     *
+     * @return the current settings
+     */
+    public static SettingsSnapshot refresh(Context context) {
+        get(context);
+        synchronized (sLock) {
+            SettingsSnapshot current = sCurrent;
+            SettingsSnapshot read = new SettingsSnapshot(context,
+                    PreferenceManager.getDefaultSharedPreferences(context), current.version + 1);
+            if (!read.sameSettings(current)) {
+                sCurrent = read;
+            }
+            return sCurrent;
+        }
+    }
+
+    private boolean sameSettings(SettingsSnapshot other) {
+        return location.equals(other.location)
+                && isMetric == other.isMetric
+                && artUrlFormat.equals(other.artUrlFormat)
+                && locationStatus == other.locationStatus
+                && historyRetentionDays == other.historyRetentionDays;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.widget.TextView;
+
+import com.example.android.sunshine.sync.SyncTelemetry;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Debug screen listing the recorded per-phase timings of recent syncs.  Only reachable from the
+ * main menu in debug builds.
+ */
+public class SyncTelemetryActivity extends AppCompatActivity {
+
+    private TextView mTextView;
+    private DumpTask mDumpTask;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_sync_telemetry);
+        mTextView = (TextView) findViewById(R.id.sync_telemetry_text);
+
+        // The records live on disk, so read them off the UI thread
+        mDumpTask = new DumpTask(getApplicationContext(), mTextView);
+        mDumpTask.execute();
+    }
+
+    @Override
+    protected void onDestroy() {
+        mDumpTask.cancel(false);
+        super.onDestroy();
+    }
+
+    private static class DumpTask extends AsyncTask<Void, Void, String> {
+        private final Context mContext;
+        private final TextView mTextView;
+
+        DumpTask(Context context, TextView textView) {
+            mContext = context;
+            mTextView = textView;
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            StringWriter out = new StringWriter();
+            PrintWriter writer = new PrintWriter(out);
+            SyncTelemetry.dump(mContext, writer);
+            writer.flush();
+            return out.toString();
+        }
+
+        @Override
+        protected void onPostExecute(String dump) {
+            mTextView.setText(dump);
+        }
+    }
+}
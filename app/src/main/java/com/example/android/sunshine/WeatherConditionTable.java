@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine;
+
+import com.example.android.sunshine.shared.WeatherConditions;
+
+import java.util.Locale;
+
+/**
+ * The app's icon, art, description and art url for each OpenWeatherMap condition id, looked up
+ * by indexing arrays rather than walking if/else chains and a switch.  Which art an id gets
+ * comes from {@link WeatherConditions}, the table the watch face uses too.
+ */
+final class WeatherConditionTable {
+
+    // In WeatherConditions' ART_ order
+    private static final int[] ICON_RESOURCES = {
+            R.drawable.ic_storm, R.drawable.ic_light_rain, R.drawable.ic_rain,
+            R.drawable.ic_snow, R.drawable.ic_fog, R.drawable.ic_clear,
+            R.drawable.ic_light_clouds, R.drawable.ic_cloudy
+    };
+    private static final int[] ART_RESOURCES = {
+            R.drawable.art_storm, R.drawable.art_light_rain, R.drawable.art_rain,
+            R.drawable.art_snow, R.drawable.art_fog, R.drawable.art_clear,
+            R.drawable.art_light_clouds, R.drawable.art_clouds
+    };
+
+    // Pairs of id and description for every condition with a description of its own
+    private static final int[] CONDITIONS = {
+            500, R.string.condition_500, 501, R.string.condition_501,
+            502, R.string.condition_502, 503, R.string.condition_503,
+            504, R.string.condition_504, 511, R.string.condition_511,
+            520, R.string.condition_520, 531, R.string.condition_531,
+            600, R.string.condition_600, 601, R.string.condition_601,
+            602, R.string.condition_602, 611, R.string.condition_611,
+            612, R.string.condition_612, 615, R.string.condition_615,
+            616, R.string.condition_616, 620, R.string.condition_620,
+            621, R.string.condition_621, 622, R.string.condition_622,
+            701, R.string.condition_701, 711, R.string.condition_711,
+            721, R.string.condition_721, 731, R.string.condition_731,
+            741, R.string.condition_741, 751, R.string.condition_751,
+            761, R.string.condition_761, 762, R.string.condition_762,
+            771, R.string.condition_771, 781, R.string.condition_781,
+            800, R.string.condition_800, 801, R.string.condition_801,
+            802, R.string.condition_802, 803, R.string.condition_803,
+            804, R.string.condition_804, 900, R.string.condition_900,
+            901, R.string.condition_901, 902, R.string.condition_902,
+            903, R.string.condition_903, 904, R.string.condition_904,
+            905, R.string.condition_905, 906, R.string.condition_906,
+            951, R.string.condition_951, 952, R.string.condition_952,
+            953, R.string.condition_953, 954, R.string.condition_954,
+            955, R.string.condition_955, 956, R.string.condition_956,
+            957, R.string.condition_957, 958, R.string.condition_958,
+            959, R.string.condition_959, 960, R.string.condition_960,
+            961, R.string.condition_961, 962, R.string.condition_962
+    };
+
+    // The description of every id, 0 where there is none, built once
+    private static final int[] sDescriptions = new int[WeatherConditions.MAX_WEATHER_ID + 1];
+
+    static {
+        // Thunderstorms and drizzle are described by their group
+        for (int id = 200; id <= 232; id++) {
+            sDescriptions[id] = R.string.condition_2xx;
+        }
+        for (int id = 300; id <= 321; id++) {
+            sDescriptions[id] = R.string.condition_3xx;
+        }
+        for (int i = 0; i < CONDITIONS.length; i += 2) {
+            sDescriptions[CONDITIONS[i]] = CONDITIONS[i + 1];
+        }
+    }
+
+    // Every art url for one version of the settings
+    private static final class ArtUrls {
+        final int version;
+        final String[] urls = new String[WeatherConditions.ART_COUNT];
+
+        ArtUrls(SettingsSnapshot settings) {
+            version = settings.version;
+            for (int i = 0; i < urls.length; i++) {
+                urls[i] = String.format(Locale.US, settings.artUrlFormat,
+                        WeatherConditions.ART_NAMES[i]);
+            }
+        }
+    }
+
+    private static volatile ArtUrls sArtUrls;
+
+    private WeatherConditionTable() {
+    }
+
+    /**
+     * @return the icon for a condition id, or -1 if there is none.
+     */
+    static int getIconResource(int weatherId) {
+        int art = WeatherConditions.getArt(weatherId);
+        return art == WeatherConditions.NO_ART ? -1 : ICON_RESOURCES[art];
+    }
+
+    /**
+     * @return the art for a condition id, or -1 if there is none.
+     */
+    static int getArtResource(int weatherId) {
+        int art = WeatherConditions.getArt(weatherId);
+        return art == WeatherConditions.NO_ART ? -1 : ART_RESOURCES[art];
+    }
+
+    /**
+     * @return the description's string resource for a condition id, or 0 if there is none.
+     */
+    static int getDescription(int weatherId) {
+        return weatherId >= 0 && weatherId <= WeatherConditions.MAX_WEATHER_ID
+                ? sDescriptions[weatherId] : 0;
+    }
+
+    /**
+     * @return the url of a condition id's art in the settings' art pack, or null if there is
+     * no art for it.
+     */
+    static String getArtUrl(SettingsSnapshot settings, int weatherId) {
+        int art = WeatherConditions.getArt(weatherId);
+        if (art == WeatherConditions.NO_ART) {
+            return null;
+        }
+        ArtUrls artUrls = sArtUrls;
+        if (artUrls == null || artUrls.version != settings.version) {
+            // Formatted once per version of the settings rather than once per call.  A race
+            // here at worst formats them twice.
+            artUrls = new ArtUrls(settings);
+            sArtUrls = artUrls;
+        }
+        return artUrls.urls[art];
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.R;
+import com.example.android.sunshine.data.WeatherContract.CityEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * The offline index of cities the location setting suggests as the user types.
+ *
+ * The cities are bundled as a tab-separated list, {@code res/raw/cities.txt}, and imported into
+ * the city table the first time anything searches it.  Names are also written, folded to
+ * lower-case ASCII, into a full-text table, {@link #FTS_TABLE_NAME}, so a search is a prefix
+ * match on its tokens rather than a LIKE scan, and "sao" finds São Paulo.  FTS3 rather than
+ * FTS4, which needs Honeycomb.
+ *
+ * The bundled list is a starter list of the most populous cities.  A place missing from it may
+ * still be one OpenWeatherMap knows, so the index only suggests; it doesn't decide what the
+ * location setting accepts.
+ */
+final class CityIndex {
+    private static final String LOG_TAG = CityIndex.class.getSimpleName();
+
+    static final String FTS_TABLE_NAME = "city_fts";
+
+    // Folded name and lower-case country, keyed by the city's _id through the FTS docid
+    private static final String FTS_COLUMN_NAME = "name";
+    private static final String FTS_COLUMN_COUNTRY = "country";
+
+    // Fields of a line of the bundled list
+    private static final int FIELD_NAME = 0;
+    private static final int FIELD_COUNTRY = 1;
+    private static final int FIELD_LAT = 2;
+    private static final int FIELD_LONG = 3;
+    private static final int FIELD_POPULATION = 4;
+    private static final int FIELD_COUNT = 5;
+
+    private CityIndex() {
+    }
+
+    /**
+     * Creates the empty city and full-text tables.
+     */
+    static void createTables(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + CityEntry.TABLE_NAME + " (" +
+                CityEntry._ID + " INTEGER PRIMARY KEY," +
+                CityEntry.COLUMN_NAME + " TEXT NOT NULL, " +
+                CityEntry.COLUMN_COUNTRY + " TEXT NOT NULL, " +
+                CityEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
+                CityEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                CityEntry.COLUMN_POPULATION + " INTEGER NOT NULL);");
+        db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts3(" +
+                FTS_COLUMN_NAME + ", " + FTS_COLUMN_COUNTRY + ");");
+    }
+
+    /**
+     * @return true if the city table holds any cities.
+     */
+    static boolean isLoaded(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM (SELECT 1 FROM " + CityEntry.TABLE_NAME + " LIMIT 1)",
+                null) > 0;
+    }
+
+    /**
+     * Imports the bundled list if the city table is empty.
+     *
+     * @return true if the table holds the cities, false if the list couldn't be read.
+     */
+    static synchronized boolean ensureLoaded(Context context, SQLiteDatabase db) {
+        if (isLoaded(db)) {
+            return true;
+        }
+        long start = System.nanoTime();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    context.getResources().openRawResource(R.raw.cities), "UTF-8"), 16 * 1024);
+            int count = load(db, reader);
+            Log.d(LOG_TAG, "Loaded " + count + " cities in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+            return count > 0;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading the city list", e);
+            return false;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Nothing left to read
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the cities with those read from a list in the bundled format, in one transaction
+     * through precompiled statements.  Comment lines, which start with #, and malformed lines
+     * are skipped.
+     *
+     * @return the number of cities imported.
+     */
+    static int load(SQLiteDatabase db, BufferedReader reader) throws IOException {
+        String[] fields = new String[FIELD_COUNT];
+        int count = 0;
+        SQLiteStatement insertCity = db.compileStatement("INSERT INTO " + CityEntry.TABLE_NAME +
+                " (" + CityEntry.COLUMN_NAME + ", " + CityEntry.COLUMN_COUNTRY + ", " +
+                CityEntry.COLUMN_COORD_LAT + ", " + CityEntry.COLUMN_COORD_LONG + ", " +
+                CityEntry.COLUMN_POPULATION + ") VALUES (?, ?, ?, ?, ?)");
+        SQLiteStatement insertTerms = db.compileStatement("INSERT INTO " + FTS_TABLE_NAME +
+                " (docid, " + FTS_COLUMN_NAME + ", " + FTS_COLUMN_COUNTRY + ") VALUES (?, ?, ?)");
+        db.beginTransaction();
+        try {
+            db.delete(CityEntry.TABLE_NAME, null, null);
+            db.delete(FTS_TABLE_NAME, null, null);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() == 0 || line.charAt(0) == '#' || !split(line, fields)) {
+                    continue;
+                }
+                double latitude, longitude;
+                long population;
+                try {
+                    latitude = Double.parseDouble(fields[FIELD_LAT]);
+                    longitude = Double.parseDouble(fields[FIELD_LONG]);
+                    population = Long.parseLong(fields[FIELD_POPULATION]);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                String country = fields[FIELD_COUNTRY].toUpperCase(Locale.US);
+
+                insertCity.bindString(1, fields[FIELD_NAME]);
+                insertCity.bindString(2, country);
+                insertCity.bindDouble(3, latitude);
+                insertCity.bindDouble(4, longitude);
+                insertCity.bindLong(5, population);
+                long rowId = insertCity.executeInsert();
+
+                insertTerms.bindLong(1, rowId);
+                insertTerms.bindString(2, CityEntry.fold(fields[FIELD_NAME]));
+                insertTerms.bindString(3, country.toLowerCase(Locale.US));
+                insertTerms.executeInsert();
+                count++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insertCity.close();
+            insertTerms.close();
+        }
+        return count;
+    }
+
+    // Splits on tabs without the regex String.split compiles for every line.  False if the
+    // line hasn't exactly FIELD_COUNT non-empty fields.
+    private static boolean split(String line, String[] fields) {
+        int start = 0;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            int end = line.indexOf('\t', start);
+            if (end < 0) {
+                if (i != FIELD_COUNT - 1) {
+                    return false;
+                }
+                end = line.length();
+            } else if (i == FIELD_COUNT - 1) {
+                return false;
+            }
+            fields[i] = line.substring(start, end).trim();
+            if (fields[i].length() == 0) {
+                return false;
+            }
+            start = end + 1;
+        }
+        return true;
+    }
+
+    /**
+     * @return the full-text query that matches every city with a word starting with each word
+     * of the text, or null if the text has no words.
+     */
+    static String buildMatchQuery(String text) {
+        ArrayList<String> terms = new ArrayList<String>();
+        String folded = CityEntry.fold(text);
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            // The simple tokenizer breaks words on everything but letters and digits; so does
+            // this, which also keeps FTS operators and quotes out of the query
+            boolean wordChar = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                terms.add(folded.substring(start, i) + "*");
+                start = -1;
+            }
+        }
+        return terms.isEmpty() ? null : TextUtils.join(" ", terms);
+    }
+
+    /**
+     * @return up to limit cities with a word starting with each word of the query, most
+     * populous first, with the projection's columns of the city table.
+     */
+    static Cursor search(SQLiteDatabase db, String query, String[] projection, int limit) {
+        String match = buildMatchQuery(query);
+        String columns = projection == null ? "*" : TextUtils.join(", ", projection);
+        if (match == null) {
+            // Nothing to match, but the caller still wants its columns
+            return db.rawQuery("SELECT " + columns + " FROM " + CityEntry.TABLE_NAME +
+                    " LIMIT 0", null);
+        }
+        return db.rawQuery("SELECT " + columns + " FROM " + CityEntry.TABLE_NAME +
+                " WHERE " + CityEntry._ID + " IN (SELECT docid FROM " + FTS_TABLE_NAME +
+                " WHERE " + FTS_TABLE_NAME + " MATCH ?)" +
+                " ORDER BY " + CityEntry.COLUMN_POPULATION + " DESC" +
+                " LIMIT " + Math.max(0, limit), new String[]{match});
+    }
+}
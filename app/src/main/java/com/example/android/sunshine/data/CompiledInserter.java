@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * Inserts rows into one table through precompiled statements, for bulk inserts.
+ *
+ * {@link SQLiteDatabase#insert} builds and compiles a new INSERT for every row.  This compiles
+ * one per distinct set of columns, which in practice is one per bulk insert, and only binds
+ * values for the rows after the first.  It has the same conflict behaviour as insert: the
+ * table's own ON CONFLICT clauses apply, and a row that violates a constraint without one is
+ * skipped and reported as -1.
+ *
+ * Not thread safe; use one per transaction and {@link #close} it before the transaction ends.
+ */
+final class CompiledInserter {
+
+    private final SQLiteDatabase mDb;
+    private final String mTable;
+    // Sorted column list -> statement, for the rare bulk insert whose rows differ in columns
+    private final HashMap<String, Statement> mStatements = new HashMap<String, Statement>();
+    // The statement the last row used; the next row almost always has the same columns
+    private Statement mLast;
+
+    private static final class Statement {
+        final String[] columns;
+        final SQLiteStatement statement;
+
+        Statement(String[] columns, SQLiteStatement statement) {
+            this.columns = columns;
+            this.statement = statement;
+        }
+
+        boolean fits(ContentValues values) {
+            if (values.size() != columns.length) {
+                return false;
+            }
+            for (String column : columns) {
+                if (!values.containsKey(column)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    CompiledInserter(SQLiteDatabase db, String table) {
+        mDb = db;
+        mTable = table;
+    }
+
+    /**
+     * @return the new row's id, or -1 if the row violated a constraint and was skipped.
+     */
+    long insert(ContentValues values) {
+        if (values.size() == 0) {
+            // There's no INSERT for no columns; insert() without a null column hack fails too
+            return -1;
+        }
+        Statement statement = mLast;
+        if (statement == null || !statement.fits(values)) {
+            statement = statementFor(values.keySet());
+            mLast = statement;
+        }
+        SQLiteStatement program = statement.statement;
+        String[] columns = statement.columns;
+        for (int i = 0; i < columns.length; i++) {
+            DatabaseUtils.bindObjectToProgram(program, i + 1, values.get(columns[i]));
+        }
+        try {
+            return program.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            // SQLiteDatabase.insert swallows these too
+            return -1;
+        } finally {
+            program.clearBindings();
+        }
+    }
+
+    private Statement statementFor(Set<String> keys) {
+        String[] columns = keys.toArray(new String[keys.size()]);
+        Arrays.sort(columns);
+        String signature = Arrays.toString(columns);
+        Statement statement = mStatements.get(signature);
+        if (statement == null) {
+            StringBuilder sql = new StringBuilder(64 + columns.length * 24);
+            sql.append("INSERT INTO ").append(mTable).append(" (");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i > 0 ? "," : "").append(columns[i]);
+            }
+            sql.append(") VALUES (");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i > 0 ? ",?" : "?");
+            }
+            sql.append(')');
+            statement = new Statement(columns, mDb.compileStatement(sql.toString()));
+            mStatements.put(signature, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Releases the compiled statements.
+     */
+    void close() {
+        for (Statement statement : mStatements.values()) {
+            statement.statement.close();
+        }
+        mStatements.clear();
+        mLast = null;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.data.WeatherContract.HourlyEntry;
+
+/**
+ * One location-day of the 3-hour forecast, held as one primitive array per field, and the
+ * fixed layout it is packed into for {@link HourlyEntry#COLUMN_SLOTS}.
+ *
+ * The layout is a version byte, a byte whose bit i is set if slot i holds a forecast (the
+ * first and last days of a forecast are partial), then {@link HourlyEntry#SLOTS_PER_DAY}
+ * big-endian values of each field in turn: weather ids as shorts, then temperature, humidity,
+ * pressure, wind speed and wind direction as floats.  Every day is {@link #BLOB_SIZE} bytes.
+ *
+ * Instances are meant to be reused.  {@link #decode} overwrites this one in place and
+ * allocates nothing, so reading a cursor of days costs one HourlySlots rather than an object
+ * per slot.
+ */
+public final class HourlySlots {
+
+    static final int FORMAT_VERSION = 1;
+
+    private static final int SLOTS = HourlyEntry.SLOTS_PER_DAY;
+    private static final int FLOAT_FIELDS = 5;
+    static final int BLOB_SIZE = 2 + 2 * SLOTS + 4 * SLOTS * FLOAT_FIELDS;
+
+    private static final long SLOT_MILLIS = HourlyEntry.SLOT_HOURS * DateUtils.HOUR_IN_MILLIS;
+
+    private int mPresent;
+    private final short[] mWeatherIds = new short[SLOTS];
+    private final float[] mTemperatures = new float[SLOTS];
+    private final float[] mHumidities = new float[SLOTS];
+    private final float[] mPressures = new float[SLOTS];
+    private final float[] mWindSpeeds = new float[SLOTS];
+    private final float[] mWindDirections = new float[SLOTS];
+
+    /**
+     * @return the slot a time falls in, on the day starting at dayStart.  Days that are
+     * longer or shorter because of a clock change fold their extra hour into the nearest slot.
+     */
+    public static int getSlot(long time, long dayStart) {
+        long slot = (time - dayStart) / SLOT_MILLIS;
+        return (int) Math.max(0, Math.min(SLOTS - 1, slot));
+    }
+
+    /**
+     * Empties every slot.
+     */
+    public void clear() {
+        mPresent = 0;
+    }
+
+    public void set(int slot, int weatherId, float temperature, float humidity, float pressure,
+                    float windSpeed, float windDirection) {
+        mWeatherIds[slot] = (short) weatherId;
+        mTemperatures[slot] = temperature;
+        mHumidities[slot] = humidity;
+        mPressures[slot] = pressure;
+        mWindSpeeds[slot] = windSpeed;
+        mWindDirections[slot] = windDirection;
+        mPresent |= 1 << slot;
+    }
+
+    /**
+     * @return true if the slot holds a forecast.  The getters return stale values for slots
+     * that don't.
+     */
+    public boolean has(int slot) {
+        return (mPresent & (1 << slot)) != 0;
+    }
+
+    /**
+     * @return the number of slots that hold a forecast.
+     */
+    public int getCount() {
+        return Integer.bitCount(mPresent);
+    }
+
+    public int getWeatherId(int slot) {
+        return mWeatherIds[slot];
+    }
+
+    public float getTemperature(int slot) {
+        return mTemperatures[slot];
+    }
+
+    public float getHumidity(int slot) {
+        return mHumidities[slot];
+    }
+
+    public float getPressure(int slot) {
+        return mPressures[slot];
+    }
+
+    public float getWindSpeed(int slot) {
+        return mWindSpeeds[slot];
+    }
+
+    public float getWindDirection(int slot) {
+        return mWindDirections[slot];
+    }
+
+    /**
+     * @return the slots in the {@link HourlyEntry#COLUMN_SLOTS} layout.
+     */
+    public byte[] encode() {
+        byte[] blob = new byte[BLOB_SIZE];
+        blob[0] = FORMAT_VERSION;
+        blob[1] = (byte) mPresent;
+        int offset = 2;
+        for (int i = 0; i < SLOTS; i++) {
+            offset = putShort(blob, offset, mWeatherIds[i]);
+        }
+        offset = putFloats(blob, offset, mTemperatures);
+        offset = putFloats(blob, offset, mHumidities);
+        offset = putFloats(blob, offset, mPressures);
+        offset = putFloats(blob, offset, mWindSpeeds);
+        putFloats(blob, offset, mWindDirections);
+        return blob;
+    }
+
+    /**
+     * Replaces the slots with those packed in a {@link HourlyEntry#COLUMN_SLOTS} blob.
+     *
+     * @return false, leaving every slot empty, if the blob isn't in the current layout.
+     */
+    public boolean decode(byte[] blob) {
+        if (blob == null || blob.length != BLOB_SIZE || blob[0] != FORMAT_VERSION) {
+            mPresent = 0;
+            return false;
+        }
+        mPresent = blob[1] & 0xff;
+        int offset = 2;
+        for (int i = 0; i < SLOTS; i++) {
+            mWeatherIds[i] = (short) (((blob[offset] & 0xff) << 8) | (blob[offset + 1] & 0xff));
+            offset += 2;
+        }
+        offset = getFloats(blob, offset, mTemperatures);
+        offset = getFloats(blob, offset, mHumidities);
+        offset = getFloats(blob, offset, mPressures);
+        offset = getFloats(blob, offset, mWindSpeeds);
+        getFloats(blob, offset, mWindDirections);
+        return true;
+    }
+
+    private static int putShort(byte[] blob, int offset, short value) {
+        blob[offset] = (byte) (value >> 8);
+        blob[offset + 1] = (byte) value;
+        return offset + 2;
+    }
+
+    private static int putFloats(byte[] blob, int offset, float[] values) {
+        for (float value : values) {
+            int bits = Float.floatToIntBits(value);
+            blob[offset] = (byte) (bits >> 24);
+            blob[offset + 1] = (byte) (bits >> 16);
+            blob[offset + 2] = (byte) (bits >> 8);
+            blob[offset + 3] = (byte) bits;
+            offset += 4;
+        }
+        return offset;
+    }
+
+    private static int getFloats(byte[] blob, int offset, float[] values) {
+        for (int i = 0; i < values.length; i++) {
+            int bits = ((blob[offset] & 0xff) << 24)
+                    | ((blob[offset + 1] & 0xff) << 16)
+                    | ((blob[offset + 2] & 0xff) << 8)
+                    | (blob[offset + 3] & 0xff);
+            values[i] = Float.intBitsToFloat(bits);
+            offset += 4;
+        }
+        return offset;
+    }
+}
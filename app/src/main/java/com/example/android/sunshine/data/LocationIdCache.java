@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import java.util.HashMap;
+
+/**
+ * Process-wide map from location setting to location row id.
+ *
+ * The set of locations hardly ever changes, yet every sync resolved each setting with a query,
+ * and every location-scoped read joined the location table to do the same.  Callers that need
+ * an id ask here first and then read through the id-addressed weather URIs.
+ *
+ * {@link WeatherProvider} keeps the map coherent: it records the ids of the locations it
+ * inserts and drops everything when location rows are updated or deleted, since those take
+ * arbitrary selections.
+ */
+public final class LocationIdCache {
+
+    private static final Object sLock = new Object();
+    private static final HashMap<String, Long> sIds = new HashMap<String, Long>();
+    private static final HashMap<Long, String> sSettings = new HashMap<Long, String>();
+    // Bumped by every removal, so a lookup that raced with a delete isn't recorded
+    private static long sGeneration;
+    private static int sHits;
+    private static int sMisses;
+
+    private LocationIdCache() {
+    }
+
+    /**
+     * @return the row id of the location with this setting, or -1 if there is none.  Queries
+     * the provider on a miss, so don't call this from the UI thread.
+     */
+    public static long getLocationId(Context context, String locationSetting) {
+        long generation;
+        synchronized (sLock) {
+            Long id = sIds.get(locationSetting);
+            if (id != null) {
+                sHits++;
+                return id;
+            }
+            sMisses++;
+            generation = sGeneration;
+        }
+
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                // Not cached: the location may well be inserted in a moment
+                return -1;
+            }
+            long id = cursor.getLong(0);
+            synchronized (sLock) {
+                if (generation == sGeneration) {
+                    putLocked(locationSetting, id);
+                }
+            }
+            return id;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the setting of a cached location id, or null if it isn't cached.  Never queries.
+     */
+    static String getLocationSetting(long locationId) {
+        synchronized (sLock) {
+            return sSettings.get(locationId);
+        }
+    }
+
+    static void put(String locationSetting, long locationId) {
+        synchronized (sLock) {
+            putLocked(locationSetting, locationId);
+        }
+    }
+
+    private static void putLocked(String locationSetting, long locationId) {
+        Long previous = sIds.put(locationSetting, locationId);
+        if (previous != null) {
+            sSettings.remove(previous);
+        }
+        sSettings.put(locationId, locationSetting);
+    }
+
+    static void remove(String locationSetting) {
+        synchronized (sLock) {
+            sGeneration++;
+            Long id = sIds.remove(locationSetting);
+            if (id != null) {
+                sSettings.remove(id);
+            }
+        }
+    }
+
+    static void clear() {
+        synchronized (sLock) {
+            sGeneration++;
+            sIds.clear();
+            sSettings.clear();
+        }
+    }
+
+    static int getHitCount() {
+        synchronized (sLock) {
+            return sHits;
+        }
+    }
+
+    static int getMissCount() {
+        synchronized (sLock) {
+            return sMisses;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+
+import java.util.ArrayList;
+
+/**
+ * Finds the cached locations nearest a point.
+ *
+ * Every location's coordinates are mirrored into an R*Tree, {@link #TABLE_NAME}, by triggers on
+ * the location table, so all of the provider's write paths keep it current.  A query searches
+ * a box around the point, widening it until the box holds k locations that are provably the
+ * nearest, so it reads a few tree pages however many places are cached.  Where SQLite was built
+ * without the R*Tree module, the same search runs against an index on the coordinates.
+ *
+ * Distances are equirectangular: latitude and longitude differences, the latter scaled by the
+ * cosine of the query's latitude and taken the short way round.  That ranks places the way a
+ * great circle does at the ranges the box search stops at.
+ */
+final class LocationIndex {
+    private static final String LOG_TAG = LocationIndex.class.getSimpleName();
+
+    static final String TABLE_NAME = "location_rtree";
+    // Only created where the R*Tree module is missing
+    static final String INDEX_COORDINATES = "location_coordinates";
+
+    private static final String COLUMN_ID = "id";
+    private static final String COLUMN_MIN_LAT = "min_lat";
+    private static final String COLUMN_MAX_LAT = "max_lat";
+    private static final String COLUMN_MIN_LONG = "min_long";
+    private static final String COLUMN_MAX_LONG = "max_long";
+
+    private static final String LAT = LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_COORD_LAT;
+    private static final String LONG = LocationEntry.TABLE_NAME + "." + LocationEntry.COLUMN_COORD_LONG;
+
+    // rawQuery binds every argument as text, which expressions and R*Tree columns, having no
+    // affinity, would compare as text
+    private static final String ARG = "CAST(? AS REAL)";
+
+    // (lat - ?)^2 + (min(|long - ?|, 360 - |long - ?|) * ?)^2, in squared degrees of latitude
+    private static final String LONG_DIFFERENCE = "(min(abs(" + LONG + " - " + ARG + "), " +
+            "360 - abs(" + LONG + " - " + ARG + ")) * " + ARG + ")";
+    private static final String DISTANCE_SQUARED =
+            "(" + LAT + " - " + ARG + ") * (" + LAT + " - " + ARG + ") + " +
+                    LONG_DIFFERENCE + " * " + LONG_DIFFERENCE;
+
+    // Half the height of the first box, in degrees of latitude: about 55km.  Each miss makes
+    // the box four times as tall.
+    private static final double INITIAL_RADIUS = 0.5;
+    private static final double RADIUS_GROWTH = 4;
+    // Keeps the box's width finite at the poles
+    private static final double MIN_COS_LATITUDE = 0.01;
+
+    private LocationIndex() {
+    }
+
+    /**
+     * Creates the index over the location table's existing rows, and the triggers that keep it
+     * up to date.
+     */
+    static void create(SQLiteDatabase db) {
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE " + TABLE_NAME + " USING rtree(" +
+                    COLUMN_ID + ", " +
+                    COLUMN_MIN_LAT + ", " + COLUMN_MAX_LAT + ", " +
+                    COLUMN_MIN_LONG + ", " + COLUMN_MAX_LONG + ");");
+        } catch (SQLiteException e) {
+            Log.w(LOG_TAG, "No R*Tree module, indexing the coordinates instead", e);
+            db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_COORDINATES +
+                    " ON " + LocationEntry.TABLE_NAME + " (" +
+                    LocationEntry.COLUMN_COORD_LAT + ", " + LocationEntry.COLUMN_COORD_LONG + ");");
+            return;
+        }
+
+        // A location is a point: a box with no area
+        final String INSERT_NEW = "INSERT INTO " + TABLE_NAME + " VALUES (NEW." +
+                LocationEntry._ID + ", " +
+                "NEW." + LocationEntry.COLUMN_COORD_LAT + ", " +
+                "NEW." + LocationEntry.COLUMN_COORD_LAT + ", " +
+                "NEW." + LocationEntry.COLUMN_COORD_LONG + ", " +
+                "NEW." + LocationEntry.COLUMN_COORD_LONG + ");";
+        final String DELETE_OLD = "DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_ID +
+                " = OLD." + LocationEntry._ID + ";";
+        db.execSQL("CREATE TRIGGER " + TABLE_NAME + "_insert AFTER INSERT ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " + INSERT_NEW + " END;");
+        db.execSQL("CREATE TRIGGER " + TABLE_NAME + "_update AFTER UPDATE OF " +
+                LocationEntry._ID + ", " + LocationEntry.COLUMN_COORD_LAT + ", " +
+                LocationEntry.COLUMN_COORD_LONG + " ON " + LocationEntry.TABLE_NAME +
+                " BEGIN " + DELETE_OLD + " " + INSERT_NEW + " END;");
+        db.execSQL("CREATE TRIGGER " + TABLE_NAME + "_delete AFTER DELETE ON " +
+                LocationEntry.TABLE_NAME + " BEGIN " + DELETE_OLD + " END;");
+
+        db.execSQL("INSERT INTO " + TABLE_NAME + " SELECT " +
+                LocationEntry._ID + ", " +
+                LocationEntry.COLUMN_COORD_LAT + ", " + LocationEntry.COLUMN_COORD_LAT + ", " +
+                LocationEntry.COLUMN_COORD_LONG + ", " + LocationEntry.COLUMN_COORD_LONG +
+                " FROM " + LocationEntry.TABLE_NAME + ";");
+    }
+
+    /**
+     * @return true if the database has the R*Tree, false if it fell back to the coordinates
+     * index.
+     */
+    static boolean hasRtree(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{TABLE_NAME}) > 0;
+    }
+
+    /**
+     * @return up to count locations, nearest the point first, with the projection's columns of
+     * the location table.
+     */
+    static Cursor queryNearest(SQLiteDatabase db, boolean rtree, double latitude,
+                               double longitude, int count, String[] projection) {
+        count = Math.max(0, count);
+        String columns = projection == null
+                ? LocationEntry.TABLE_NAME + ".*" : TextUtils.join(", ", projection);
+        double cosLatitude = Math.max(MIN_COS_LATITUDE, Math.cos(Math.toRadians(latitude)));
+        String[] distanceArgs = {
+                Double.toString(latitude), Double.toString(latitude),
+                Double.toString(longitude), Double.toString(longitude),
+                Double.toString(cosLatitude),
+                Double.toString(longitude), Double.toString(longitude),
+                Double.toString(cosLatitude)
+        };
+
+        for (double radius = INITIAL_RADIUS; ; radius *= RADIUS_GROWTH) {
+            double halfWidth = radius / cosLatitude;
+            boolean wholeWorld = radius >= 180;
+            // Boxes that cross the antimeridian or reach a pole search the whole band of
+            // latitude, rather than split in two
+            boolean wholeBand = wholeWorld || halfWidth >= 180
+                    || longitude - halfWidth < -180 || longitude + halfWidth > 180;
+
+            StringBuilder sql = new StringBuilder(512);
+            ArrayList<String> args = new ArrayList<String>(20);
+            sql.append("SELECT ").append(columns).append(" FROM ").append(LocationEntry.TABLE_NAME);
+            if (!wholeWorld) {
+                // Points are boxes with no area, so either bound of a point will do; these
+                // are the ones the R*Tree can prune with
+                String upperLat = rtree ? TABLE_NAME + "." + COLUMN_MAX_LAT : LAT;
+                String lowerLat = rtree ? TABLE_NAME + "." + COLUMN_MIN_LAT : LAT;
+                if (rtree) {
+                    sql.append(" INNER JOIN ").append(TABLE_NAME).append(" ON ")
+                            .append(TABLE_NAME).append('.').append(COLUMN_ID).append(" = ")
+                            .append(LocationEntry.TABLE_NAME).append('.')
+                            .append(LocationEntry._ID);
+                }
+                sql.append(" WHERE ").append(upperLat).append(" >= ").append(ARG)
+                        .append(" AND ").append(lowerLat).append(" <= ").append(ARG);
+                args.add(Double.toString(latitude - radius));
+                args.add(Double.toString(latitude + radius));
+                if (!wholeBand) {
+                    String upperLong = rtree ? TABLE_NAME + "." + COLUMN_MAX_LONG : LONG;
+                    String lowerLong = rtree ? TABLE_NAME + "." + COLUMN_MIN_LONG : LONG;
+                    sql.append(" AND ").append(upperLong).append(" >= ").append(ARG)
+                            .append(" AND ").append(lowerLong).append(" <= ").append(ARG);
+                    args.add(Double.toString(longitude - halfWidth));
+                    args.add(Double.toString(longitude + halfWidth));
+                }
+                // Only what is inside the circle the box bounds is sure to beat what is
+                // outside the box
+                sql.append(" AND ").append(DISTANCE_SQUARED).append(" <= ").append(ARG);
+                addAll(args, distanceArgs);
+                args.add(Double.toString(radius * radius));
+            }
+            sql.append(" ORDER BY ").append(DISTANCE_SQUARED).append(" LIMIT ").append(count);
+            addAll(args, distanceArgs);
+
+            Cursor cursor = db.rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+            if (wholeWorld || cursor.getCount() >= count) {
+                return cursor;
+            }
+            cursor.close();
+        }
+    }
+
+    private static void addAll(ArrayList<String> list, String[] values) {
+        for (String value : values) {
+            list.add(value);
+        }
+    }
+}
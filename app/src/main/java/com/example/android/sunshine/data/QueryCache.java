@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.annotation.TargetApi;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.v4.util.LruCache;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A read-through cache of {@link WeatherProvider} query results.
+ *
+ * The forecast changes a few times a day but is read by the adapters, widget factories, Muzei,
+ * the notification and the Wear responder, so most queries would return exactly what the last
+ * one did.  Results are copied out of SQLite once and kept as immutable rows; every hit gets
+ * its own lightweight cursor over those rows.  The cache is bounded by an estimate of the
+ * rows' size in bytes and evicts the least recently used result first.
+ *
+ * Every entry records which tables it read and, for the location-scoped URIs, which location
+ * setting.  Writes invalidate only the entries they could have changed; see
+ * {@link #invalidateLocations} and {@link #invalidateTable}.
+ */
+final class QueryCache {
+
+    // Keys of the Bundle returned by the METHOD_QUERY_CACHE_STATS call
+    static final String STAT_HITS = "hits";
+    static final String STAT_MISSES = "misses";
+    static final String STAT_EVICTIONS = "evictions";
+    static final String STAT_SIZE_BYTES = "size_bytes";
+    static final String STAT_MAX_BYTES = "max_bytes";
+
+    static final int DEFAULT_MAX_BYTES = 256 * 1024;
+
+    // Tables an entry depends on
+    static final int TABLE_WEATHER = 1;
+    static final int TABLE_LOCATION = 1 << 1;
+    // The archive and aggregate tables, which only change together
+    static final int TABLE_HISTORY = 1 << 2;
+    static final int TABLE_HOURLY = 1 << 3;
+    // The offline city index, which only changes when it is first loaded
+    static final int TABLE_CITY = 1 << 4;
+
+    /**
+     * One cached result.  Never modified once built.
+     */
+    static final class Entry {
+        final String[] columns;
+        final Object[][] rows;
+        final int tables;
+        // The location setting the result is restricted to, or null if it could span several
+        final String locationSetting;
+        final int sizeBytes;
+
+        Entry(String[] columns, Object[][] rows, int tables, String locationSetting,
+              int sizeBytes) {
+            this.columns = columns;
+            this.rows = rows;
+            this.tables = tables;
+            this.locationSetting = locationSetting;
+            this.sizeBytes = sizeBytes;
+        }
+    }
+
+    private final LruCache<String, Entry> mEntries;
+    private final int mMaxEntryBytes;
+    // Bumped by every invalidation, so a query that raced with a write isn't cached
+    private long mGeneration;
+
+    QueryCache(int maxBytes) {
+        mEntries = new LruCache<String, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.sizeBytes;
+            }
+        };
+        // A single result this big would push out everything else for little gain
+        mMaxEntryBytes = maxBytes / 4;
+    }
+
+    /**
+     * Cursor.getType, which copying rows needs, arrived in Honeycomb.  Older devices just
+     * don't cache.
+     */
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    static String buildKey(String uri, String[] projection, String selection,
+                           String[] selectionArgs, String sortOrder) {
+        StringBuilder key = new StringBuilder(128);
+        key.append(uri).append('|').append(Arrays.toString(projection))
+                .append('|').append(selection)
+                .append('|').append(Arrays.toString(selectionArgs))
+                .append('|').append(sortOrder);
+        return key.toString();
+    }
+
+    /**
+     * @return a new cursor over the cached result, or null on a miss.
+     */
+    Cursor get(String key) {
+        Entry entry = mEntries.get(key);
+        return entry == null ? null : new CachedCursor(entry);
+    }
+
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Copies a freshly queried result into the cache, and closes it.
+     *
+     * @param generation what {@link #getGeneration} returned before the query ran; if anything
+     *                   was invalidated since, the result may be stale and isn't kept
+     * @return a cursor over the copied result, positioned before the first row
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    Cursor put(String key, Cursor cursor, int tables, String locationSetting, long generation) {
+        Entry entry;
+        try {
+            String[] columns = cursor.getColumnNames();
+            Object[][] rows = new Object[cursor.getCount()][];
+            int sizeBytes = 64 + key.length() * 2;
+            for (int i = 0; cursor.moveToNext(); i++) {
+                Object[] row = new Object[columns.length];
+                sizeBytes += 16 + 4 * columns.length;
+                for (int column = 0; column < columns.length; column++) {
+                    switch (cursor.getType(column)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[column] = cursor.getLong(column);
+                            sizeBytes += 16;
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            row[column] = cursor.getDouble(column);
+                            sizeBytes += 16;
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            String value = cursor.getString(column);
+                            row[column] = value;
+                            sizeBytes += 40 + 2 * value.length();
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            byte[] blob = cursor.getBlob(column);
+                            row[column] = blob;
+                            sizeBytes += 16 + blob.length;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                rows[i] = row;
+            }
+            entry = new Entry(columns, rows, tables, locationSetting, sizeBytes);
+        } finally {
+            cursor.close();
+        }
+        synchronized (this) {
+            if (generation == mGeneration && entry.sizeBytes <= mMaxEntryBytes) {
+                mEntries.put(key, entry);
+            }
+        }
+        return new CachedCursor(entry);
+    }
+
+    /**
+     * Drops every entry that read the table for one of these locations, and every entry that
+     * read the table without being restricted to a location.
+     *
+     * @param table {@link #TABLE_WEATHER}, {@link #TABLE_LOCATION}, {@link #TABLE_HISTORY},
+     *              {@link #TABLE_HOURLY} or {@link #TABLE_CITY}
+     */
+    synchronized void invalidateLocations(int table, Iterable<String> locationSettings) {
+        mGeneration++;
+        for (Map.Entry<String, Entry> cached : mEntries.snapshot().entrySet()) {
+            Entry entry = cached.getValue();
+            if ((entry.tables & table) == 0) {
+                continue;
+            }
+            boolean affected = entry.locationSetting == null;
+            for (String locationSetting : locationSettings) {
+                if (affected) {
+                    break;
+                }
+                affected = entry.locationSetting.equals(locationSetting);
+            }
+            if (affected) {
+                mEntries.remove(cached.getKey());
+            }
+        }
+    }
+
+    /**
+     * Drops every entry that read the given tables, for writes whose reach isn't known.
+     *
+     * @param tables a combination of {@link #TABLE_WEATHER}, {@link #TABLE_LOCATION},
+     *               {@link #TABLE_HISTORY}, {@link #TABLE_HOURLY} and {@link #TABLE_CITY}
+     */
+    synchronized void invalidateTable(int tables) {
+        mGeneration++;
+        for (Map.Entry<String, Entry> cached : mEntries.snapshot().entrySet()) {
+            if ((cached.getValue().tables & tables) != 0) {
+                mEntries.remove(cached.getKey());
+            }
+        }
+    }
+
+    synchronized void clear() {
+        mGeneration++;
+        mEntries.evictAll();
+    }
+
+    /**
+     * @return the hit ratio, from 0 to 1, or 0 before the first lookup.
+     */
+    float getHitRatio() {
+        int hits = mEntries.hitCount();
+        int lookups = hits + mEntries.missCount();
+        return lookups == 0 ? 0f : (float) hits / lookups;
+    }
+
+    Bundle getStats() {
+        Bundle stats = new Bundle();
+        stats.putInt(STAT_HITS, mEntries.hitCount());
+        stats.putInt(STAT_MISSES, mEntries.missCount());
+        stats.putInt(STAT_EVICTIONS, mEntries.evictionCount());
+        stats.putInt(STAT_SIZE_BYTES, mEntries.size());
+        stats.putInt(STAT_MAX_BYTES, mEntries.maxSize());
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCache[hits=" + mEntries.hitCount() + " misses=" + mEntries.missCount()
+                + " ratio=" + getHitRatio() + " evictions=" + mEntries.evictionCount()
+                + " bytes=" + mEntries.size() + "/" + mEntries.maxSize() + "]";
+    }
+
+    /**
+     * A read-only cursor over a cached entry.  Cursors share the entry's rows, so a hit costs
+     * one small object and no copying.
+     */
+    private static final class CachedCursor extends AbstractCursor {
+        private final Entry mEntry;
+
+        CachedCursor(Entry entry) {
+            mEntry = entry;
+        }
+
+        private Object get(int column) {
+            if (column < 0 || column >= mEntry.columns.length) {
+                throw new IndexOutOfBoundsException("Requested column: " + column
+                        + ", # of columns: " + mEntry.columns.length);
+            }
+            if (mPos < 0 || mPos >= mEntry.rows.length) {
+                throw new IndexOutOfBoundsException("Position " + mPos
+                        + " is outside the result of " + mEntry.rows.length + " rows");
+            }
+            return mEntry.rows[mPos][column];
+        }
+
+        @Override
+        public int getCount() {
+            return mEntry.rows.length;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mEntry.columns;
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = get(column);
+            return value == null ? null : value.toString();
+        }
+
+        @Override
+        public short getShort(int column) {
+            Object value = get(column);
+            if (value == null) return 0;
+            if (value instanceof Number) return ((Number) value).shortValue();
+            return Short.parseShort(value.toString());
+        }
+
+        @Override
+        public int getInt(int column) {
+            Object value = get(column);
+            if (value == null) return 0;
+            if (value instanceof Number) return ((Number) value).intValue();
+            return Integer.parseInt(value.toString());
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = get(column);
+            if (value == null) return 0;
+            if (value instanceof Number) return ((Number) value).longValue();
+            return Long.parseLong(value.toString());
+        }
+
+        @Override
+        public float getFloat(int column) {
+            Object value = get(column);
+            if (value == null) return 0f;
+            if (value instanceof Number) return ((Number) value).floatValue();
+            return Float.parseFloat(value.toString());
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = get(column);
+            if (value == null) return 0d;
+            if (value instanceof Number) return ((Number) value).doubleValue();
+            return Double.parseDouble(value.toString());
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            return (byte[]) get(column);
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = get(column);
+            if (value == null) return FIELD_TYPE_NULL;
+            if (value instanceof byte[]) return FIELD_TYPE_BLOB;
+            if (value instanceof Double) return FIELD_TYPE_FLOAT;
+            if (value instanceof Long) return FIELD_TYPE_INTEGER;
+            return FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+    }
+}
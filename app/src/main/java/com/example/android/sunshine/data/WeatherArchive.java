@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.data.WeatherContract.AggregateEntry;
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Moves expired days out of the weather table and into the history tables.
+ *
+ * Each archived day is copied into {@link ArchiveEntry} and counted into the
+ * {@link AggregateEntry} rows of its week and month, so that history reads never have to scan
+ * the daily archive and the weather table only ever holds the forecast.  The aggregates are
+ * accumulated in memory and merged with the stored rows once per period, rather than once per
+ * day.
+ */
+final class WeatherArchive {
+
+    // The weather columns the archive keeps, in ArchiveEntry's column order
+    private static final String[] ARCHIVED_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final int COL_LOC_KEY = 0;
+    private static final int COL_DATE = 1;
+    private static final int COL_WEATHER_ID = 2;
+    private static final int COL_MIN_TEMP = 3;
+    private static final int COL_MAX_TEMP = 4;
+    private static final int COL_HUMIDITY = 5;
+    private static final int COL_PRESSURE = 6;
+    private static final int COL_WIND_SPEED = 7;
+    private static final int COL_DEGREES = 8;
+
+    private static final String[] AGGREGATE_COLUMNS = {
+            AggregateEntry.COLUMN_DAY_COUNT,
+            AggregateEntry.COLUMN_MIN_TEMP,
+            AggregateEntry.COLUMN_MAX_TEMP,
+            AggregateEntry.COLUMN_MEAN_MIN_TEMP,
+            AggregateEntry.COLUMN_MEAN_MAX_TEMP,
+            AggregateEntry.COLUMN_MEAN_HUMIDITY,
+            AggregateEntry.COLUMN_MEAN_PRESSURE,
+            AggregateEntry.COLUMN_MEAN_WIND_SPEED
+    };
+
+    //location_id = ? AND period = ? AND period_start = ?
+    private static final String sPeriodSelection =
+            AggregateEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    AggregateEntry.COLUMN_PERIOD + " = ? AND " +
+                    AggregateEntry.COLUMN_PERIOD_START + " = ? ";
+
+    private WeatherArchive() {
+    }
+
+    /**
+     * The figures for one location and period, built from the days archived in this pass.
+     */
+    private static final class Period {
+        final long locationId;
+        final String period;
+        final long periodStart;
+        int dayCount;
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        double sumMin;
+        double sumMax;
+        double sumHumidity;
+        double sumPressure;
+        double sumWindSpeed;
+
+        Period(long locationId, String period, long periodStart) {
+            this.locationId = locationId;
+            this.period = period;
+            this.periodStart = periodStart;
+        }
+
+        void add(Cursor day) {
+            double dayMin = day.getDouble(COL_MIN_TEMP);
+            double dayMax = day.getDouble(COL_MAX_TEMP);
+            dayCount++;
+            min = Math.min(min, dayMin);
+            max = Math.max(max, dayMax);
+            sumMin += dayMin;
+            sumMax += dayMax;
+            sumHumidity += day.getDouble(COL_HUMIDITY);
+            sumPressure += day.getDouble(COL_PRESSURE);
+            sumWindSpeed += day.getDouble(COL_WIND_SPEED);
+        }
+
+        /**
+         * Folds the stored aggregate for this period, if there is one, into these figures and
+         * writes the result back.  Means are weighted by the day count on either side.
+         */
+        void mergeInto(SQLiteDatabase db) {
+            Cursor stored = db.query(AggregateEntry.TABLE_NAME,
+                    AGGREGATE_COLUMNS,
+                    sPeriodSelection,
+                    new String[]{Long.toString(locationId), period, Long.toString(periodStart)},
+                    null,
+                    null,
+                    null);
+            try {
+                if (stored.moveToFirst()) {
+                    int storedDays = stored.getInt(0);
+                    dayCount += storedDays;
+                    min = Math.min(min, stored.getDouble(1));
+                    max = Math.max(max, stored.getDouble(2));
+                    sumMin += stored.getDouble(3) * storedDays;
+                    sumMax += stored.getDouble(4) * storedDays;
+                    sumHumidity += stored.getDouble(5) * storedDays;
+                    sumPressure += stored.getDouble(6) * storedDays;
+                    sumWindSpeed += stored.getDouble(7) * storedDays;
+                }
+            } finally {
+                stored.close();
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(AggregateEntry.COLUMN_LOC_KEY, locationId);
+            values.put(AggregateEntry.COLUMN_PERIOD, period);
+            values.put(AggregateEntry.COLUMN_PERIOD_START, periodStart);
+            values.put(AggregateEntry.COLUMN_DAY_COUNT, dayCount);
+            values.put(AggregateEntry.COLUMN_MIN_TEMP, min);
+            values.put(AggregateEntry.COLUMN_MAX_TEMP, max);
+            values.put(AggregateEntry.COLUMN_MEAN_MIN_TEMP, sumMin / dayCount);
+            values.put(AggregateEntry.COLUMN_MEAN_MAX_TEMP, sumMax / dayCount);
+            values.put(AggregateEntry.COLUMN_MEAN_HUMIDITY, sumHumidity / dayCount);
+            values.put(AggregateEntry.COLUMN_MEAN_PRESSURE, sumPressure / dayCount);
+            values.put(AggregateEntry.COLUMN_MEAN_WIND_SPEED, sumWindSpeed / dayCount);
+            // The UNIQUE (location_id, period, period_start) constraint replaces the old row
+            db.insert(AggregateEntry.TABLE_NAME, null, values);
+        }
+    }
+
+    /**
+     * Archives the weather rows that match the selection and deletes them, in one transaction.
+     * Days that are already in the archive are deleted without being counted again.
+     *
+     * @param archivedDays receives location id -> dates of the rows removed from weather
+     * @return the number of rows removed from weather
+     */
+    static int archive(SQLiteDatabase db, String selection, String[] selectionArgs,
+                       Map<Long, TreeSet<Long>> archivedDays) {
+        // location id + period + start -> the figures for that period
+        HashMap<String, Period> periods = new HashMap<String, Period>();
+        Time scratch = new Time();
+        ContentValues values = new ContentValues(ARCHIVED_COLUMNS.length);
+        CompiledInserter inserter = new CompiledInserter(db, ArchiveEntry.TABLE_NAME);
+        int rowsDeleted;
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.query(WeatherEntry.TABLE_NAME,
+                    ARCHIVED_COLUMNS,
+                    selection,
+                    selectionArgs,
+                    null,
+                    null,
+                    null);
+            try {
+                while (cursor.moveToNext()) {
+                    long locationId = cursor.getLong(COL_LOC_KEY);
+                    long date = cursor.getLong(COL_DATE);
+                    TreeSet<Long> dates = archivedDays.get(locationId);
+                    if (dates == null) {
+                        dates = new TreeSet<Long>();
+                        archivedDays.put(locationId, dates);
+                    }
+                    dates.add(date);
+
+                    values.put(ArchiveEntry.COLUMN_LOC_KEY, locationId);
+                    values.put(ArchiveEntry.COLUMN_DATE, date);
+                    values.put(ArchiveEntry.COLUMN_WEATHER_ID, cursor.getInt(COL_WEATHER_ID));
+                    values.put(ArchiveEntry.COLUMN_MIN_TEMP, cursor.getDouble(COL_MIN_TEMP));
+                    values.put(ArchiveEntry.COLUMN_MAX_TEMP, cursor.getDouble(COL_MAX_TEMP));
+                    values.put(ArchiveEntry.COLUMN_HUMIDITY, cursor.getDouble(COL_HUMIDITY));
+                    values.put(ArchiveEntry.COLUMN_PRESSURE, cursor.getDouble(COL_PRESSURE));
+                    values.put(ArchiveEntry.COLUMN_WIND_SPEED, cursor.getDouble(COL_WIND_SPEED));
+                    values.put(ArchiveEntry.COLUMN_DEGREES, cursor.getDouble(COL_DEGREES));
+                    if (inserter.insert(values) == -1) {
+                        // Already archived, and already counted
+                        continue;
+                    }
+
+                    addToPeriod(periods, locationId, AggregateEntry.PERIOD_WEEK,
+                            getWeekStart(date, scratch), cursor);
+                    addToPeriod(periods, locationId, AggregateEntry.PERIOD_MONTH,
+                            getMonthStart(date, scratch), cursor);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            for (Period period : periods.values()) {
+                period.mergeInto(db);
+            }
+            rowsDeleted = db.delete(WeatherEntry.TABLE_NAME, selection, selectionArgs);
+            db.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            db.endTransaction();
+        }
+        return rowsDeleted;
+    }
+
+    private static void addToPeriod(HashMap<String, Period> periods, long locationId,
+                                    String period, long periodStart, Cursor day) {
+        String key = locationId + "/" + period + "/" + periodStart;
+        Period figures = periods.get(key);
+        if (figures == null) {
+            figures = new Period(locationId, period, periodStart);
+            periods.put(key, figures);
+        }
+        figures.add(day);
+    }
+
+    /**
+     * @return the normalized date of the Monday starting the week that contains this date.
+     */
+    static long getWeekStart(long date, Time scratch) {
+        scratch.set(date);
+        // weekDay counts from Sunday = 0
+        scratch.monthDay -= (scratch.weekDay + 6) % 7;
+        return startOfDay(scratch);
+    }
+
+    /**
+     * @return the normalized date of the first day of the month that contains this date.
+     */
+    static long getMonthStart(long date, Time scratch) {
+        scratch.set(date);
+        scratch.monthDay = 1;
+        return startOfDay(scratch);
+    }
+
+    private static long startOfDay(Time time) {
+        // Noon keeps a daylight saving change from moving us into the neighbouring day
+        time.hour = 12;
+        time.minute = 0;
+        time.second = 0;
+        return WeatherContract.normalizeDate(time.normalize(true), time);
+    }
+}
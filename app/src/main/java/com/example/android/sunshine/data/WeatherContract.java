@@ -21,6 +21,9 @@ import android.net.Uri;
 import android.provider.BaseColumns;
 import android.text.format.Time;
 
+import java.text.Normalizer;
+import java.util.Locale;
+
 /**
  * Defines table and column names for the weather database.
  */
@@ -43,12 +46,41 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    // location/near?lat=[latitude]&lon=[longitude]&k=[count]: the cached locations nearest a
+    // point, nearest first
+    public static final String PATH_NEAR = "near";
+    // History: archive/[location setting] holds the days that dropped out of the forecast, and
+    // aggregate/[location setting]/[week|month] their weekly and monthly roll-ups
+    public static final String PATH_ARCHIVE = "archive";
+    public static final String PATH_AGGREGATE = "aggregate";
+    // weather/[location setting]/stats: per-bucket statistics of a location's forecast
+    public static final String PATH_STATS = "stats";
+    // hourly/[location setting]: the 3-hour forecast, one row per location and day
+    public static final String PATH_HOURLY = "hourly";
+    // city: the bundled offline city index, and city/search?q=[prefix]&limit=[count] the
+    // cities whose names start with the words typed, most populous first
+    public static final String PATH_CITY = "city";
+    public static final String PATH_SEARCH = "search";
+
+    // ContentResolver.call() method that returns the provider's query cache counters (hits,
+    // misses, evictions and sizes) as a Bundle, or null if the cache is off.  Honeycomb and up.
+    public static final String METHOD_QUERY_CACHE_STATS = "query_cache_stats";
+    // ContentResolver.call() method that empties the query cache.  Only needed by code that
+    // writes the database without going through the provider, such as tests.
+    public static final String METHOD_CLEAR_QUERY_CACHE = "clear_query_cache";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
+        return normalizeDate(startDate, new Time());
+    }
+
+    /**
+     * Like {@link #normalizeDate(long)}, but reuses a caller-owned Time, for loops that
+     * normalize many rows.
+     */
+    public static long normalizeDate(long startDate, Time time) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
         time.set(startDate);
         int julianDay = Time.getJulianDay(startDate, time.gmtoff);
         return time.setJulianDay(julianDay);
@@ -81,9 +113,50 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Query parameters of the nearest-locations URI
+        public static final String PARAM_LATITUDE = "lat";
+        public static final String PARAM_LONGITUDE = "lon";
+        public static final String PARAM_COUNT = "k";
+        // How many locations a nearest-locations URI without a count returns
+        public static final int DEFAULT_NEAR_COUNT = 1;
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
+
+        public static Uri buildLocationNearUri(double latitude, double longitude, int count) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_NEAR)
+                    .appendQueryParameter(PARAM_LATITUDE, Double.toString(latitude))
+                    .appendQueryParameter(PARAM_LONGITUDE, Double.toString(longitude))
+                    .appendQueryParameter(PARAM_COUNT, Integer.toString(count))
+                    .build();
+        }
+
+        public static double getLatitudeFromUri(Uri uri) {
+            return getCoordinateFromUri(uri, PARAM_LATITUDE);
+        }
+
+        public static double getLongitudeFromUri(Uri uri) {
+            return getCoordinateFromUri(uri, PARAM_LONGITUDE);
+        }
+
+        private static double getCoordinateFromUri(Uri uri, String param) {
+            String coordinate = uri.getQueryParameter(param);
+            if (coordinate == null || coordinate.length() == 0) {
+                throw new IllegalArgumentException("No " + param + " in " + uri);
+            }
+            return Double.parseDouble(coordinate);
+        }
+
+        /**
+         * @return the count of a nearest-locations URI, {@link #DEFAULT_NEAR_COUNT} if it has
+         * none.
+         */
+        public static int getCountFromUri(Uri uri) {
+            String count = uri.getQueryParameter(PARAM_COUNT);
+            return count == null || count.length() == 0
+                    ? DEFAULT_NEAR_COUNT : Integer.parseInt(count);
+        }
     }
 
     /* Inner class that defines the table contents of the weather table */
@@ -126,10 +199,41 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter that puts bulkInsert into diffing mode: a row is only written if it
+        // differs from the stored row for the same (location_id, date), notifications go out
+        // for the changed days only, and the return value is the number of rows written.
+        public static final String PARAM_DIFF = "diff";
+
+        // Query parameter that makes delete archive the rows instead of discarding them: they
+        // are copied into the archive table and folded into the weekly and monthly aggregates,
+        // in the same transaction that removes them from weather.
+        public static final String PARAM_ARCHIVE = "archive";
+
+        // weather/location_id/[id] addresses a location's forecast by its row id rather than its
+        // setting, so the provider can read the weather table without joining location.  These
+        // URIs only expose weather columns.  See LocationIdCache for cheap setting -> id lookups.
+        public static final String PATH_LOCATION_ID = "location_id";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        public static Uri buildWeatherDiffUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_DIFF, "1").build();
+        }
+
+        public static boolean isDiffUri(Uri uri) {
+            return "1".equals(uri.getQueryParameter(PARAM_DIFF));
+        }
+
+        public static Uri buildWeatherArchivingUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_ARCHIVE, "1").build();
+        }
+
+        public static boolean isArchivingUri(Uri uri) {
+            return "1".equals(uri.getQueryParameter(PARAM_ARCHIVE));
+        }
+
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
@@ -149,6 +253,30 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        public static Uri buildWeatherLocationId(long locationId) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_LOCATION_ID)
+                    .appendPath(Long.toString(locationId)).build();
+        }
+
+        public static Uri buildWeatherLocationIdWithStartDate(long locationId, long startDate) {
+            return buildWeatherLocationId(locationId).buildUpon()
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .build();
+        }
+
+        public static Uri buildWeatherLocationIdWithDate(long locationId, long date) {
+            return buildWeatherLocationId(locationId).buildUpon()
+                    .appendPath(Long.toString(normalizeDate(date))).build();
+        }
+
+        public static long getLocationIdFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(2));
+        }
+
+        public static long getDateFromLocationIdUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(3));
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
@@ -165,4 +293,298 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the table contents of the weather archive table */
+    public static final class ArchiveEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ARCHIVE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ARCHIVE;
+
+        public static final String TABLE_NAME = "weather_archive";
+
+        // Days that have dropped out of the forecast.  Only the numeric columns are kept; the
+        // descriptions can be rebuilt from the weather id.  Same meanings as in WeatherEntry.
+        public static final String COLUMN_LOC_KEY = WeatherEntry.COLUMN_LOC_KEY;
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        public static Uri buildArchiveLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /* Inner class that defines the table contents of the weather aggregate table */
+    public static final class AggregateEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_AGGREGATE).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_AGGREGATE;
+
+        public static final String TABLE_NAME = "weather_aggregate";
+
+        // Values of COLUMN_PERIOD
+        public static final String PERIOD_WEEK = "week";
+        public static final String PERIOD_MONTH = "month";
+
+        public static final String COLUMN_LOC_KEY = WeatherEntry.COLUMN_LOC_KEY;
+        // PERIOD_WEEK or PERIOD_MONTH
+        public static final String COLUMN_PERIOD = "period";
+        // Start of the period (a Monday, or the 1st of the month), as a normalized date
+        public static final String COLUMN_PERIOD_START = "period_start";
+        // How many archived days the period's figures cover
+        public static final String COLUMN_DAY_COUNT = "day_count";
+
+        // Lowest minimum and highest maximum temperature of the period
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+
+        // Means of the daily values over the period
+        public static final String COLUMN_MEAN_MIN_TEMP = "mean_min";
+        public static final String COLUMN_MEAN_MAX_TEMP = "mean_max";
+        public static final String COLUMN_MEAN_HUMIDITY = "mean_humidity";
+        public static final String COLUMN_MEAN_PRESSURE = "mean_pressure";
+        public static final String COLUMN_MEAN_WIND_SPEED = "mean_wind";
+
+        public static Uri buildAggregateLocation(String locationSetting, String period) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).appendPath(period).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static String getPeriodFromUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
+    }
+
+    /* Inner class that defines the table contents of the weather statistics table */
+    public static final class StatsEntry implements BaseColumns {
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        // Statistics are computed by SQLite on first use and kept here until the location's
+        // weather changes.  Read them through buildStatsUri rather than the table.
+        public static final String TABLE_NAME = "weather_stats";
+
+        // Query parameters of the stats URI.  from and to are dates; the result has one row
+        // for every bucket that overlaps [from, to], covering the whole bucket.
+        public static final String PARAM_FROM = "from";
+        public static final String PARAM_TO = "to";
+        public static final String PARAM_BUCKET = "bucket";
+
+        // Values of PARAM_BUCKET and COLUMN_BUCKET.  Weeks start on Monday.
+        public static final String BUCKET_DAY = "day";
+        public static final String BUCKET_WEEK = "week";
+        public static final String BUCKET_MONTH = "month";
+
+        public static final String COLUMN_LOC_KEY = WeatherEntry.COLUMN_LOC_KEY;
+        public static final String COLUMN_BUCKET = "bucket";
+        // First day of the bucket, as a normalized date
+        public static final String COLUMN_BUCKET_START = "bucket_start";
+        // Number of forecast days in the bucket
+        public static final String COLUMN_COUNT = "count";
+
+        // Minimum, maximum and mean over the bucket of the daily low (WeatherEntry's min)
+        public static final String COLUMN_LOW_MIN = "low_min";
+        public static final String COLUMN_LOW_MAX = "low_max";
+        public static final String COLUMN_LOW_MEAN = "low_mean";
+        // ... of the daily high (WeatherEntry's max)
+        public static final String COLUMN_HIGH_MIN = "high_min";
+        public static final String COLUMN_HIGH_MAX = "high_max";
+        public static final String COLUMN_HIGH_MEAN = "high_mean";
+        // ... of the humidity
+        public static final String COLUMN_HUMIDITY_MIN = "humidity_min";
+        public static final String COLUMN_HUMIDITY_MAX = "humidity_max";
+        public static final String COLUMN_HUMIDITY_MEAN = "humidity_mean";
+        // ... of the pressure
+        public static final String COLUMN_PRESSURE_MIN = "pressure_min";
+        public static final String COLUMN_PRESSURE_MAX = "pressure_max";
+        public static final String COLUMN_PRESSURE_MEAN = "pressure_mean";
+        // ... and of the wind speed
+        public static final String COLUMN_WIND_SPEED_MIN = "wind_min";
+        public static final String COLUMN_WIND_SPEED_MAX = "wind_max";
+        public static final String COLUMN_WIND_SPEED_MEAN = "wind_mean";
+
+        public static Uri buildStatsUri(String locationSetting, String bucket, long from,
+                                        long to) {
+            return WeatherEntry.CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_STATS)
+                    .appendQueryParameter(PARAM_BUCKET, bucket)
+                    .appendQueryParameter(PARAM_FROM, Long.toString(normalizeDate(from)))
+                    .appendQueryParameter(PARAM_TO, Long.toString(normalizeDate(to)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        /**
+         * @return the bucket of a stats URI, {@link #BUCKET_DAY} if it has none.
+         */
+        public static String getBucketFromUri(Uri uri) {
+            String bucket = uri.getQueryParameter(PARAM_BUCKET);
+            return bucket == null ? BUCKET_DAY : bucket;
+        }
+
+        /**
+         * @return the from date of a stats URI, 0 if it has none.
+         */
+        public static long getFromDateFromUri(Uri uri) {
+            String from = uri.getQueryParameter(PARAM_FROM);
+            return from == null || from.length() == 0 ? 0 : Long.parseLong(from);
+        }
+
+        /**
+         * @return the to date of a stats URI, Long.MAX_VALUE if it has none.
+         */
+        public static long getToDateFromUri(Uri uri) {
+            String to = uri.getQueryParameter(PARAM_TO);
+            return to == null || to.length() == 0 ? Long.MAX_VALUE : Long.parseLong(to);
+        }
+    }
+
+    /* Inner class that defines the table contents of the hourly forecast table */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // A day is split into SLOTS_PER_DAY slots of SLOT_HOURS hours, counted from midnight,
+        // which is the step of OpenWeatherMap's 3-hour forecast
+        public static final int SLOT_HOURS = 3;
+        public static final int SLOTS_PER_DAY = 24 / SLOT_HOURS;
+
+        public static final String COLUMN_LOC_KEY = WeatherEntry.COLUMN_LOC_KEY;
+        // The day, normalized like WeatherEntry's dates
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        // All of the day's slots in one blob, in the fixed layout HourlySlots reads and writes
+        public static final String COLUMN_SLOTS = "slots";
+
+        public static Uri buildHourlyUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHourlyLocationWithStartDate(String locationSetting,
+                                                           long startDate) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(normalizeDate(startDate)))
+                    .build();
+        }
+
+        public static Uri buildHourlyLocationWithDate(String locationSetting, long date) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(Long.toString(normalizeDate(date))).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(2));
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String dateString = uri.getQueryParameter(COLUMN_DATE);
+            return dateString == null || dateString.length() == 0 ? 0 : Long.parseLong(dateString);
+        }
+    }
+
+    /* Inner class that defines the table contents of the offline city index */
+    public static final class CityEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_CITY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CITY;
+
+        public static final String TABLE_NAME = "city";
+
+        public static final String COLUMN_NAME = "name";
+        // ISO 3166 alpha-2 code, which is what OpenWeatherMap expects after the comma of a
+        // "city,country" query
+        public static final String COLUMN_COUNTRY = "country";
+        public static final String COLUMN_COORD_LAT = LocationEntry.COLUMN_COORD_LAT;
+        public static final String COLUMN_COORD_LONG = LocationEntry.COLUMN_COORD_LONG;
+        // Orders the matches of a search, so the likeliest city comes first
+        public static final String COLUMN_POPULATION = "population";
+
+        // Query parameters of the search URI
+        public static final String PARAM_QUERY = "q";
+        public static final String PARAM_LIMIT = "limit";
+        // How many cities a search URI without a limit returns
+        public static final int DEFAULT_SEARCH_LIMIT = 10;
+
+        public static Uri buildCitySearchUri(String query, int limit) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH)
+                    .appendQueryParameter(PARAM_QUERY, query)
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit))
+                    .build();
+        }
+
+        public static String getQueryFromUri(Uri uri) {
+            String query = uri.getQueryParameter(PARAM_QUERY);
+            return query == null ? "" : query;
+        }
+
+        public static int getLimitFromUri(Uri uri) {
+            String limit = uri.getQueryParameter(PARAM_LIMIT);
+            return limit == null || limit.length() == 0
+                    ? DEFAULT_SEARCH_LIMIT : Integer.parseInt(limit);
+        }
+
+        /**
+         * @return the location setting that asks OpenWeatherMap for this city, such as
+         * "London,GB".
+         */
+        public static String buildLocationSetting(String name, String country) {
+            return name + "," + country;
+        }
+
+        /**
+         * @return the text lower-cased, with its accents removed, which is how names are
+         * indexed and searches matched: "São Paulo" and "sao paulo" fold to the same string.
+         */
+        public static String fold(String text) {
+            String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+            StringBuilder folded = new StringBuilder(decomposed.length());
+            for (int i = 0; i < decomposed.length(); i++) {
+                char c = decomposed.charAt(i);
+                if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                    folded.append(c);
+                }
+            }
+            return folded.toString().toLowerCase(Locale.US);
+        }
+    }
 }
@@ -15,11 +15,18 @@
  */
 package com.example.android.sunshine.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.example.android.sunshine.data.WeatherContract.AggregateEntry;
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+import com.example.android.sunshine.data.WeatherContract.CityEntry;
+import com.example.android.sunshine.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.data.WeatherContract.StatsEntry;
 import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
 
 /**
@@ -27,21 +34,135 @@ import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version and add a
+    // Migration to MIGRATIONS that takes the previous version's schema to the new one.
+    static final int DATABASE_VERSION = 8;
+
+    // The schema createBaseTables builds.  Older databases predate the migrations and are
+    // recreated from scratch; newer ones are migrated in place.
+    static final int BASE_VERSION = 2;
+
+    // weather(location_id, date): every query for a location setting joins location to weather
+    // on location_id and then filters or sorts by date.  The UNIQUE (date, location_id)
+    // constraint's index has date first, so it can't serve that without scanning.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    /**
+     * Upgrades the schema by one version, in place.
+     */
+    interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
+
+    // MIGRATIONS[i] upgrades a database from version BASE_VERSION + i to BASE_VERSION + i + 1
+    private static final Migration[] MIGRATIONS = {
+            // 2 -> 3: indexes for the provider's queries
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_WEATHER_LOCATION_DATE +
+                            " ON " + WeatherEntry.TABLE_NAME + " (" +
+                            WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");");
+                }
+            },
+            // 3 -> 4: forecast history, so expired days are archived rather than deleted
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    createHistoryTables(db);
+                }
+            },
+            // 4 -> 5: materialized forecast statistics
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    createStatsTable(db);
+                }
+            },
+            // 5 -> 6: the 3-hour forecast
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    createHourlyTable(db);
+                }
+            },
+            // 6 -> 7: the spatial index of cached locations
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    LocationIndex.create(db);
+                }
+            },
+            // 7 -> 8: the offline city index, filled from the bundled list on first search
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    CityIndex.createTables(db);
+                }
+            },
+    };
 
     static final String DATABASE_NAME = "weather.db";
 
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // With write-ahead logging, readers (loaders, widgets, the Wear responder) get their own
+        // connections and see the last committed data while a sync's transaction is open,
+        // instead of queueing behind it on the single connection.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabledCompat();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void setWriteAheadLoggingEnabledCompat() {
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * @return true if databases opened by this helper use write-ahead logging.
+     */
+    static boolean isWriteAheadLoggingSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly() || !isWriteAheadLoggingSupported()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // setWriteAheadLoggingEnabled doesn't exist yet; this is the Honeycomb way
+            enableWriteAheadLoggingCompat(db);
+        }
+        // Android already checkpoints the log every 100 pages and truncates it to 512KB
+        // afterwards, which suits a sync's few dozen pages, so those are left as they are
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLoggingCompat(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        // Build the base schema, then run every migration, so that new and upgraded databases
+        // always end up identical
+        createBaseTables(sqLiteDatabase);
+        migrate(sqLiteDatabase, BASE_VERSION, DATABASE_VERSION);
+    }
+
+    /**
+     * Creates the version {@link #BASE_VERSION} schema.
+     */
+    static void createBaseTables(SQLiteDatabase sqLiteDatabase) {
         // Create a table to hold locations.  A location consists of the string supplied in the
         // location setting, the city name, and the latitude and longitude
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
                 LocationEntry._ID + " INTEGER PRIMARY KEY," +
+                // UNIQUE gives location_setting its own index, which also carries the rowid
+                // (_id), so resolving a setting for the weather join never touches the table
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
@@ -83,16 +204,141 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
     }
 
+    /**
+     * Creates the archive of expired days and the table of their weekly and monthly aggregates.
+     * Neither is read by the forecast queries, so the weather table stays the size of the
+     * forecast however much history builds up.
+     */
+    static void createHistoryTables(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_ARCHIVE_TABLE = "CREATE TABLE " + ArchiveEntry.TABLE_NAME + " (" +
+                ArchiveEntry._ID + " INTEGER PRIMARY KEY," +
+                ArchiveEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                ArchiveEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                ArchiveEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                ArchiveEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                // A day is archived once; archiving it again fails the insert, which tells the
+                // archiver not to count it into the aggregates twice.  Location first, so the
+                // index also serves history reads for a location.
+                " UNIQUE (" + ArchiveEntry.COLUMN_LOC_KEY + ", " +
+                ArchiveEntry.COLUMN_DATE + "));";
+
+        final String SQL_CREATE_AGGREGATE_TABLE = "CREATE TABLE " + AggregateEntry.TABLE_NAME + " (" +
+                AggregateEntry._ID + " INTEGER PRIMARY KEY," +
+                AggregateEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                AggregateEntry.COLUMN_PERIOD + " TEXT NOT NULL, " +
+                AggregateEntry.COLUMN_PERIOD_START + " INTEGER NOT NULL, " +
+                AggregateEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL, " +
+                AggregateEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_MEAN_MIN_TEMP + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_MEAN_MAX_TEMP + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_MEAN_HUMIDITY + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_MEAN_PRESSURE + " REAL NOT NULL, " +
+                AggregateEntry.COLUMN_MEAN_WIND_SPEED + " REAL NOT NULL, " +
+                // One row per location and period; the archiver merges into it
+                " UNIQUE (" + AggregateEntry.COLUMN_LOC_KEY + ", " +
+                AggregateEntry.COLUMN_PERIOD + ", " +
+                AggregateEntry.COLUMN_PERIOD_START + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_ARCHIVE_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_AGGREGATE_TABLE);
+    }
+
+    /**
+     * Creates the table that {@link WeatherStats} materializes bucket statistics into.
+     */
+    static void createStatsTable(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_STATS_TABLE = "CREATE TABLE " + StatsEntry.TABLE_NAME + " (" +
+                StatsEntry._ID + " INTEGER PRIMARY KEY," +
+                StatsEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                StatsEntry.COLUMN_BUCKET + " TEXT NOT NULL, " +
+                StatsEntry.COLUMN_BUCKET_START + " INTEGER NOT NULL, " +
+                StatsEntry.COLUMN_COUNT + " INTEGER NOT NULL, " +
+                StatsEntry.COLUMN_LOW_MIN + " REAL NOT NULL, " +
+                StatsEntry.COLUMN_LOW_MAX + " REAL NOT NULL, " +
+                StatsEntry.COLUMN_LOW_MEAN + " REAL NOT NULL, " +
+                StatsEntry.COLUMN_HIGH_MIN + " REAL NOT NULL, " +
+                StatsEntry.COLUMN_HIGH_MAX + " REAL NOT NULL, " +
+                StatsEntry.COLUMN_HIGH_MEAN + " REAL NOT NULL, " +
+                StatsEntry.COLUMN_HUMIDITY_MIN + " REAL NOT NULL, " +
+                StatsEntry.COLUMN_HUMIDITY_MAX + " REAL NOT NULL, " +
+                StatsEntry.COLUMN_HUMIDITY_MEAN + " REAL NOT NULL, " +
+                StatsEntry.COLUMN_PRESSURE_MIN + " REAL NOT NULL, " +
+                StatsEntry.COLUMN_PRESSURE_MAX + " REAL NOT NULL, " +
+                StatsEntry.COLUMN_PRESSURE_MEAN + " REAL NOT NULL, " +
+                StatsEntry.COLUMN_WIND_SPEED_MIN + " REAL NOT NULL, " +
+                StatsEntry.COLUMN_WIND_SPEED_MAX + " REAL NOT NULL, " +
+                StatsEntry.COLUMN_WIND_SPEED_MEAN + " REAL NOT NULL, " +
+                // Serves both the range reads and the per-location invalidation
+                " UNIQUE (" + StatsEntry.COLUMN_LOC_KEY + ", " +
+                StatsEntry.COLUMN_BUCKET + ", " +
+                StatsEntry.COLUMN_BUCKET_START + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_STATS_TABLE);
+    }
+
+    /**
+     * Creates the table of the 3-hour forecast.  A row holds all of a location-day's slots,
+     * packed by {@link HourlySlots}, so a five day forecast is a handful of rows per location
+     * rather than forty.
+     */
+    static void createHourlyTable(SQLiteDatabase sqLiteDatabase) {
+        final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry._ID + " INTEGER PRIMARY KEY," +
+                HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_SLOTS + " BLOB NOT NULL, " +
+                " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                // A sync replaces each day it fetched.  Location first, so the index also
+                // serves reads for a location.
+                " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                HourlyEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+    }
+
+    private static void migrate(SQLiteDatabase sqLiteDatabase, int fromVersion, int toVersion) {
+        for (int version = fromVersion; version < toVersion; version++) {
+            MIGRATIONS[version - BASE_VERSION].migrate(sqLiteDatabase);
+        }
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        // Upgrade in place where we can, so users keep their forecasts across app updates.
+        // SQLiteOpenHelper runs this in a transaction, so a failed migration leaves the old
+        // database untouched.
+        if (oldVersion >= BASE_VERSION) {
+            migrate(sqLiteDatabase, oldVersion, newVersion);
+            return;
+        }
+        // This database is only a cache for online data, so for schemas older than the
+        // migrations the policy is to simply discard the data and start over
+        dropAndRecreate(sqLiteDatabase);
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // We can't know what a newer schema looks like, so start over
+        dropAndRecreate(sqLiteDatabase);
+    }
+
+    private void dropAndRecreate(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ArchiveEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + AggregateEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + StatsEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationIndex.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + CityEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + CityIndex.FTS_TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
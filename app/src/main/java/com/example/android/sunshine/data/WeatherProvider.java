@@ -17,25 +17,71 @@ package com.example.android.sunshine.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.text.format.Time;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    // Whether the database got the R*Tree or the fallback index, found on first use
+    private volatile Boolean mLocationRtree;
+    // Set once the bundled city list is known to be in the database
+    private volatile boolean mCitiesLoaded;
+
+    // Set to false to send every query to SQLite, e.g. when measuring the database itself
+    static final boolean QUERY_CACHE_ENABLED = true;
+    // Null when disabled or unsupported
+    private QueryCache mQueryCache;
+    // The notifications held back by the applyBatch running on this thread, if any
+    private final ThreadLocal<LinkedHashSet<Uri>> mBatchNotifications =
+            new ThreadLocal<LinkedHashSet<Uri>>();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int WEATHER_WITH_LOCATION_ID = 103;
+    static final int WEATHER_WITH_LOCATION_ID_AND_DATE = 104;
+    static final int WEATHER_STATS = 105;
     static final int LOCATION = 300;
+    static final int LOCATION_NEAR = 301;
+    static final int ARCHIVE = 400;
+    static final int ARCHIVE_WITH_LOCATION = 401;
+    static final int AGGREGATE = 500;
+    static final int AGGREGATE_WITH_LOCATION_AND_PERIOD = 501;
+    static final int HOURLY = 600;
+    static final int HOURLY_WITH_LOCATION = 601;
+    static final int HOURLY_WITH_LOCATION_AND_DATE = 602;
+    static final int CITY = 700;
+    static final int CITY_SEARCH = 701;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sArchiveByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sAggregateByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,25 +95,75 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        //weather_archive INNER JOIN location ON weather_archive.location_id = location._id
+        sArchiveByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sArchiveByLocationSettingQueryBuilder.setTables(
+                WeatherContract.ArchiveEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.ArchiveEntry.TABLE_NAME +
+                        "." + WeatherContract.ArchiveEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+
+        //weather_aggregate INNER JOIN location ON weather_aggregate.location_id = location._id
+        sAggregateByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sAggregateByLocationSettingQueryBuilder.setTables(
+                WeatherContract.AggregateEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.AggregateEntry.TABLE_NAME +
+                        "." + WeatherContract.AggregateEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //weather.location_id = ?
+    static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //weather.location_id = ? AND date >= ?
+    static final String sLocationIdWithStartDateSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    //weather.location_id = ? AND date = ?
+    static final String sLocationIdAndDaySelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    //location.location_setting = ? AND period = ?
+    static final String sLocationSettingAndPeriodSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.AggregateEntry.COLUMN_PERIOD + " = ? ";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -108,6 +204,195 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    // The id-addressed forms read weather alone; the (location_id, date) index serves them
+    private Cursor getWeatherByLocationId(Uri uri, String[] projection, String sortOrder) {
+        long locationId = WeatherContract.WeatherEntry.getLocationIdFromUri(uri);
+        long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+
+        String[] selectionArgs;
+        String selection;
+
+        if (startDate == 0) {
+            selection = sLocationIdSelection;
+            selectionArgs = new String[]{Long.toString(locationId)};
+        } else {
+            selection = sLocationIdWithStartDateSelection;
+            selectionArgs = new String[]{Long.toString(locationId), Long.toString(startDate)};
+        }
+
+        return mOpenHelper.getReadableDatabase().query(WeatherContract.WeatherEntry.TABLE_NAME,
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    private Cursor getWeatherByLocationIdAndDate(Uri uri, String[] projection, String sortOrder) {
+        long locationId = WeatherContract.WeatherEntry.getLocationIdFromUri(uri);
+        long date = WeatherContract.WeatherEntry.getDateFromLocationIdUri(uri);
+
+        return mOpenHelper.getReadableDatabase().query(WeatherContract.WeatherEntry.TABLE_NAME,
+                projection,
+                sLocationIdAndDaySelection,
+                new String[]{Long.toString(locationId), Long.toString(date)},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    // History reads go to the archive and aggregate tables and never touch weather
+    private Cursor getArchiveByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.ArchiveEntry.getLocationSettingFromUri(uri);
+
+        return sArchiveByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingSelection,
+                new String[]{locationSetting},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    private Cursor getAggregateByLocationSettingAndPeriod(
+            Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.AggregateEntry.getLocationSettingFromUri(uri);
+        String period = WeatherContract.AggregateEntry.getPeriodFromUri(uri);
+
+        return sAggregateByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingAndPeriodSelection,
+                new String[]{locationSetting, period},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    // The hourly table shares the weather table's date column name, so the weather selections
+    // serve it too
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long startDate = WeatherContract.HourlyEntry.getStartDateFromUri(uri);
+
+        String[] selectionArgs;
+        String selection;
+
+        if (startDate == 0) {
+            selection = sLocationSettingSelection;
+            selectionArgs = new String[]{locationSetting};
+        } else {
+            selection = sLocationSettingWithStartDateSelection;
+            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
+        }
+
+        return sHourlyByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    private Cursor getHourlyByLocationSettingAndDate(
+            Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long date = WeatherContract.HourlyEntry.getDateFromUri(uri);
+
+        return sHourlyByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingAndDaySelection,
+                new String[]{locationSetting, Long.toString(date)},
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    private Cursor getWeatherStats(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.StatsEntry.getLocationSettingFromUri(uri);
+        // Materializing writes, so this needs the writable database
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+
+        // An unknown location has no weather, so it gets no buckets
+        return WeatherStats.query(db,
+                getLocationId(db, locationSetting),
+                WeatherContract.StatsEntry.getBucketFromUri(uri),
+                WeatherContract.StatsEntry.getFromDateFromUri(uri),
+                WeatherContract.StatsEntry.getToDateFromUri(uri),
+                projection,
+                sortOrder
+        );
+    }
+
+    private Cursor getLocationsNear(Uri uri, String[] projection) {
+        double latitude = WeatherContract.LocationEntry.getLatitudeFromUri(uri);
+        double longitude = WeatherContract.LocationEntry.getLongitudeFromUri(uri);
+        if (Double.isNaN(latitude) || Double.isInfinite(latitude)
+                || Double.isNaN(longitude) || Double.isInfinite(longitude)) {
+            throw new IllegalArgumentException("Invalid coordinates in " + uri);
+        }
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        Boolean rtree = mLocationRtree;
+        if (rtree == null) {
+            rtree = LocationIndex.hasRtree(db);
+            mLocationRtree = rtree;
+        }
+        return LocationIndex.queryNearest(db, rtree, latitude, longitude,
+                WeatherContract.LocationEntry.getCountFromUri(uri), projection);
+    }
+
+    private Cursor searchCities(Uri uri, String[] projection) {
+        if (!loadCities()) {
+            // An empty result would read as "no such city"
+            throw new IllegalStateException("The city index couldn't be loaded");
+        }
+        return CityIndex.search(mOpenHelper.getReadableDatabase(),
+                WeatherContract.CityEntry.getQueryFromUri(uri), projection,
+                WeatherContract.CityEntry.getLimitFromUri(uri));
+    }
+
+    /**
+     * Imports the bundled city list if this is the index's first use.
+     *
+     * @return true if the city table holds the cities.
+     */
+    private boolean loadCities() {
+        if (mCitiesLoaded) {
+            return true;
+        }
+        if (CityIndex.ensureLoaded(getContext(), mOpenHelper.getWritableDatabase())) {
+            mCitiesLoaded = true;
+            // Anything read before the import came back empty
+            invalidateCachedTable(QueryCache.TABLE_CITY);
+        }
+        return mCitiesLoaded;
+    }
+
+    /**
+     * @return the row id of the location with this setting, or -1 if there is none.
+     */
+    private static long getLocationId(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -126,10 +411,36 @@ public class WeatherProvider extends ContentProvider {
 
         // For each type of URI you want to add, create a corresponding code.
         matcher.addURI(authority, WeatherContract.PATH_WEATHER, WEATHER);
+        // UriMatcher tries paths in the order they were added, so these have to come before
+        // weather/* would claim "location_id" as a location setting
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/" +
+                WeatherContract.WeatherEntry.PATH_LOCATION_ID + "/#", WEATHER_WITH_LOCATION_ID);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/" +
+                WeatherContract.WeatherEntry.PATH_LOCATION_ID + "/#/#",
+                WEATHER_WITH_LOCATION_ID_AND_DATE);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/" +
+                WeatherContract.PATH_STATS, WEATHER_STATS);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_LOCATION + "/" +
+                WeatherContract.PATH_NEAR, LOCATION_NEAR);
+
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE, ARCHIVE);
+        matcher.addURI(authority, WeatherContract.PATH_ARCHIVE + "/*", ARCHIVE_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_AGGREGATE, AGGREGATE);
+        matcher.addURI(authority, WeatherContract.PATH_AGGREGATE + "/*/*",
+                AGGREGATE_WITH_LOCATION_AND_PERIOD);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*/#",
+                HOURLY_WITH_LOCATION_AND_DATE);
+
+        matcher.addURI(authority, WeatherContract.PATH_CITY, CITY);
+        matcher.addURI(authority, WeatherContract.PATH_CITY + "/" +
+                WeatherContract.PATH_SEARCH, CITY_SEARCH);
         return matcher;
     }
 
@@ -140,6 +451,9 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        if (QUERY_CACHE_ENABLED && QueryCache.isSupported()) {
+            mQueryCache = new QueryCache(QueryCache.DEFAULT_MAX_BYTES);
+        }
         return true;
     }
 
@@ -157,13 +471,32 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             // Student: Uncomment and fill out these two cases
             case WEATHER_WITH_LOCATION_AND_DATE:
+            case WEATHER_WITH_LOCATION_ID_AND_DATE:
                 return WeatherContract.WeatherEntry.CONTENT_ITEM_TYPE;
             case WEATHER_WITH_LOCATION:
+            case WEATHER_WITH_LOCATION_ID:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case WEATHER_STATS:
+                return WeatherContract.StatsEntry.CONTENT_TYPE;
             case LOCATION:
+            case LOCATION_NEAR:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case ARCHIVE:
+            case ARCHIVE_WITH_LOCATION:
+                return WeatherContract.ArchiveEntry.CONTENT_TYPE;
+            case AGGREGATE:
+            case AGGREGATE_WITH_LOCATION_AND_PERIOD:
+                return WeatherContract.AggregateEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case HOURLY_WITH_LOCATION_AND_DATE:
+                return WeatherContract.HourlyEntry.CONTENT_ITEM_TYPE;
+            case CITY:
+            case CITY_SEARCH:
+                return WeatherContract.CityEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,10 +505,25 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+        String cacheKey = null;
+        long cacheGeneration = 0;
+        if (mQueryCache != null && match != UriMatcher.NO_MATCH) {
+            cacheKey = QueryCache.buildKey(
+                    uri.toString(), projection, selection, selectionArgs, sortOrder);
+            Cursor cached = mQueryCache.get(cacheKey);
+            if (cached != null) {
+                cached.setNotificationUri(getContext().getContentResolver(),
+                        getNotificationUri(match, uri));
+                return cached;
+            }
+            cacheGeneration = mQueryCache.getGeneration();
+        }
+
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
@@ -187,6 +535,21 @@ public class WeatherProvider extends ContentProvider {
                 retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
                 break;
             }
+            // "weather/*/stats"
+            case WEATHER_STATS: {
+                retCursor = getWeatherStats(uri, projection, sortOrder);
+                break;
+            }
+            // "weather/location_id/#/#"
+            case WEATHER_WITH_LOCATION_ID_AND_DATE: {
+                retCursor = getWeatherByLocationIdAndDate(uri, projection, sortOrder);
+                break;
+            }
+            // "weather/location_id/#"
+            case WEATHER_WITH_LOCATION_ID: {
+                retCursor = getWeatherByLocationId(uri, projection, sortOrder);
+                break;
+            }
             // "weather"
             case WEATHER: {
                 retCursor = mOpenHelper.getReadableDatabase().query(
@@ -213,14 +576,257 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "location/near"
+            case LOCATION_NEAR: {
+                retCursor = getLocationsNear(uri, projection);
+                break;
+            }
+            // "archive/*"
+            case ARCHIVE_WITH_LOCATION: {
+                retCursor = getArchiveByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "archive"
+            case ARCHIVE: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.ArchiveEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "aggregate/*/*"
+            case AGGREGATE_WITH_LOCATION_AND_PERIOD: {
+                retCursor = getAggregateByLocationSettingAndPeriod(uri, projection, sortOrder);
+                break;
+            }
+            // "aggregate"
+            case AGGREGATE: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.AggregateEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "hourly/*/#"
+            case HOURLY_WITH_LOCATION_AND_DATE: {
+                retCursor = getHourlyByLocationSettingAndDate(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "city/search"
+            case CITY_SEARCH: {
+                retCursor = searchCities(uri, projection);
+                break;
+            }
+            // "city"
+            case CITY: {
+                loadCities();
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.CityEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        if (cacheKey != null) {
+            retCursor = mQueryCache.put(cacheKey, retCursor, getTablesRead(match),
+                    getLocationSettingRead(match, uri), cacheGeneration);
+        }
+        retCursor.setNotificationUri(getContext().getContentResolver(),
+                getNotificationUri(match, uri));
         return retCursor;
     }
 
+    /**
+     * Statistics are watched through the location's forecast URI, which every change to one
+     * of its days notifies; nothing ever notifies the stats URI itself.
+     */
+    private static Uri getNotificationUri(int match, Uri uri) {
+        if (match == WEATHER_STATS) {
+            return WeatherContract.WeatherEntry.buildWeatherLocation(
+                    WeatherContract.StatsEntry.getLocationSettingFromUri(uri));
+        }
+        return uri;
+    }
+
+    private static int getTablesWritten(int match) {
+        switch (match) {
+            case LOCATION:
+                return QueryCache.TABLE_LOCATION;
+            case ARCHIVE:
+            case ARCHIVE_WITH_LOCATION:
+            case AGGREGATE:
+            case AGGREGATE_WITH_LOCATION_AND_PERIOD:
+                return QueryCache.TABLE_HISTORY;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+            case HOURLY_WITH_LOCATION_AND_DATE:
+                return QueryCache.TABLE_HOURLY;
+            default:
+                return QueryCache.TABLE_WEATHER;
+        }
+    }
+
+    private static int getTablesRead(int match) {
+        switch (match) {
+            case WEATHER:
+            case WEATHER_WITH_LOCATION_ID:
+            case WEATHER_WITH_LOCATION_ID_AND_DATE:
+                return QueryCache.TABLE_WEATHER;
+            case LOCATION:
+            case LOCATION_NEAR:
+                return QueryCache.TABLE_LOCATION;
+            case ARCHIVE:
+            case AGGREGATE:
+                return QueryCache.TABLE_HISTORY;
+            case ARCHIVE_WITH_LOCATION:
+            case AGGREGATE_WITH_LOCATION_AND_PERIOD:
+                return QueryCache.TABLE_HISTORY | QueryCache.TABLE_LOCATION;
+            case HOURLY:
+                return QueryCache.TABLE_HOURLY;
+            case HOURLY_WITH_LOCATION:
+            case HOURLY_WITH_LOCATION_AND_DATE:
+                return QueryCache.TABLE_HOURLY | QueryCache.TABLE_LOCATION;
+            case CITY:
+            case CITY_SEARCH:
+                return QueryCache.TABLE_CITY;
+            default:
+                return QueryCache.TABLE_WEATHER | QueryCache.TABLE_LOCATION;
+        }
+    }
+
+    /**
+     * @return the location setting a query is restricted to, or null if it could read any.
+     */
+    private String getLocationSettingRead(int match, Uri uri) {
+        switch (match) {
+            case WEATHER_WITH_LOCATION:
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+            case WEATHER_STATS:
+                return WeatherContract.StatsEntry.getLocationSettingFromUri(uri);
+            case ARCHIVE_WITH_LOCATION:
+                return WeatherContract.ArchiveEntry.getLocationSettingFromUri(uri);
+            case AGGREGATE_WITH_LOCATION_AND_PERIOD:
+                return WeatherContract.AggregateEntry.getLocationSettingFromUri(uri);
+            case HOURLY_WITH_LOCATION:
+            case HOURLY_WITH_LOCATION_AND_DATE:
+                return WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+            case WEATHER_WITH_LOCATION_ID:
+            case WEATHER_WITH_LOCATION_ID_AND_DATE: {
+                long locationId = WeatherContract.WeatherEntry.getLocationIdFromUri(uri);
+                String locationSetting = LocationIdCache.getLocationSetting(locationId);
+                if (locationSetting == null) {
+                    locationSetting = getLocationSettings(mOpenHelper.getReadableDatabase(),
+                            Collections.singleton(locationId)).get(locationId);
+                }
+                // Weather rows for an unknown location are invalidated with the whole table
+                return locationSetting;
+            }
+            default:
+                return null;
+        }
+    }
+
+    /*
+        The query cache is invalidated as narrowly as each write allows: weather writes find
+        out which locations they touched, while location updates and deletes take arbitrary
+        selections, so they drop everything that read the table.
+     */
+    private void invalidateCachedLocations(int table, Collection<String> locationSettings) {
+        if (mQueryCache != null) {
+            mQueryCache.invalidateLocations(table, locationSettings);
+        }
+    }
+
+    private void invalidateCachedTable(int table) {
+        if (mQueryCache != null) {
+            mQueryCache.invalidateTable(table);
+        }
+    }
+
+    /**
+     * @return location row id -> location setting, for the ids that exist.
+     */
+    private static Map<Long, String> getLocationSettings(SQLiteDatabase db,
+                                                         Collection<Long> locationIds) {
+        HashMap<Long, String> settings = new HashMap<Long, String>();
+        for (Long locationId : locationIds) {
+            if (locationId == null) {
+                continue;
+            }
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                    WeatherContract.LocationEntry._ID + " = ?",
+                    new String[]{Long.toString(locationId)},
+                    null,
+                    null,
+                    null);
+            try {
+                if (cursor.moveToFirst()) {
+                    settings.put(locationId, cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Answers {@link WeatherContract#METHOD_QUERY_CACHE_STATS} with the query cache's
+     * counters, or null if the cache is off, and {@link WeatherContract#METHOD_CLEAR_QUERY_CACHE}.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_QUERY_CACHE_STATS.equals(method)) {
+            return mQueryCache == null ? null : mQueryCache.getStats();
+        }
+        if (WeatherContract.METHOD_CLEAR_QUERY_CACHE.equals(method)) {
+            if (mQueryCache != null) {
+                mQueryCache.clear();
+            }
+            LocationIdCache.clear();
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
@@ -238,6 +844,10 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                HashMap<Long, TreeSet<Long>> changedDays = new HashMap<Long, TreeSet<Long>>();
+                addDay(changedDays, values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                        values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+                onWeatherChanged(db, changedDays);
                 break;
             }
             case LOCATION: {
@@ -246,12 +856,28 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                String locationSetting =
+                        values.getAsString(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                LocationIdCache.put(locationSetting, _id);
+                invalidateCachedLocations(QueryCache.TABLE_LOCATION,
+                        Collections.singleton(locationSetting));
+                notifyChange(uri);
+                break;
+            }
+            case HOURLY: {
+                normalizeDate(values);
+                long _id = db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = WeatherContract.HourlyEntry.buildHourlyUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                onHourlyChanged(db, Collections.singleton(
+                        values.getAsLong(WeatherContract.HourlyEntry.COLUMN_LOC_KEY)));
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
         return returnUri;
     }
 
@@ -260,32 +886,108 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
+        // Deleting everything is the one weather delete that needn't find out which days go
+        final boolean deleteAll = null == selection;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+                if (WeatherContract.WeatherEntry.isArchivingUri(uri)) {
+                    return archiveWeather(db, selection, selectionArgs);
+                }
+                if (deleteAll) {
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                }
+                HashMap<Long, TreeSet<Long>> changedDays;
+                db.beginTransaction();
+                try {
+                    changedDays = getWeatherDays(db, selection, selectionArgs);
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsDeleted != 0) {
+                    onWeatherChanged(db, changedDays);
+                }
+                return rowsDeleted;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case ARCHIVE:
+                rowsDeleted = db.delete(
+                        WeatherContract.ArchiveEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case AGGREGATE:
+                rowsDeleted = db.delete(
+                        WeatherContract.AggregateEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case HOURLY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (match == LOCATION) {
+                LocationIdCache.clear();
+            }
+            if (match == WEATHER || match == LOCATION) {
+                // A deleted location's id may be handed out again
+                WeatherStats.invalidateAll(db);
+            }
+            invalidateCachedTable(getTablesWritten(match));
+            notifyChange(uri);
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * The archiving form of delete: see {@link WeatherArchive}.  The archived days are
+     * notified like any other deleted days, and each of their locations' history is notified
+     * too, since the rows moved there.
+     */
+    private int archiveWeather(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        HashMap<Long, TreeSet<Long>> archivedDays = new HashMap<Long, TreeSet<Long>>();
+        int rowsDeleted = WeatherArchive.archive(db, selection, selectionArgs, archivedDays);
+        if (rowsDeleted != 0) {
+            Map<Long, String> locationSettings = onWeatherChanged(db, archivedDays);
+            invalidateCachedTable(QueryCache.TABLE_HISTORY);
+            if (locationSettings.size() < archivedDays.size()) {
+                notifyChange(WeatherContract.ArchiveEntry.CONTENT_URI);
+                notifyChange(WeatherContract.AggregateEntry.CONTENT_URI);
+            } else {
+                for (String locationSetting : locationSettings.values()) {
+                    notifyChange(WeatherContract.ArchiveEntry.buildArchiveLocation(
+                            locationSetting));
+                    notifyChange(WeatherContract.AggregateEntry.buildAggregateLocation(
+                            locationSetting, WeatherContract.AggregateEntry.PERIOD_WEEK));
+                    notifyChange(WeatherContract.AggregateEntry.buildAggregateLocation(
+                            locationSetting, WeatherContract.AggregateEntry.PERIOD_MONTH));
+                }
+            }
         }
         return rowsDeleted;
     }
 
     private void normalizeDate(ContentValues values) {
+        normalizeDate(values, new Time());
+    }
+
+    private void normalizeDate(ContentValues values, Time scratch) {
         // normalize the date value
-        if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
-            long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+        Long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (dateValue != null) {
+            long normalized = WeatherContract.normalizeDate(dateValue, scratch);
+            if (normalized != dateValue) {
+                values.put(WeatherContract.WeatherEntry.COLUMN_DATE, normalized);
+            }
         }
     }
 
@@ -299,9 +1001,21 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
+                HashMap<Long, TreeSet<Long>> changedDays;
+                db.beginTransaction();
+                try {
+                    changedDays = getWeatherDays(db, selection, selectionArgs);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsUpdated != 0) {
+                    addMovedDays(changedDays, values);
+                    onWeatherChanged(db, changedDays);
+                }
+                return rowsUpdated;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
@@ -310,36 +1024,396 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            LocationIdCache.clear();
+            invalidateCachedTable(getTablesWritten(match));
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
+    /*
+        Both tables take bulk inserts through a CompiledInserter inside one transaction, so a
+        sync's rows cost one compiled INSERT and a bind per row instead of building and
+        compiling SQL for each, and observers hear about the batch once.
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        int returnCount;
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
+                if (WeatherContract.WeatherEntry.isDiffUri(uri)) {
+                    return diffInsertWeather(db, values);
+                }
+                returnCount = insertAll(db, WeatherContract.WeatherEntry.TABLE_NAME, values, true);
+                break;
+            case LOCATION:
+                returnCount = insertAll(db, WeatherContract.LocationEntry.TABLE_NAME, values, false);
+                break;
+            case HOURLY:
+                returnCount = insertAll(db, WeatherContract.HourlyEntry.TABLE_NAME, values, true);
+                if (returnCount > 0) {
+                    HashSet<Long> locationIds = new HashSet<Long>();
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
+                        locationIds.add(
+                                value.getAsLong(WeatherContract.HourlyEntry.COLUMN_LOC_KEY));
                     }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+                    onHourlyChanged(db, locationIds);
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
+        if (returnCount > 0) {
+            if (match == WEATHER) {
+                // insertAll normalized the dates in place
+                HashMap<Long, TreeSet<Long>> changedDays = new HashMap<Long, TreeSet<Long>>();
+                for (ContentValues value : values) {
+                    addDay(changedDays,
+                            value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                            value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+                }
+                onWeatherChanged(db, changedDays);
+            } else {
+                HashSet<String> locationSettings = new HashSet<String>();
+                for (ContentValues value : values) {
+                    String locationSetting = value.getAsString(
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                    locationSettings.add(locationSetting);
+                    // Resolved again on the next lookup
+                    LocationIdCache.remove(locationSetting);
+                }
+                invalidateCachedLocations(QueryCache.TABLE_LOCATION, locationSettings);
+                notifyChange(uri);
+            }
+        }
+        return returnCount;
+    }
+
+    private int insertAll(SQLiteDatabase db, String table, ContentValues[] values,
+                          boolean normalizeDates) {
+        int returnCount = 0;
+        Time scratch = new Time();
+        CompiledInserter inserter = new CompiledInserter(db, table);
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (normalizeDates) {
+                    normalizeDate(value, scratch);
+                }
+                if (inserter.insert(value) != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    /**
+     * The diffing form of bulkInsert.  Each row is compared with the stored row for the same
+     * (location_id, date), which the UNIQUE constraint indexes, and only written if a column
+     * differs.  Notifications go out per changed day, so observers of other locations and
+     * days are left alone, and nothing is notified if nothing changed.
+     *
+     * @return the number of rows written; the rest were skipped as unchanged.
+     */
+    private int diffInsertWeather(SQLiteDatabase db, ContentValues[] values) {
+        // location_id -> the dates written for it
+        HashMap<Long, TreeSet<Long>> changedDates = new HashMap<Long, TreeSet<Long>>();
+        int changedCount = 0;
+        Time scratch = new Time();
+        CompiledInserter inserter =
+                new CompiledInserter(db, WeatherContract.WeatherEntry.TABLE_NAME);
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                normalizeDate(value, scratch);
+                Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (locationId != null && date != null
+                        && matchesStoredWeather(db, value, locationId, date)) {
+                    continue;
+                }
+                long _id = inserter.insert(value);
+                if (_id != -1) {
+                    changedCount++;
+                    addDay(changedDates, locationId, date);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            inserter.close();
+            db.endTransaction();
+        }
+        if (changedCount > 0) {
+            onWeatherChanged(db, changedDates);
+        }
+        return changedCount;
+    }
+
+    /**
+     * Records that a location's weather changed on a date.  A null date, or a null location,
+     * means the change can't be pinned down that far.
+     */
+    private static void addDay(HashMap<Long, TreeSet<Long>> days, Long locationId, Long date) {
+        TreeSet<Long> dates = days.get(locationId);
+        if (dates == null) {
+            dates = new TreeSet<Long>();
+            days.put(locationId, dates);
+        }
+        if (date != null) {
+            dates.add(date);
+        }
+    }
+
+    /**
+     * @return location_id -> dates of the weather rows a selection matches.  Run in the same
+     * transaction as the write it is for.
+     */
+    private static HashMap<Long, TreeSet<Long>> getWeatherDays(SQLiteDatabase db,
+                                                               String selection,
+                                                               String[] selectionArgs) {
+        HashMap<Long, TreeSet<Long>> days = new HashMap<Long, TreeSet<Long>>();
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                selection,
+                selectionArgs,
+                null,
+                null,
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                addDay(days, cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return days;
+    }
+
+    /**
+     * An update that sets the location or the date moves rows, so their new days changed too.
+     */
+    private static void addMovedDays(HashMap<Long, TreeSet<Long>> days, ContentValues values) {
+        Long newLocationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long newDate = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (newLocationId == null && newDate == null) {
+            return;
+        }
+        HashMap<Long, TreeSet<Long>> moved = new HashMap<Long, TreeSet<Long>>();
+        for (Map.Entry<Long, TreeSet<Long>> entry : days.entrySet()) {
+            Long locationId = newLocationId != null ? newLocationId : entry.getKey();
+            for (Long date : entry.getValue()) {
+                addDay(moved, locationId, newDate != null ? newDate : date);
+            }
+        }
+        for (Map.Entry<Long, TreeSet<Long>> entry : moved.entrySet()) {
+            for (Long date : entry.getValue()) {
+                addDay(days, entry.getKey(), date);
+            }
+        }
+    }
+
+    /**
+     * Drops the statistics and cached queries of the locations whose weather changed, and
+     * notifies the changed days.
+     *
+     * @return location row id -> location setting, for the changed locations that exist.
+     */
+    private Map<Long, String> onWeatherChanged(SQLiteDatabase db,
+                                               HashMap<Long, TreeSet<Long>> changedDays) {
+        WeatherStats.invalidate(db, changedDays.keySet());
+        Map<Long, String> locationSettings = getLocationSettings(db, changedDays.keySet());
+        if (mQueryCache != null) {
+            if (locationSettings.size() < changedDays.size()) {
+                mQueryCache.invalidateTable(QueryCache.TABLE_WEATHER);
+            } else {
+                mQueryCache.invalidateLocations(
+                        QueryCache.TABLE_WEATHER, locationSettings.values());
+            }
+        }
+        notifyChangedDays(locationSettings, changedDays);
+        return locationSettings;
+    }
+
+    private boolean matchesStoredWeather(SQLiteDatabase db, ContentValues value,
+                                         long locationId, long date) {
+        String[] columns = value.keySet().toArray(new String[value.size()]);
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                columns,
+                sLocationIdAndDaySelection,
+                new String[]{Long.toString(locationId), Long.toString(date)},
+                null,
+                null,
+                null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return false;
+            }
+            for (int i = 0; i < columns.length; i++) {
+                if (!columnMatches(cursor, i, value.get(columns[i]))) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static boolean columnMatches(Cursor cursor, int index, Object expected) {
+        if (expected == null) {
+            return cursor.isNull(index);
+        }
+        if (cursor.isNull(index)) {
+            return false;
+        }
+        if (expected instanceof Double || expected instanceof Float) {
+            return cursor.getDouble(index) == ((Number) expected).doubleValue();
+        }
+        if (expected instanceof Number) {
+            // Integers put into REAL columns come back as e.g. 75.0, so compare as doubles
+            return cursor.getDouble(index) == ((Number) expected).longValue();
+        }
+        if (expected instanceof Boolean) {
+            return cursor.getLong(index) == ((Boolean) expected ? 1 : 0);
+        }
+        if (expected instanceof byte[]) {
+            return Arrays.equals(cursor.getBlob(index), (byte[]) expected);
+        }
+        return expected.toString().equals(cursor.getString(index));
+    }
+
+    /**
+     * Drops the cached hourly queries of these locations and notifies their hourly URIs.
+     * Hourly rows are replaced a whole location at a time by each sync, so there is nothing
+     * to gain from notifying them day by day.
+     */
+    private void onHourlyChanged(SQLiteDatabase db, Collection<Long> locationIds) {
+        Map<Long, String> locationSettings = getLocationSettings(db, locationIds);
+        if (locationSettings.size() < locationIds.size()) {
+            invalidateCachedTable(QueryCache.TABLE_HOURLY);
+            notifyChange(WeatherContract.HourlyEntry.CONTENT_URI);
+            return;
+        }
+        invalidateCachedLocations(QueryCache.TABLE_HOURLY, locationSettings.values());
+        for (String locationSetting : locationSettings.values()) {
+            notifyChange(WeatherContract.HourlyEntry.buildHourlyLocation(locationSetting));
+        }
+    }
+
+    /**
+     * Notifies weather/[location setting]/[date] for every changed day.  Observers of the
+     * location's whole forecast are registered on an ancestor of those URIs, so they hear it
+     * too, while observers of other days and locations don't.
+     */
+    private void notifyChangedDays(Map<Long, String> locationSettings,
+                                   HashMap<Long, TreeSet<Long>> changedDates) {
+        for (Map.Entry<Long, TreeSet<Long>> entry : changedDates.entrySet()) {
+            String locationSetting = locationSettings.get(entry.getKey());
+            if (locationSetting == null || entry.getValue().isEmpty()) {
+                // Can't be more precise than the whole table
+                notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+                continue;
+            }
+            for (long date : entry.getValue()) {
+                notifyChange(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        locationSetting, date));
+                // and the same day under the id-addressed form
+                notifyChange(WeatherContract.WeatherEntry.buildWeatherLocationIdWithDate(
+                        entry.getKey(), date));
+            }
+        }
+    }
+
+    /**
+     * Notifies observers of a change, or, during {@link #applyBatch}, holds the notification
+     * until the batch commits.
+     */
+    private void notifyChange(Uri uri) {
+        LinkedHashSet<Uri> pending = mBatchNotifications.get();
+        if (pending != null) {
+            // Observers don't see query parameters, so neither does the deduplication
+            pending.add(uri.buildUpon().query(null).build());
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /*
+        Runs the whole batch in one transaction, so it costs one commit (and one WAL sync)
+        rather than one per operation, and either all of it lands or none of it does.  Each
+        operation's notifications are held back and sent once the batch commits: one per
+        distinct URI, skipping URIs whose ancestor is notified anyway, since that reaches their
+        observers too.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        if (mBatchNotifications.get() != null) {
+            // Already inside a batch on this thread; its transaction covers this one
+            return super.applyBatch(operations);
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        LinkedHashSet<Uri> pending = new LinkedHashSet<Uri>();
+        ContentProviderResult[] results;
+        boolean committed = false;
+        mBatchNotifications.set(pending);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+            mBatchNotifications.remove();
+            if (!committed) {
+                // Ids the operations recorded may belong to rows that were rolled back
+                LocationIdCache.clear();
+            }
+        }
+        flushBatchNotifications(pending);
+        return results;
+    }
+
+    private void flushBatchNotifications(LinkedHashSet<Uri> pending) {
+        // The operations invalidated the query cache before they committed, so a concurrent
+        // reader could have cached what was there before.  Invalidate again now that it's in.
+        int tables = 0;
+        for (Uri uri : pending) {
+            int match = sUriMatcher.match(uri);
+            if (match != UriMatcher.NO_MATCH) {
+                tables |= getTablesWritten(match);
+            }
+        }
+        if (tables != 0) {
+            invalidateCachedTable(tables);
+        }
+
+        ContentResolver resolver = getContext().getContentResolver();
+        for (Uri uri : pending) {
+            if (!hasAncestorIn(pending, uri)) {
+                resolver.notifyChange(uri, null);
+            }
+        }
+    }
+
+    private static boolean hasAncestorIn(Set<Uri> uris, Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        Uri.Builder ancestor = uri.buildUpon().path(null);
+        for (int i = 0; i < segments.size() - 1; i++) {
+            ancestor.appendPath(segments.get(i));
+            if (uris.contains(ancestor.build())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     // You do not need to call this method. This is a method specifically to assist the testing
@@ -348,6 +1422,10 @@ public class WeatherProvider extends ContentProvider {
     @Override
     @TargetApi(11)
     public void shutdown() {
+        if (mQueryCache != null) {
+            mQueryCache.clear();
+        }
+        LocationIdCache.clear();
         mOpenHelper.close();
         super.shutdown();
     }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.data.WeatherContract.StatsEntry;
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import java.util.Collection;
+
+/**
+ * Computes per-day, per-week and per-month statistics of a location's forecast in SQLite.
+ *
+ * A location's buckets of one kind are computed together by a single GROUP BY over its
+ * forecast, the first time any range of them is asked for, and stored in
+ * {@link StatsEntry#TABLE_NAME}.  Later reads, over any range, are range scans of that table.
+ * The provider drops a location's statistics whenever its weather is written, so the next read
+ * computes them again.
+ */
+final class WeatherStats {
+
+    // SQLite's date functions do the bucketing.  Dates are local midnights in milliseconds, as
+    // normalizeDate makes them, so each expression goes to local time, moves to the start of
+    // the bucket, and comes back to UTC milliseconds.
+    private static final String LOCAL_DATE =
+            WeatherEntry.COLUMN_DATE + " / 1000, 'unixepoch', 'localtime'";
+    // Back six days, then forward to the next Monday: the Monday on or before the date
+    private static final String WEEK_START = "CAST(strftime('%s', " + LOCAL_DATE +
+            ", '-6 days', 'weekday 1', 'start of day', 'utc') AS INTEGER) * 1000";
+    private static final String MONTH_START = "CAST(strftime('%s', " + LOCAL_DATE +
+            ", 'start of month', 'utc') AS INTEGER) * 1000";
+
+    private static final String INSERT_COLUMNS = StatsEntry.COLUMN_LOC_KEY + ", " +
+            StatsEntry.COLUMN_BUCKET + ", " +
+            StatsEntry.COLUMN_BUCKET_START + ", " +
+            StatsEntry.COLUMN_COUNT + ", " +
+            StatsEntry.COLUMN_LOW_MIN + ", " +
+            StatsEntry.COLUMN_LOW_MAX + ", " +
+            StatsEntry.COLUMN_LOW_MEAN + ", " +
+            StatsEntry.COLUMN_HIGH_MIN + ", " +
+            StatsEntry.COLUMN_HIGH_MAX + ", " +
+            StatsEntry.COLUMN_HIGH_MEAN + ", " +
+            StatsEntry.COLUMN_HUMIDITY_MIN + ", " +
+            StatsEntry.COLUMN_HUMIDITY_MAX + ", " +
+            StatsEntry.COLUMN_HUMIDITY_MEAN + ", " +
+            StatsEntry.COLUMN_PRESSURE_MIN + ", " +
+            StatsEntry.COLUMN_PRESSURE_MAX + ", " +
+            StatsEntry.COLUMN_PRESSURE_MEAN + ", " +
+            StatsEntry.COLUMN_WIND_SPEED_MIN + ", " +
+            StatsEntry.COLUMN_WIND_SPEED_MAX + ", " +
+            StatsEntry.COLUMN_WIND_SPEED_MEAN;
+
+    private static final String AGGREGATES = "COUNT(*), " +
+            minMaxMean(WeatherEntry.COLUMN_MIN_TEMP) + ", " +
+            minMaxMean(WeatherEntry.COLUMN_MAX_TEMP) + ", " +
+            minMaxMean(WeatherEntry.COLUMN_HUMIDITY) + ", " +
+            minMaxMean(WeatherEntry.COLUMN_PRESSURE) + ", " +
+            minMaxMean(WeatherEntry.COLUMN_WIND_SPEED);
+
+    //location_id = ? AND bucket = ?
+    private static final String sBucketSelection =
+            StatsEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    StatsEntry.COLUMN_BUCKET + " = ? ";
+
+    //location_id = ? AND bucket = ? AND bucket_start >= ? AND bucket_start <= ?
+    static final String sBucketRangeSelection =
+            StatsEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    StatsEntry.COLUMN_BUCKET + " = ? AND " +
+                    StatsEntry.COLUMN_BUCKET_START + " >= ? AND " +
+                    StatsEntry.COLUMN_BUCKET_START + " <= ? ";
+
+    private WeatherStats() {
+    }
+
+    private static String minMaxMean(String column) {
+        return "MIN(" + column + "), MAX(" + column + "), AVG(" + column + ")";
+    }
+
+    /**
+     * @return the SQL expression for the start of the bucket a weather row falls in, or null
+     * if the bucket isn't one of StatsEntry's BUCKET_ values.
+     */
+    static String getBucketStartExpression(String bucket) {
+        if (StatsEntry.BUCKET_DAY.equals(bucket)) {
+            return WeatherEntry.COLUMN_DATE;
+        } else if (StatsEntry.BUCKET_WEEK.equals(bucket)) {
+            return WEEK_START;
+        } else if (StatsEntry.BUCKET_MONTH.equals(bucket)) {
+            return MONTH_START;
+        }
+        return null;
+    }
+
+    /**
+     * @return the start of the bucket that contains this date, matching what the SQL
+     * expressions compute.
+     */
+    static long getBucketStart(String bucket, long date) {
+        Time scratch = new Time();
+        if (StatsEntry.BUCKET_WEEK.equals(bucket)) {
+            return WeatherArchive.getWeekStart(date, scratch);
+        } else if (StatsEntry.BUCKET_MONTH.equals(bucket)) {
+            return WeatherArchive.getMonthStart(date, scratch);
+        }
+        return WeatherContract.normalizeDate(date, scratch);
+    }
+
+    /**
+     * Computes and stores a location's statistics for one kind of bucket, unless they are
+     * already stored.
+     *
+     * @return true if they had to be computed
+     */
+    static boolean materialize(SQLiteDatabase db, long locationId, String bucket) {
+        String bucketStart = getBucketStartExpression(bucket);
+        if (bucketStart == null) {
+            throw new IllegalArgumentException("Unknown bucket: " + bucket);
+        }
+        String[] args = new String[]{Long.toString(locationId), bucket};
+        // In a write transaction, so a concurrent write to the location's weather either
+        // happens first and is included, or happens after and drops what we store
+        db.beginTransaction();
+        try {
+            if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM " + StatsEntry.TABLE_NAME +
+                    " WHERE " + sBucketSelection, args) > 0) {
+                db.setTransactionSuccessful();
+                return false;
+            }
+            db.execSQL("INSERT INTO " + StatsEntry.TABLE_NAME + " (" + INSERT_COLUMNS + ")" +
+                            " SELECT " + WeatherEntry.COLUMN_LOC_KEY + ", ?, " + bucketStart +
+                            ", " + AGGREGATES +
+                            " FROM " + WeatherEntry.TABLE_NAME +
+                            " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ?" +
+                            " GROUP BY 3",
+                    new Object[]{bucket, locationId});
+            db.setTransactionSuccessful();
+            return true;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Reads a location's statistics for the buckets overlapping [from, to], computing them
+     * first if need be.
+     */
+    static Cursor query(SQLiteDatabase db, long locationId, String bucket, long from, long to,
+                        String[] projection, String sortOrder) {
+        materialize(db, locationId, bucket);
+        return db.query(StatsEntry.TABLE_NAME,
+                projection,
+                sBucketRangeSelection,
+                new String[]{Long.toString(locationId), bucket,
+                        Long.toString(getBucketStart(bucket, from)), Long.toString(to)},
+                null,
+                null,
+                sortOrder == null ? StatsEntry.COLUMN_BUCKET_START + " ASC" : sortOrder);
+    }
+
+    /**
+     * Drops the stored statistics of these locations.
+     */
+    static void invalidate(SQLiteDatabase db, Collection<Long> locationIds) {
+        for (Long locationId : locationIds) {
+            if (locationId == null) {
+                // Can't tell which location changed
+                invalidateAll(db);
+                return;
+            }
+            db.delete(StatsEntry.TABLE_NAME, StatsEntry.COLUMN_LOC_KEY + " = ?",
+                    new String[]{Long.toString(locationId)});
+        }
+    }
+
+    static void invalidateAll(SQLiteDatabase db) {
+        db.delete(StatsEntry.TABLE_NAME, null, null);
+    }
+}
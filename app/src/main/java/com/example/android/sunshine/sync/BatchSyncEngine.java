@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches and parses the forecasts for several locations in parallel.
+ *
+ * OpenWeatherMap has no grouped form of the daily forecast call (its "group" endpoint only
+ * returns current conditions), so every location is its own request.  Requests run on a small
+ * thread pool, and a semaphore per host keeps us from opening more than
+ * {@link #MAX_REQUESTS_PER_HOST} connections to the same server at once.
+ *
+ * Nothing is written here: results are handed back so the caller can persist all of them in
+ * one provider transaction.
+ *
+ * An engine fetches either the daily forecast or the 3-hour one.  Their responses are cached
+ * under different keys, so each is revalidated on its own, but both kinds can be fetched in
+ * the same round with {@link #fetchAll(BatchSyncEngine[], List, boolean)}.
+ */
+class BatchSyncEngine {
+    private static final String LOG_TAG = BatchSyncEngine.class.getSimpleName();
+
+    static final int MAX_REQUESTS_PER_HOST = 4;
+    private static final int MAX_THREADS = 8;
+    // Prefixed to the location query to make the response cache key of a 3-hour forecast
+    static final String HOURLY_CACHE_KEY_PREFIX = "hourly/";
+
+    /**
+     * Builds the request for a location query.
+     */
+    interface UrlFactory {
+        URL buildUrl(String locationQuery) throws IOException;
+    }
+
+    /**
+     * The outcome of fetching one location.
+     */
+    static final class LocationResult {
+        final String locationQuery;
+        @SunshineSyncAdapter.LocationStatus int status = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+        int fetchResult = -1;
+        ForecastJsonParser parser;
+        ForecastJsonParser.Forecast forecast;
+        // Set instead of forecast by an hourly engine
+        HourlyForecastJsonParser.Forecast hourly;
+        // Still open when fetchResult is RESULT_FETCHED; the caller commits and closes it
+        ForecastFetcher.Response response;
+
+        long queuedMillis;
+        // Wall time from taking a connection permit to having parsed rows
+        long fetchMillis;
+        long connectMillis;
+        long firstByteMillis;
+        // Time blocked reading the body, and the rest of the time spent consuming it
+        long downloadMillis;
+        long parseMillis;
+        long bytesReceived;
+
+        LocationResult(String locationQuery) {
+            this.locationQuery = locationQuery;
+        }
+
+        /**
+         * @return true if this result carries new rows to store.
+         */
+        boolean hasForecast() {
+            return forecast != null && forecast.isOk();
+        }
+
+        /**
+         * @return true if this result carries new hourly rows to store.
+         */
+        boolean hasHourly() {
+            return hourly != null && hourly.isOk();
+        }
+
+        @Override
+        public String toString() {
+            return locationQuery + ": status=" + status + " result=" + fetchResult
+                    + " rows=" + (hasForecast() ? forecast.days.size()
+                            : hasHourly() ? hourly.days.size() : 0)
+                    + " bytes=" + bytesReceived + " queued=" + queuedMillis
+                    + "ms fetch=" + fetchMillis + "ms connect=" + connectMillis
+                    + "ms ttfb=" + firstByteMillis + "ms download=" + downloadMillis
+                    + "ms parse=" + parseMillis + "ms";
+        }
+    }
+
+    private final ForecastFetcher mFetcher;
+    private final UrlFactory mUrlFactory;
+    private final boolean mStreaming;
+    private final int mMaxRequestsPerHost;
+    private final boolean mHourly;
+    private final HashMap<String, Semaphore> mHostPermits = new HashMap<String, Semaphore>();
+
+    BatchSyncEngine(ForecastFetcher fetcher, UrlFactory urlFactory, boolean streaming,
+                    int maxRequestsPerHost) {
+        this(fetcher, urlFactory, streaming, maxRequestsPerHost, false);
+    }
+
+    /**
+     * @param hourly true to parse the responses as 3-hour forecasts, into
+     *               {@link LocationResult#hourly}
+     */
+    BatchSyncEngine(ForecastFetcher fetcher, UrlFactory urlFactory, boolean streaming,
+                    int maxRequestsPerHost, boolean hourly) {
+        mFetcher = fetcher;
+        mUrlFactory = urlFactory;
+        mStreaming = streaming;
+        mMaxRequestsPerHost = maxRequestsPerHost;
+        mHourly = hourly;
+    }
+
+    /**
+     * Fetches every location and waits for all of them.  Results come back in the same order
+     * as the queries.
+     *
+     * @param allowFresh passed through to {@link ForecastFetcher#fetch}
+     */
+    List<LocationResult> fetchAll(List<String> locationQueries, boolean allowFresh) {
+        return fetchAll(new BatchSyncEngine[]{this}, locationQueries, allowFresh).get(0);
+    }
+
+    /**
+     * Fetches every location with each engine, all on one thread pool, and waits for all of
+     * them, so a sync that needs several kinds of forecast waits for one round of requests
+     * rather than one per kind.  The engines share the first one's connection limit per host.
+     *
+     * @return each engine's results, in the same order as the engines, each in the same order
+     * as the queries
+     */
+    static List<List<LocationResult>> fetchAll(BatchSyncEngine[] engines,
+                                               List<String> locationQueries,
+                                               final boolean allowFresh) {
+        final int count = locationQueries.size();
+        final HashMap<String, Semaphore> hostPermits = engines[0].mHostPermits;
+        ArrayList<List<LocationResult>> resultLists =
+                new ArrayList<List<LocationResult>>(engines.length);
+        ArrayList<LocationResult> all = new ArrayList<LocationResult>(engines.length * count);
+        ArrayList<BatchSyncEngine> allEngines =
+                new ArrayList<BatchSyncEngine>(engines.length * count);
+        for (BatchSyncEngine engine : engines) {
+            ArrayList<LocationResult> results = new ArrayList<LocationResult>(count);
+            for (String locationQuery : locationQueries) {
+                LocationResult result = new LocationResult(locationQuery);
+                results.add(result);
+                all.add(result);
+                allEngines.add(engine);
+            }
+            resultLists.add(results);
+        }
+        if (all.isEmpty()) {
+            return resultLists;
+        }
+
+        // A single request doesn't need a thread pool
+        if (all.size() == 1) {
+            allEngines.get(0).fetchOne(all.get(0), allowFresh, SystemClock.elapsedRealtime(),
+                    hostPermits);
+            return resultLists;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(all.size(), MAX_THREADS));
+        try {
+            ArrayList<Future<?>> futures = new ArrayList<Future<?>>(all.size());
+            final long submitted = SystemClock.elapsedRealtime();
+            for (int i = 0; i < all.size(); i++) {
+                final LocationResult result = all.get(i);
+                final BatchSyncEngine engine = allEngines.get(i);
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        engine.fetchOne(result, allowFresh, submitted, hostPermits);
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < all.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error fetching " + all.get(i).locationQuery, e.getCause());
+                    all.get(i).status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                } catch (InterruptedException e) {
+                    Log.e(LOG_TAG, "Interrupted waiting for " + all.get(i).locationQuery, e);
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            // After an interrupt, workers may still be filling in results and opening responses
+            // the caller has to close, so they have to be done before the results are handed
+            // over.  Requests in flight don't notice interrupts, but each ends on its own.
+            awaitTermination(executor);
+        }
+        return resultLists;
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                try {
+                    if (executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Semaphore permitsFor(HashMap<String, Semaphore> hostPermits, String host) {
+        synchronized (hostPermits) {
+            Semaphore permits = hostPermits.get(host);
+            if (permits == null) {
+                permits = new Semaphore(mMaxRequestsPerHost);
+                hostPermits.put(host, permits);
+            }
+            return permits;
+        }
+    }
+
+    private void fetchOne(LocationResult result, boolean allowFresh, long submitted,
+                          HashMap<String, Semaphore> hostPermits) {
+        Semaphore permits = null;
+        try {
+            URL url = mUrlFactory.buildUrl(result.locationQuery);
+            Semaphore hostLimit = permitsFor(hostPermits, url.getHost());
+            hostLimit.acquire();
+            // Only released once acquired: an interrupted acquire took nothing
+            permits = hostLimit;
+            long start = SystemClock.elapsedRealtime();
+            result.queuedMillis = start - submitted;
+
+            String cacheKey = mHourly
+                    ? HOURLY_CACHE_KEY_PREFIX + result.locationQuery
+                    : result.locationQuery;
+            ForecastFetcher.Response response = mFetcher.fetch(url, cacheKey, allowFresh);
+            result.fetchResult = response.result;
+            result.connectMillis = response.connectMillis;
+            result.firstByteMillis = response.firstByteMillis;
+            if (response.result != ForecastFetcher.RESULT_FETCHED) {
+                // What we have stored is still current
+                result.status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                result.fetchMillis = SystemClock.elapsedRealtime() - start;
+                return;
+            }
+            result.response = response;
+
+            long parseStart = SystemClock.elapsedRealtime();
+            ForecastJsonParser.Document document;
+            if (mHourly) {
+                HourlyForecastJsonParser parser = new HourlyForecastJsonParser();
+                if (mStreaming) {
+                    result.hourly = parser.parseStream(new BufferedInputStream(response.body));
+                } else {
+                    String forecastJsonStr = SunshineSyncAdapter.readFully(response.body);
+                    if (forecastJsonStr == null) {
+                        result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                        return;
+                    }
+                    result.hourly = parser.parseTree(forecastJsonStr);
+                }
+                document = result.hourly;
+            } else {
+                result.parser = new ForecastJsonParser(ForecastJsonParser.currentJulianStartDay());
+                if (mStreaming) {
+                    result.forecast =
+                            result.parser.parseStream(new BufferedInputStream(response.body));
+                } else {
+                    String forecastJsonStr = SunshineSyncAdapter.readFully(response.body);
+                    if (forecastJsonStr == null) {
+                        // Stream was empty.  No point in parsing.
+                        result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                        return;
+                    }
+                    result.forecast = result.parser.parseTree(forecastJsonStr);
+                }
+                document = result.forecast;
+            }
+            long end = SystemClock.elapsedRealtime();
+            result.bytesReceived = response.body.getBytesRead();
+            result.downloadMillis = response.body.getReadMillis();
+            result.parseMillis = Math.max(0, end - parseStart - result.downloadMillis);
+            result.fetchMillis = end - start;
+            result.status = SunshineSyncAdapter.statusForMessageCode(document.messageCode);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error fetching " + result.locationQuery, e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Error parsing " + result.locationQuery, e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Issues forecast requests through a {@link ForecastResponseCache}.  A fresh entry is answered
+ * without a request at all; a stale one is revalidated with If-None-Match / If-Modified-Since,
+ * and only a full 200 response hands a body back to the caller.
+ */
+class ForecastFetcher {
+    private static final String LOG_TAG = ForecastFetcher.class.getSimpleName();
+
+    // The stored forecast is still fresh, no request was made
+    static final int RESULT_FRESH = 0;
+    // The server answered 304 Not Modified
+    static final int RESULT_NOT_MODIFIED = 1;
+    // A full response body is available in Response.body
+    static final int RESULT_FETCHED = 2;
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private final ForecastResponseCache mCache;
+
+    ForecastFetcher(ForecastResponseCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * The outcome of one fetch.  For {@link #RESULT_FETCHED} the caller reads {@link #body}, and
+     * calls {@link #commit()} once the forecast has been stored so that the validators are only
+     * remembered for data that actually made it into the database.
+     */
+    final class Response {
+        final int result;
+        final MeteredInputStream body;
+        // Time to open the connection, then from sending the request to the response headers
+        long connectMillis;
+        long firstByteMillis;
+        private final HttpURLConnection mConnection;
+        private final String mCacheKey;
+        private final ForecastResponseCache.Entry mPendingEntry;
+
+        private Response(int result, HttpURLConnection connection, MeteredInputStream body,
+                         String cacheKey, ForecastResponseCache.Entry pendingEntry) {
+            this.result = result;
+            this.body = body;
+            mConnection = connection;
+            mCacheKey = cacheKey;
+            mPendingEntry = pendingEntry;
+        }
+
+        void commit() {
+            if (mPendingEntry != null) {
+                mCache.put(mCacheKey, mPendingEntry);
+            } else {
+                // The response can't be revalidated or reused, forget anything older
+                mCache.remove(mCacheKey);
+            }
+        }
+
+        void close() {
+            if (body != null) {
+                try {
+                    body.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+            if (mConnection != null) {
+                mConnection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * @param url          the forecast request
+     * @param cacheKey     the location query the response belongs to
+     * @param allowFresh   whether a still-fresh entry may be used without asking the server.
+     *                     Manual refreshes pass false so they always at least revalidate.
+     */
+    Response fetch(URL url, String cacheKey, boolean allowFresh) throws IOException {
+        final String urlString = url.toString();
+        ForecastResponseCache.Entry cached = mCache.get(cacheKey);
+        if (cached != null && !urlString.equals(cached.url)) {
+            cached = null;
+        }
+
+        long now = System.currentTimeMillis();
+        if (cached != null && allowFresh && cached.isFresh(now)) {
+            mCache.recordHit();
+            return new Response(RESULT_FRESH, null, null, cacheKey, null);
+        }
+
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        try {
+            urlConnection.setRequestMethod("GET");
+            // We do our own conditional requests; keep any installed HttpResponseCache out of it
+            urlConnection.setUseCaches(false);
+            if (cached != null && cached.canRevalidate()) {
+                if (cached.etag != null) {
+                    urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, cached.etag);
+                }
+                if (cached.lastModified != null) {
+                    urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, cached.lastModified);
+                }
+            }
+            long start = SystemClock.elapsedRealtime();
+            urlConnection.connect();
+            long connected = SystemClock.elapsedRealtime();
+            int responseCode = urlConnection.getResponseCode();
+            long firstByte = SystemClock.elapsedRealtime();
+
+            Response response;
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                ForecastResponseCache.Entry refreshed =
+                        entryFromHeaders(urlConnection, urlString, now, cached);
+                mCache.put(cacheKey, refreshed);
+                mCache.recordRevalidation();
+                urlConnection.disconnect();
+                response = new Response(RESULT_NOT_MODIFIED, null, null, cacheKey, null);
+            } else {
+                InputStream body = urlConnection.getInputStream();
+                mCache.recordMiss();
+                response = new Response(RESULT_FETCHED, urlConnection,
+                        new MeteredInputStream(body), cacheKey,
+                        entryFromHeaders(urlConnection, urlString, now, null));
+            }
+            response.connectMillis = connected - start;
+            response.firstByteMillis = firstByte - connected;
+            return response;
+        } catch (IOException | RuntimeException e) {
+            urlConnection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Builds the cache entry described by a response's headers, falling back to the previous
+     * entry's validators for a 304 that doesn't repeat them.
+     *
+     * @return the entry, or null if the response forbids storing it.
+     */
+    static ForecastResponseCache.Entry entryFromHeaders(HttpURLConnection urlConnection,
+                                                       String url, long now,
+                                                       ForecastResponseCache.Entry previous) {
+        String cacheControl = urlConnection.getHeaderField(HEADER_CACHE_CONTROL);
+        long maxAgeSeconds = -1;
+        boolean noCache = false;
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim();
+                if (directive.equalsIgnoreCase("no-store")) {
+                    return null;
+                } else if (directive.equalsIgnoreCase("no-cache")) {
+                    noCache = true;
+                } else if (directive.regionMatches(true, 0, "max-age=", 0, 8)) {
+                    try {
+                        maxAgeSeconds = Long.parseLong(directive.substring(8).trim());
+                    } catch (NumberFormatException e) {
+                        Log.w(LOG_TAG, "Ignoring malformed " + directive);
+                    }
+                }
+            }
+        }
+
+        long expiresAt;
+        if (noCache) {
+            expiresAt = 0;
+        } else if (maxAgeSeconds >= 0) {
+            expiresAt = now + maxAgeSeconds * 1000;
+        } else {
+            // getExpiration returns 0 when there is no (valid) Expires header
+            expiresAt = urlConnection.getExpiration();
+        }
+
+        String etag = urlConnection.getHeaderField(HEADER_ETAG);
+        String lastModified = urlConnection.getHeaderField(HEADER_LAST_MODIFIED);
+        if (previous != null) {
+            if (etag == null) etag = previous.etag;
+            if (lastModified == null) lastModified = previous.lastModified;
+        }
+
+        if (etag == null && lastModified == null && expiresAt <= now) {
+            // Nothing that would ever let us skip a download
+            return null;
+        }
+        return new ForecastResponseCache.Entry(url, etag, lastModified, expiresAt);
+    }
+
+    /**
+     * Counts the bytes read from a response body and the time spent blocked reading them, which
+     * separates download time from parse time when the parser pulls straight off the wire.
+     */
+    static final class MeteredInputStream extends FilterInputStream {
+        private long mBytes;
+        private long mReadNanos;
+
+        MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            mReadNanos += System.nanoTime() - start;
+            if (b >= 0) {
+                mBytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            int n = super.read(buffer, offset, count);
+            mReadNanos += System.nanoTime() - start;
+            if (n > 0) {
+                mBytes += n;
+            }
+            return n;
+        }
+
+        long getBytesRead() {
+            return mBytes;
+        }
+
+        long getReadMillis() {
+            return mReadNanos / 1000000;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+
+/**
+ * Turns an OpenWeatherMap daily forecast response into the weather rows we persist.
+ *
+ * There are two ways in: {@link #parseTree(String)} builds the whole org.json object tree from
+ * a String, and {@link #parseStream(InputStream)} pulls tokens straight off the connection with
+ * a {@link JsonReader}, so neither the raw document nor a tree of it is ever held in memory.
+ * Both produce identical rows.
+ */
+class ForecastJsonParser {
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * What every OpenWeatherMap forecast document carries besides its list: the status, and
+     * the city the list is for.
+     */
+    static class Document {
+        int messageCode = HttpURLConnection.HTTP_OK;
+        String cityName;
+        double cityLatitude;
+        double cityLongitude;
+
+        boolean isOk() {
+            return messageCode == HttpURLConnection.HTTP_OK;
+        }
+    }
+
+    /**
+     * The parsed contents of one forecast document.  Rows do not carry a location key yet, since
+     * that can only be resolved once the city has been seen.
+     */
+    static final class Forecast extends Document {
+        final ArrayList<ContentValues> days = new ArrayList<ContentValues>(16);
+    }
+
+    private final int mJulianStartDay;
+    // We work exclusively in UTC once we have the start day
+    private final Time mDayTime = new Time();
+
+    /**
+     * @param julianStartDay the Julian day of the first forecast entry.  OWM sends its data
+     *                       in-order starting with the current day, so every following entry is
+     *                       one day later.
+     */
+    ForecastJsonParser(int julianStartDay) {
+        mJulianStartDay = julianStartDay;
+    }
+
+    /**
+     * Computes the Julian day that the first entry of a forecast fetched now refers to.  OWM
+     * returns daily forecasts based upon the local time of the city that is being asked for, so
+     * we start at the day returned by local time.  Otherwise this is a mess.
+     */
+    static int currentJulianStartDay() {
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        return Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    }
+
+    /**
+     * Streaming is backed by {@link JsonReader}, which only exists on Honeycomb and higher.
+     */
+    static boolean isStreamingSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    Forecast parseTree(String forecastJsonStr) throws JSONException {
+        return parseTree(new JSONObject(forecastJsonStr));
+    }
+
+    Forecast parseTree(JSONObject forecastJson) throws JSONException {
+        Forecast forecast = new Forecast();
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            forecast.messageCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (!forecast.isOk()) {
+                return forecast;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+        readCity(forecastJson.getJSONObject(OWM_CITY), forecast);
+
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            forecast.days.add(buildWeatherValues(i,
+                    dayForecast.getDouble(OWM_PRESSURE),
+                    dayForecast.getInt(OWM_HUMIDITY),
+                    dayForecast.getDouble(OWM_WINDSPEED),
+                    dayForecast.getDouble(OWM_WIND_DIRECTION),
+                    temperatureObject.getDouble(OWM_MAX),
+                    temperatureObject.getDouble(OWM_MIN),
+                    weatherObject.getString(OWM_DESCRIPTION),
+                    weatherObject.getInt(OWM_WEATHER_ID)));
+        }
+        return forecast;
+    }
+
+    /**
+     * Parses a forecast directly from the response stream.  The caller still owns the stream
+     * and is responsible for closing it.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    Forecast parseStream(InputStream inputStream) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+        return parseStream(reader);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    Forecast parseStream(JsonReader reader) throws IOException, JSONException {
+        Forecast forecast = new Forecast();
+        boolean sawList = false;
+        boolean sawCity = false;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    forecast.messageCode = reader.nextInt();
+                    if (!forecast.isOk()) {
+                        // Nothing else in an error document is of any use to us.
+                        return forecast;
+                    }
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, forecast);
+                    sawCity = true;
+                } else if (OWM_LIST.equals(name)) {
+                    readDays(reader, forecast);
+                    sawList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader reports unexpected token types this way
+            throw new JSONException(e.getMessage());
+        }
+
+        if (!sawList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        if (!sawCity) {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+        return forecast;
+    }
+
+    static void readCity(JSONObject cityJson, Document document) throws JSONException {
+        document.cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        document.cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        document.cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static void readCity(JsonReader reader, Document document) throws IOException, JSONException {
+        boolean sawName = false;
+        boolean sawCoord = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                document.cityName = reader.nextString();
+                sawName = true;
+            } else if (OWM_COORD.equals(name)) {
+                boolean sawLat = false;
+                boolean sawLon = false;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        document.cityLatitude = reader.nextDouble();
+                        sawLat = true;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        document.cityLongitude = reader.nextDouble();
+                        sawLon = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (!sawLat || !sawLon) {
+                    throw new JSONException("Incomplete " + OWM_COORD);
+                }
+                sawCoord = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (!sawName || !sawCoord) {
+            throw new JSONException("Incomplete " + OWM_CITY);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readDays(JsonReader reader, Forecast forecast) throws IOException, JSONException {
+        reader.beginArray();
+        int dayIndex = 0;
+        while (reader.hasNext()) {
+            double pressure = Double.NaN;
+            int humidity = 0;
+            boolean sawHumidity = false;
+            double windSpeed = Double.NaN;
+            double windDirection = Double.NaN;
+            double high = Double.NaN;
+            double low = Double.NaN;
+            String description = null;
+            int weatherId = 0;
+            boolean sawWeatherId = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_PRESSURE.equals(name)) {
+                    pressure = reader.nextDouble();
+                } else if (OWM_HUMIDITY.equals(name)) {
+                    humidity = reader.nextInt();
+                    sawHumidity = true;
+                } else if (OWM_WINDSPEED.equals(name)) {
+                    windSpeed = reader.nextDouble();
+                } else if (OWM_WIND_DIRECTION.equals(name)) {
+                    windDirection = reader.nextDouble();
+                } else if (OWM_TEMPERATURE.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String tempName = reader.nextName();
+                        if (OWM_MAX.equals(tempName)) {
+                            high = reader.nextDouble();
+                        } else if (OWM_MIN.equals(tempName)) {
+                            low = reader.nextDouble();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_WEATHER.equals(name)) {
+                    // Only the first element of the "weather" array is used
+                    reader.beginArray();
+                    if (reader.hasNext()) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String weatherName = reader.nextName();
+                            if (OWM_DESCRIPTION.equals(weatherName)) {
+                                description = reader.nextString();
+                            } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                                weatherId = reader.nextInt();
+                                sawWeatherId = true;
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (Double.isNaN(pressure) || !sawHumidity || Double.isNaN(windSpeed)
+                    || Double.isNaN(windDirection) || Double.isNaN(high) || Double.isNaN(low)
+                    || description == null || !sawWeatherId) {
+                throw new JSONException("Incomplete forecast entry at index " + dayIndex);
+            }
+
+            forecast.days.add(buildWeatherValues(dayIndex, pressure, humidity, windSpeed,
+                    windDirection, high, low, description, weatherId));
+            dayIndex++;
+        }
+        reader.endArray();
+    }
+
+    private ContentValues buildWeatherValues(int dayIndex, double pressure, int humidity,
+                                             double windSpeed, double windDirection,
+                                             double high, double low,
+                                             String description, int weatherId) {
+        ContentValues weatherValues = new ContentValues(11);
+
+        // Cheating to convert this to UTC time, which is what we want anyhow
+        weatherValues.put(WeatherEntry.COLUMN_DATE, mDayTime.setJulianDay(mJulianStartDay + dayIndex));
+        weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, humidity);
+        weatherValues.put(WeatherEntry.COLUMN_PRESSURE, pressure);
+        weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+        weatherValues.put(WeatherEntry.COLUMN_DEGREES, windDirection);
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, high);
+        weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, low);
+        weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, description);
+        weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        return weatherValues;
+    }
+
+    /**
+     * Returns the UTC start-of-day for the Julian day {@code offset} days after the start day.
+     */
+    long dateForOffset(int offset) {
+        return mDayTime.setJulianDay(mJulianStartDay + offset);
+    }
+}
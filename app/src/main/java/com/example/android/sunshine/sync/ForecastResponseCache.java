@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Remembers the HTTP validators (ETag, Last-Modified) and freshness lifetime of the last forecast
+ * response we successfully stored for each location query.  The response body itself is not kept
+ * here: once a forecast is ingested the weather table is its cached representation, so a fresh
+ * hit or a 304 means there is nothing left to do.
+ *
+ * Entries and the hit/miss/revalidate counters live in their own private preferences file, so
+ * clearing them never touches the user's settings.
+ */
+public class ForecastResponseCache {
+
+    static final String PREFS_NAME = "forecast_response_cache";
+
+    private static final String KEY_URL = "url:";
+    private static final String KEY_ETAG = "etag:";
+    private static final String KEY_LAST_MODIFIED = "last_modified:";
+    private static final String KEY_EXPIRES = "expires:";
+
+    private static final String KEY_HITS = "stats_hits";
+    private static final String KEY_MISSES = "stats_misses";
+    private static final String KEY_REVALIDATIONS = "stats_revalidations";
+
+    /**
+     * What we know about the last stored response for one location query.
+     */
+    static final class Entry {
+        // The exact request URL; a different URL (units, day count, key) is a different resource
+        final String url;
+        final String etag;
+        final String lastModified;
+        // Wall-clock time until which the response may be reused without asking the server
+        final long expiresAt;
+
+        Entry(String url, String etag, String lastModified, long expiresAt) {
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isFresh(long now) {
+            return now < expiresAt;
+        }
+
+        boolean canRevalidate() {
+            return etag != null || lastModified != null;
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+
+    public ForecastResponseCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    Entry get(String locationQuery) {
+        String url = mPrefs.getString(KEY_URL + locationQuery, null);
+        if (url == null) {
+            return null;
+        }
+        return new Entry(url,
+                mPrefs.getString(KEY_ETAG + locationQuery, null),
+                mPrefs.getString(KEY_LAST_MODIFIED + locationQuery, null),
+                mPrefs.getLong(KEY_EXPIRES + locationQuery, 0));
+    }
+
+    /**
+     * Stores an entry.  Like setLocationStatus, this uses commit and must not be called from the
+     * UI thread.
+     */
+    void put(String locationQuery, Entry entry) {
+        mPrefs.edit()
+                .putString(KEY_URL + locationQuery, entry.url)
+                .putString(KEY_ETAG + locationQuery, entry.etag)
+                .putString(KEY_LAST_MODIFIED + locationQuery, entry.lastModified)
+                .putLong(KEY_EXPIRES + locationQuery, entry.expiresAt)
+                .commit();
+    }
+
+    void remove(String locationQuery) {
+        mPrefs.edit()
+                .remove(KEY_URL + locationQuery)
+                .remove(KEY_ETAG + locationQuery)
+                .remove(KEY_LAST_MODIFIED + locationQuery)
+                .remove(KEY_EXPIRES + locationQuery)
+                .commit();
+    }
+
+    /**
+     * Drops every entry, but keeps the counters.
+     */
+    public void clear() {
+        long hits = getHitCount();
+        long misses = getMissCount();
+        long revalidations = getRevalidationCount();
+        mPrefs.edit()
+                .clear()
+                .putLong(KEY_HITS, hits)
+                .putLong(KEY_MISSES, misses)
+                .putLong(KEY_REVALIDATIONS, revalidations)
+                .commit();
+    }
+
+    void recordHit() {
+        increment(KEY_HITS);
+    }
+
+    void recordMiss() {
+        increment(KEY_MISSES);
+    }
+
+    void recordRevalidation() {
+        increment(KEY_REVALIDATIONS);
+    }
+
+    // Batch syncs fetch several locations at once; keep the read-modify-write from losing counts
+    private synchronized void increment(String key) {
+        mPrefs.edit().putLong(key, mPrefs.getLong(key, 0) + 1).apply();
+    }
+
+    /**
+     * @return the number of syncs answered from a fresh entry without touching the network.
+     */
+    public long getHitCount() {
+        return mPrefs.getLong(KEY_HITS, 0);
+    }
+
+    /**
+     * @return the number of syncs that downloaded and stored a full response.
+     */
+    public long getMissCount() {
+        return mPrefs.getLong(KEY_MISSES, 0);
+    }
+
+    /**
+     * @return the number of syncs the server answered with 304 Not Modified.
+     */
+    public long getRevalidationCount() {
+        return mPrefs.getLong(KEY_REVALIDATIONS, 0);
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + getHitCount() + " misses=" + getMissCount()
+                + " revalidations=" + getRevalidationCount();
+    }
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.example.android.sunshine.Utility;
+import com.example.android.sunshine.data.LocationIdCache;
+import com.example.android.sunshine.data.WeatherContract;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * An immutable copy of the preferred location's forecast from today onwards.
+ *
+ * The sync builds one after storing new data and publishes it; the widgets, Muzei, the
+ * notification and the Wear responder all read it through {@link #getCurrent}, so a sync's
+ * fan-out costs a single provider query.  A snapshot is rebuilt on demand if the preferred
+ * location changed or the day rolled over.
+ *
+ * Publishing also writes the snapshot to {@link #FILE_NAME}, so a freshly started process maps
+ * that file instead of binding to the provider.  The file and the in-memory snapshot share one
+ * layout, read in place by the accessors: a header of magic, version, the normalized date the
+ * snapshot was taken on, the day count and the UTF-8 location setting, then
+ * {@link #RECORD_SIZE}-byte day records from an 8-byte boundary, then the days' descriptions.
+ * Icon and art resources are resolved from the weather id on each read, since resource ids
+ * aren't stable from one build to the next.
+ */
+public final class ForecastSnapshot {
+    private static final String LOG_TAG = ForecastSnapshot.class.getSimpleName();
+
+    static final String FILE_NAME = "forecast_snapshot.bin";
+
+    private static final String[] SNAPSHOT_COLUMNS = {
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_ID = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_WEATHER_ID = 2;
+    private static final int INDEX_SHORT_DESC = 3;
+    private static final int INDEX_MAX_TEMP = 4;
+    private static final int INDEX_MIN_TEMP = 5;
+
+    private static final int MAGIC = 0x534e4150;  // "SNAP"
+    private static final int VERSION = 1;
+    // magic, version, today, count, location setting length
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+    // row id, date, high, low, weather id, description offset and length, padding
+    static final int RECORD_SIZE = 8 + 8 + 8 + 8 + 4 + 4 + 4 + 4;
+    private static final int RECORD_ROW_ID = 0;
+    private static final int RECORD_DATE = 8;
+    private static final int RECORD_HIGH = 16;
+    private static final int RECORD_LOW = 24;
+    private static final int RECORD_WEATHER_ID = 32;
+    private static final int RECORD_DESC_OFFSET = 36;
+    private static final int RECORD_DESC_LENGTH = 40;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Object sFileLock = new Object();
+    private static volatile ForecastSnapshot sCurrent;
+
+    // Only ever read with absolute gets, so any number of threads can share it
+    private final ByteBuffer mBuffer;
+    private final String mLocationSetting;
+    // The normalized date the snapshot was taken on
+    private final long mToday;
+    private final int mCount;
+    private final int mRecordsOffset;
+
+    private ForecastSnapshot(ByteBuffer buffer, String locationSetting, long today, int count,
+                             int recordsOffset) {
+        mBuffer = buffer;
+        mLocationSetting = locationSetting;
+        mToday = today;
+        mCount = count;
+        mRecordsOffset = recordsOffset;
+    }
+
+    private static int getRecordsOffset(int locationSettingLength) {
+        return (HEADER_SIZE + locationSettingLength + 7) & ~7;
+    }
+
+    /**
+     * Lays out a snapshot from one array per field, each holding a value per day.
+     */
+    static ForecastSnapshot create(String locationSetting, long today, long[] rowIds,
+                                   long[] dates, int[] weatherIds, String[] descriptions,
+                                   double[] highs, double[] lows) {
+        int count = dates.length;
+        byte[] setting = locationSetting.getBytes(UTF_8);
+        byte[][] encodedDescriptions = new byte[count][];
+        int descriptionsSize = 0;
+        for (int i = 0; i < count; i++) {
+            encodedDescriptions[i] = descriptions[i] == null
+                    ? new byte[0] : descriptions[i].getBytes(UTF_8);
+            descriptionsSize += encodedDescriptions[i].length;
+        }
+        int recordsOffset = getRecordsOffset(setting.length);
+        int descriptionOffset = recordsOffset + count * RECORD_SIZE;
+
+        ByteBuffer buffer = ByteBuffer.allocate(descriptionOffset + descriptionsSize);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(today).putInt(count).putInt(setting.length)
+                .put(setting);
+        for (int i = 0; i < count; i++) {
+            int record = recordsOffset + i * RECORD_SIZE;
+            buffer.putLong(record + RECORD_ROW_ID, rowIds[i]);
+            buffer.putLong(record + RECORD_DATE, dates[i]);
+            buffer.putDouble(record + RECORD_HIGH, highs[i]);
+            buffer.putDouble(record + RECORD_LOW, lows[i]);
+            buffer.putInt(record + RECORD_WEATHER_ID, weatherIds[i]);
+            buffer.putInt(record + RECORD_DESC_OFFSET, descriptionOffset);
+            buffer.putInt(record + RECORD_DESC_LENGTH, encodedDescriptions[i].length);
+            buffer.position(descriptionOffset);
+            buffer.put(encodedDescriptions[i]);
+            descriptionOffset += encodedDescriptions[i].length;
+        }
+        buffer.clear();
+        return new ForecastSnapshot(buffer, locationSetting, today, count, recordsOffset);
+    }
+
+    /**
+     * @return the snapshot laid out in a buffer, or null if the buffer doesn't hold one in the
+     * current layout.
+     */
+    static ForecastSnapshot wrap(ByteBuffer buffer) {
+        int size = buffer.limit();
+        if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            return null;
+        }
+        long today = buffer.getLong(8);
+        int count = buffer.getInt(16);
+        int settingLength = buffer.getInt(20);
+        if (count < 0 || settingLength < 0 || settingLength > size - HEADER_SIZE) {
+            return null;
+        }
+        int recordsOffset = getRecordsOffset(settingLength);
+        if (recordsOffset + (long) count * RECORD_SIZE > size) {
+            return null;
+        }
+        for (int i = 0; i < count; i++) {
+            int record = recordsOffset + i * RECORD_SIZE;
+            long offset = buffer.getInt(record + RECORD_DESC_OFFSET);
+            long length = buffer.getInt(record + RECORD_DESC_LENGTH);
+            if (offset < 0 || length < 0 || offset + length > size) {
+                return null;
+            }
+        }
+        String locationSetting = decode(buffer, HEADER_SIZE, settingLength);
+        return new ForecastSnapshot(buffer, locationSetting, today, count, recordsOffset);
+    }
+
+    private static String decode(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Reads the forecast for a location, from today onwards.  This is the one query of the
+     * fan-out; it must not be called from the UI thread.
+     */
+    static ForecastSnapshot load(Context context, String locationSetting) {
+        long now = System.currentTimeMillis();
+        long today = WeatherContract.normalizeDate(now);
+        long locationId = LocationIdCache.getLocationId(context, locationSetting);
+        Cursor cursor = null;
+        if (locationId != -1) {
+            // Only weather columns are needed, so skip the join with location
+            cursor = context.getContentResolver().query(
+                    WeatherContract.WeatherEntry.buildWeatherLocationIdWithStartDate(
+                            locationId, now),
+                    SNAPSHOT_COLUMNS,
+                    null,
+                    null,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        }
+        if (cursor == null) {
+            // Never synced, so there's no weather for it either
+            return create(locationSetting, today, new long[0], new long[0], new int[0],
+                    new String[0], new double[0], new double[0]);
+        }
+        try {
+            int count = cursor.getCount();
+            long[] rowIds = new long[count];
+            long[] dates = new long[count];
+            int[] weatherIds = new int[count];
+            String[] descriptions = new String[count];
+            double[] highs = new double[count];
+            double[] lows = new double[count];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                rowIds[i] = cursor.getLong(INDEX_ID);
+                dates[i] = cursor.getLong(INDEX_DATE);
+                weatherIds[i] = cursor.getInt(INDEX_WEATHER_ID);
+                descriptions[i] = cursor.getString(INDEX_SHORT_DESC);
+                highs[i] = cursor.getDouble(INDEX_MAX_TEMP);
+                lows[i] = cursor.getDouble(INDEX_MIN_TEMP);
+            }
+            return create(locationSetting, today, rowIds, dates, weatherIds, descriptions,
+                    highs, lows);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Writes a snapshot to a temporary file and renames it over the published one, so a reader
+     * maps either the old snapshot or the new one, never part of each.  Does disk I/O.
+     */
+    static void write(Context context, ForecastSnapshot snapshot) {
+        synchronized (sFileLock) {
+            File file = getFile(context);
+            File temp = new File(file.getPath() + ".tmp");
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(temp);
+                out.getChannel().write(snapshot.mBuffer.duplicate());
+                out.getFD().sync();
+                out.close();
+                out = null;
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Can't rename " + temp + " to " + file);
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error writing forecast snapshot", e);
+                if (!temp.delete()) {
+                    Log.d(LOG_TAG, "No partial forecast snapshot to delete");
+                }
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Error closing forecast snapshot", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the published snapshot file, memory-mapped, or null if there is none or it can't
+     * be read.  The mapping outlives the file being replaced.  Does disk I/O.
+     */
+    static ForecastSnapshot map(Context context) {
+        File path = getFile(context);
+        if (!path.exists()) {
+            return null;
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(path, "r");
+            FileChannel channel = file.getChannel();
+            return wrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error mapping forecast snapshot", e);
+            return null;
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing forecast snapshot", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes a snapshot the one every consumer sees, in this process and in the next one.
+     * Does disk I/O.
+     */
+    static void publish(Context context, ForecastSnapshot snapshot) {
+        sCurrent = snapshot;
+        write(context, snapshot);
+    }
+
+    /**
+     * Drops the published snapshot, so the next {@link #getCurrent} reads the provider again.
+     * Does disk I/O.
+     */
+    public static void invalidate(Context context) {
+        synchronized (sFileLock) {
+            sCurrent = null;
+            if (!getFile(context).delete()) {
+                Log.d(LOG_TAG, "No forecast snapshot to delete");
+            }
+        }
+    }
+
+    /**
+     * @return the location setting of the published snapshot, or null if none has been
+     * published.  Does disk I/O in a new process.
+     */
+    static String getPublishedLocationSetting(Context context) {
+        ForecastSnapshot snapshot = sCurrent;
+        if (snapshot == null) {
+            snapshot = map(context);
+        }
+        return snapshot == null ? null : snapshot.mLocationSetting;
+    }
+
+    private boolean isCurrent(String locationSetting, long today) {
+        return mLocationSetting.equals(locationSetting) && mToday == today;
+    }
+
+    /**
+     * @return the published snapshot for the preferred location, mapping the published file in
+     * a new process, and loading and publishing a new snapshot if neither applies any more.
+     * Don't call this from the UI thread.
+     */
+    public static ForecastSnapshot getCurrent(Context context) {
+        String locationSetting = Utility.getPreferredLocation(context);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ForecastSnapshot snapshot = sCurrent;
+        if (snapshot == null || !snapshot.isCurrent(locationSetting, today)) {
+            snapshot = map(context);
+            if (snapshot != null && snapshot.isCurrent(locationSetting, today)) {
+                sCurrent = snapshot;
+            } else {
+                snapshot = load(context, locationSetting);
+                publish(context, snapshot);
+            }
+        }
+        return snapshot;
+    }
+
+    private int getRecord(int position) {
+        if (position < 0 || position >= mCount) {
+            throw new IndexOutOfBoundsException("Day " + position + " of " + mCount);
+        }
+        return mRecordsOffset + position * RECORD_SIZE;
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    public boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    public long getRowId(int position) {
+        return mBuffer.getLong(getRecord(position) + RECORD_ROW_ID);
+    }
+
+    public long getDate(int position) {
+        return mBuffer.getLong(getRecord(position) + RECORD_DATE);
+    }
+
+    public int getWeatherId(int position) {
+        return mBuffer.getInt(getRecord(position) + RECORD_WEATHER_ID);
+    }
+
+    public String getDescription(int position) {
+        int record = getRecord(position);
+        return decode(mBuffer, mBuffer.getInt(record + RECORD_DESC_OFFSET),
+                mBuffer.getInt(record + RECORD_DESC_LENGTH));
+    }
+
+    public double getHigh(int position) {
+        return mBuffer.getDouble(getRecord(position) + RECORD_HIGH);
+    }
+
+    public double getLow(int position) {
+        return mBuffer.getDouble(getRecord(position) + RECORD_LOW);
+    }
+
+    public int getIconResourceId(int position) {
+        return Utility.getIconResourceForWeatherCondition(getWeatherId(position));
+    }
+
+    public int getArtResourceId(int position) {
+        return Utility.getArtResourceForWeatherCondition(getWeatherId(position));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.Utility;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherContract.AggregateEntry;
+import com.example.android.sunshine.data.WeatherContract.ArchiveEntry;
+
+/**
+ * Enforces the history retention preference.
+ *
+ * Every sync archives the days that dropped out of the forecast, so without this the history
+ * tables would grow forever.  The finer the data, the sooner it goes: daily rows are kept for
+ * at most {@link #DAILY_RETENTION_DAYS}, weekly aggregates for at most
+ * {@link #WEEKLY_RETENTION_DAYS}, and monthly aggregates for the whole retention period.
+ * History only changes once a day, so the compactor runs at most once a day, from the sync.
+ */
+final class HistoryCompactor {
+    private static final String LOG_TAG = HistoryCompactor.class.getSimpleName();
+
+    static final String PREFS_NAME = "history_compactor";
+
+    private static final String KEY_LAST_RUN = "last_run";
+
+    static final int DAILY_RETENTION_DAYS = 31;
+    static final int WEEKLY_RETENTION_DAYS = 366;
+
+    //date < ?
+    private static final String sArchiveBeforeSelection =
+            ArchiveEntry.COLUMN_DATE + " < ? ";
+
+    //period = ? AND period_start < ?
+    private static final String sPeriodBeforeSelection =
+            AggregateEntry.COLUMN_PERIOD + " = ? AND " +
+                    AggregateEntry.COLUMN_PERIOD_START + " < ? ";
+
+    private HistoryCompactor() {
+    }
+
+    /**
+     * Compacts the history if it hasn't been done in the last day.
+     *
+     * @return the number of history rows deleted
+     */
+    static int compactIfDue(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long now = System.currentTimeMillis();
+        long lastRun = prefs.getLong(KEY_LAST_RUN, 0);
+        // A last run in the future means the clock was turned back; run rather than wait it out
+        if (lastRun <= now && now - lastRun < DateUtils.DAY_IN_MILLIS) {
+            return 0;
+        }
+        int deleted = compact(context.getContentResolver(),
+                Utility.getHistoryRetentionDays(context), now);
+        prefs.edit().putLong(KEY_LAST_RUN, now).apply();
+        return deleted;
+    }
+
+    /**
+     * Deletes the history that is older than its retention, as of now.
+     *
+     * @param retentionDays how long the user asked for history to be kept
+     * @return the number of history rows deleted
+     */
+    static int compact(ContentResolver resolver, int retentionDays, long now) {
+        long archiveCutoff = getCutoff(now, Math.min(retentionDays, DAILY_RETENTION_DAYS));
+        long weeklyCutoff = getCutoff(now, Math.min(retentionDays, WEEKLY_RETENTION_DAYS));
+        long monthlyCutoff = getCutoff(now, retentionDays);
+
+        int deleted = resolver.delete(ArchiveEntry.CONTENT_URI,
+                sArchiveBeforeSelection,
+                new String[]{Long.toString(archiveCutoff)});
+        // A period goes once its first day is past the retention
+        deleted += resolver.delete(AggregateEntry.CONTENT_URI,
+                sPeriodBeforeSelection,
+                new String[]{AggregateEntry.PERIOD_WEEK, Long.toString(weeklyCutoff)});
+        deleted += resolver.delete(AggregateEntry.CONTENT_URI,
+                sPeriodBeforeSelection,
+                new String[]{AggregateEntry.PERIOD_MONTH, Long.toString(monthlyCutoff)});
+        Log.d(LOG_TAG, "Compacted history to " + retentionDays + " days: " + deleted
+                + " row(s) deleted");
+        return deleted;
+    }
+
+    private static long getCutoff(long now, int days) {
+        return WeatherContract.normalizeDate(now - days * DateUtils.DAY_IN_MILLIS);
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.data.HourlySlots;
+import com.example.android.sunshine.data.WeatherContract;
+import com.example.android.sunshine.data.WeatherContract.HourlyEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Turns an OpenWeatherMap 3-hour forecast response into hourly rows, one per day.
+ *
+ * Each entry of the list is one slot: its day is the normalized date of its time, and its slot
+ * the 3-hour period of that day it starts in.  Like {@link ForecastJsonParser}, there is a
+ * String/org.json path and a streaming {@link JsonReader} path, and both produce identical rows.
+ */
+class HourlyForecastJsonParser {
+
+    // Each entry's time, in seconds since the epoch
+    static final String OWM_TIME = "dt";
+    // Temperature, pressure and humidity are children of the "main" object
+    static final String OWM_MAIN = "main";
+    static final String OWM_TEMPERATURE = "temp";
+    // Wind speed and direction are children of the "wind" object
+    static final String OWM_WIND = "wind";
+
+    /**
+     * The parsed contents of one 3-hour forecast document.
+     */
+    static final class Forecast extends ForecastJsonParser.Document {
+        // Normalized date -> that day's slots, in date order
+        final TreeMap<Long, HourlySlots> days = new TreeMap<Long, HourlySlots>();
+
+        /**
+         * @return a row per day, without a location key yet.
+         */
+        ArrayList<ContentValues> toValues() {
+            ArrayList<ContentValues> rows = new ArrayList<ContentValues>(days.size());
+            for (Map.Entry<Long, HourlySlots> day : days.entrySet()) {
+                ContentValues values = new ContentValues(3);
+                values.put(HourlyEntry.COLUMN_DATE, day.getKey());
+                values.put(HourlyEntry.COLUMN_SLOTS, day.getValue().encode());
+                rows.add(values);
+            }
+            return rows;
+        }
+    }
+
+    private final Time mScratch = new Time();
+
+    Forecast parseTree(String forecastJsonStr) throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+        Forecast forecast = new Forecast();
+
+        if (forecastJson.has(ForecastJsonParser.OWM_MESSAGE_CODE)) {
+            forecast.messageCode = forecastJson.getInt(ForecastJsonParser.OWM_MESSAGE_CODE);
+            if (!forecast.isOk()) {
+                return forecast;
+            }
+        }
+
+        JSONArray slotArray = forecastJson.getJSONArray(ForecastJsonParser.OWM_LIST);
+        ForecastJsonParser.readCity(
+                forecastJson.getJSONObject(ForecastJsonParser.OWM_CITY), forecast);
+
+        for (int i = 0; i < slotArray.length(); i++) {
+            JSONObject slotJson = slotArray.getJSONObject(i);
+            JSONObject mainJson = slotJson.getJSONObject(OWM_MAIN);
+            JSONObject windJson = slotJson.getJSONObject(OWM_WIND);
+            JSONObject weatherJson = slotJson.getJSONArray(ForecastJsonParser.OWM_WEATHER)
+                    .getJSONObject(0);
+            addSlot(forecast,
+                    slotJson.getLong(OWM_TIME),
+                    weatherJson.getInt(ForecastJsonParser.OWM_WEATHER_ID),
+                    mainJson.getDouble(OWM_TEMPERATURE),
+                    mainJson.getDouble(ForecastJsonParser.OWM_HUMIDITY),
+                    mainJson.getDouble(ForecastJsonParser.OWM_PRESSURE),
+                    windJson.getDouble(ForecastJsonParser.OWM_WINDSPEED),
+                    windJson.getDouble(ForecastJsonParser.OWM_WIND_DIRECTION));
+        }
+        return forecast;
+    }
+
+    /**
+     * Parses a forecast directly from the response stream.  The caller still owns the stream
+     * and is responsible for closing it.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    Forecast parseStream(InputStream inputStream) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, "UTF-8"));
+        Forecast forecast = new Forecast();
+        boolean sawList = false;
+        boolean sawCity = false;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (ForecastJsonParser.OWM_MESSAGE_CODE.equals(name)) {
+                    // This endpoint sends the code as a string, which nextInt accepts
+                    forecast.messageCode = reader.nextInt();
+                    if (!forecast.isOk()) {
+                        return forecast;
+                    }
+                } else if (ForecastJsonParser.OWM_CITY.equals(name)) {
+                    ForecastJsonParser.readCity(reader, forecast);
+                    sawCity = true;
+                } else if (ForecastJsonParser.OWM_LIST.equals(name)) {
+                    readSlots(reader, forecast);
+                    sawList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException e) {
+            throw new JSONException(e.getMessage());
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader reports unexpected token types this way
+            throw new JSONException(e.getMessage());
+        }
+
+        if (!sawList) {
+            throw new JSONException("No value for " + ForecastJsonParser.OWM_LIST);
+        }
+        if (!sawCity) {
+            throw new JSONException("No value for " + ForecastJsonParser.OWM_CITY);
+        }
+        return forecast;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void readSlots(JsonReader reader, Forecast forecast)
+            throws IOException, JSONException {
+        reader.beginArray();
+        int index = 0;
+        while (reader.hasNext()) {
+            long time = -1;
+            int weatherId = 0;
+            boolean sawWeatherId = false;
+            double temperature = Double.NaN;
+            double humidity = Double.NaN;
+            double pressure = Double.NaN;
+            double windSpeed = Double.NaN;
+            double windDirection = Double.NaN;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_TIME.equals(name)) {
+                    time = reader.nextLong();
+                } else if (OWM_MAIN.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String mainName = reader.nextName();
+                        if (OWM_TEMPERATURE.equals(mainName)) {
+                            temperature = reader.nextDouble();
+                        } else if (ForecastJsonParser.OWM_HUMIDITY.equals(mainName)) {
+                            humidity = reader.nextDouble();
+                        } else if (ForecastJsonParser.OWM_PRESSURE.equals(mainName)) {
+                            pressure = reader.nextDouble();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (OWM_WIND.equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String windName = reader.nextName();
+                        if (ForecastJsonParser.OWM_WINDSPEED.equals(windName)) {
+                            windSpeed = reader.nextDouble();
+                        } else if (ForecastJsonParser.OWM_WIND_DIRECTION.equals(windName)) {
+                            windDirection = reader.nextDouble();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else if (ForecastJsonParser.OWM_WEATHER.equals(name)) {
+                    // Only the first element of the "weather" array is used
+                    reader.beginArray();
+                    if (reader.hasNext()) {
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (ForecastJsonParser.OWM_WEATHER_ID.equals(reader.nextName())) {
+                                weatherId = reader.nextInt();
+                                sawWeatherId = true;
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                    }
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (time < 0 || !sawWeatherId || Double.isNaN(temperature)
+                    || Double.isNaN(humidity) || Double.isNaN(pressure)
+                    || Double.isNaN(windSpeed) || Double.isNaN(windDirection)) {
+                throw new JSONException("Incomplete forecast entry at index " + index);
+            }
+            addSlot(forecast, time, weatherId, temperature, humidity, pressure, windSpeed,
+                    windDirection);
+            index++;
+        }
+        reader.endArray();
+    }
+
+    private void addSlot(Forecast forecast, long timeSeconds, int weatherId, double temperature,
+                         double humidity, double pressure, double windSpeed,
+                         double windDirection) {
+        long time = timeSeconds * 1000;
+        long day = WeatherContract.normalizeDate(time, mScratch);
+        HourlySlots slots = forecast.days.get(day);
+        if (slots == null) {
+            slots = new HourlySlots();
+            forecast.days.put(day, slots);
+        }
+        slots.set(HourlySlots.getSlot(time, day), weatherId, (float) temperature,
+                (float) humidity, (float) pressure, (float) windSpeed, (float) windDirection);
+    }
+}
@@ -22,25 +22,23 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
 import com.bumptech.glide.Glide;
 import com.example.android.sunshine.BuildConfig;
 import com.example.android.sunshine.MainActivity;
 import com.example.android.sunshine.R;
+import com.example.android.sunshine.SettingsSnapshot;
 import com.example.android.sunshine.Utility;
+import com.example.android.sunshine.data.LocationIdCache;
 import com.example.android.sunshine.data.WeatherContract;
 import com.example.android.sunshine.muzei.WeatherMuzeiSource;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -48,34 +46,33 @@ import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
+    // Interval at which to sync with the weather, in seconds.  This is the starting point;
+    // SyncScheduler adjusts it after every sync.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
+    // Sync extra: refresh every saved location rather than only the preferred one.  Defaults to
+    // true for scheduled syncs and false for manual ones.
+    public static final String SYNC_EXTRAS_ALL_LOCATIONS = "sunshine_all_locations";
+    // Parse responses straight off the connection instead of buffering the whole document.
+    // Falls back to the String/JSONObject path where JsonReader isn't available.
+    static final boolean STREAMING_INGESTION = ForecastJsonParser.isStreamingSupported();
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
-
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
     public @interface LocationStatus {}
@@ -93,266 +90,474 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
-
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+        SyncScheduler.onSyncStarted();
+        SyncTelemetry.Record telemetry = new SyncTelemetry.Record();
+        long syncStart = SystemClock.elapsedRealtime();
+        String preferredLocation = Utility.getPreferredLocation(getContext());
+        ForecastResponseCache responseCache = new ForecastResponseCache(getContext());
+
+        boolean manual = extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+        // A manual refresh may not be answered from a fresh entry, but can still be a cheap 304
+        boolean allowFresh = !manual;
+        // Manual refreshes are usually a location change, so they only wait for that location
+        // unless asked otherwise.  Everything else refreshes every saved location.
+        boolean allLocations = extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, !manual);
+
+        List<String> locationQueries = allLocations
+                ? getSavedLocations(preferredLocation)
+                : Collections.singletonList(preferredLocation);
+
+        // If a stored forecast has gone missing (e.g. the database was recreated), the cached
+        // validators no longer describe anything we have, so don't let them short-circuit
+        // the download.
+        Set<String> storedLocations =
+                getLocationsWithStoredForecast(WeatherContract.WeatherEntry.CONTENT_URI);
+        Set<String> storedHourlyLocations =
+                getLocationsWithStoredForecast(WeatherContract.HourlyEntry.CONTENT_URI);
+        for (String locationQuery : locationQueries) {
+            if (!storedLocations.contains(locationQuery)) {
+                responseCache.remove(locationQuery);
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            if (!storedHourlyLocations.contains(locationQuery)) {
+                responseCache.remove(BatchSyncEngine.HOURLY_CACHE_KEY_PREFIX + locationQuery);
             }
+        }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        BatchSyncEngine engine = new BatchSyncEngine(new ForecastFetcher(responseCache),
+                new BatchSyncEngine.UrlFactory() {
+                    @Override
+                    public URL buildUrl(String locationQuery) throws IOException {
+                        return buildForecastUrl(locationQuery);
+                    }
+                }, STREAMING_INGESTION, BatchSyncEngine.MAX_REQUESTS_PER_HOST);
+        BatchSyncEngine hourlyEngine = new BatchSyncEngine(new ForecastFetcher(responseCache),
+                new BatchSyncEngine.UrlFactory() {
+                    @Override
+                    public URL buildUrl(String locationQuery) throws IOException {
+                        return buildHourlyForecastUrl(locationQuery);
+                    }
+                }, STREAMING_INGESTION, BatchSyncEngine.MAX_REQUESTS_PER_HOST, true);
+
+        long start = SystemClock.elapsedRealtime();
+        // Daily and hourly requests go out together, so the sync waits for one round of them
+        List<List<BatchSyncEngine.LocationResult>> allResults = BatchSyncEngine.fetchAll(
+                new BatchSyncEngine[]{engine, hourlyEngine}, locationQueries, allowFresh);
+        List<BatchSyncEngine.LocationResult> results = allResults.get(0);
+        List<BatchSyncEngine.LocationResult> hourlyResults = allResults.get(1);
+        long fetched = SystemClock.elapsedRealtime();
+        // Measure before storing, while the previous forecast is still there to compare with
+        float change = results.isEmpty() ? 0f : measureForecastChange(results.get(0));
+        int changedCount = 0;
+        int hourlyCount = 0;
+        try {
+            changedCount = storeForecasts(results, manual, telemetry);
+            hourlyCount = storeHourlyForecasts(hourlyResults, telemetry);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            for (BatchSyncEngine.LocationResult result : results) {
+                if (result.response != null) {
+                    result.response.close();
+                }
             }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
+            for (BatchSyncEngine.LocationResult result : hourlyResults) {
+                if (result.response != null) {
+                    result.response.close();
                 }
             }
         }
-        return;
+        long stored = SystemClock.elapsedRealtime();
+        HistoryCompactor.compactIfDue(getContext());
+
+        int fetchedCount = 0;
+        for (BatchSyncEngine.LocationResult result : results) {
+            Log.d(LOG_TAG, "  " + result);
+            if (result.hasForecast()) {
+                fetchedCount += result.forecast.days.size();
+            }
+            telemetry.addPhase(SyncTelemetry.PHASE_CONNECT, result.connectMillis);
+            telemetry.addPhase(SyncTelemetry.PHASE_FIRST_BYTE, result.firstByteMillis);
+            telemetry.addPhase(SyncTelemetry.PHASE_DOWNLOAD, result.downloadMillis);
+            telemetry.addPhase(SyncTelemetry.PHASE_PARSE, result.parseMillis);
+            telemetry.bytesReceived += result.bytesReceived;
+            // SyncManager retries soft errors itself; SyncScheduler's backoff only takes over
+            // at the shortest period the platform allows
+            if (result.status == LOCATION_STATUS_SERVER_DOWN) {
+                syncResult.stats.numIoExceptions++;
+            } else if (result.status == LOCATION_STATUS_SERVER_INVALID) {
+                syncResult.stats.numParseExceptions++;
+            }
+        }
+        // The 3-hour forecast is extra detail: it costs time and bytes, but a failure to get
+        // it doesn't change the location's status
+        for (BatchSyncEngine.LocationResult result : hourlyResults) {
+            Log.d(LOG_TAG, "  hourly " + result);
+            telemetry.addPhase(SyncTelemetry.PHASE_CONNECT, result.connectMillis);
+            telemetry.addPhase(SyncTelemetry.PHASE_FIRST_BYTE, result.firstByteMillis);
+            telemetry.addPhase(SyncTelemetry.PHASE_DOWNLOAD, result.downloadMillis);
+            telemetry.addPhase(SyncTelemetry.PHASE_PARSE, result.parseMillis);
+            telemetry.bytesReceived += result.bytesReceived;
+        }
+        syncResult.stats.numInserts += changedCount + hourlyCount;
+        syncResult.stats.numSkippedEntries += fetchedCount - changedCount;
+        Log.d(LOG_TAG, "Sync Complete. " + results.size() + " location(s), " + changedCount
+                + " Changed, " + (fetchedCount - changedCount) + " Skipped, " + hourlyCount
+                + " hourly, fetch "
+                + (fetched - start) + "ms, store " + (stored - fetched) + "ms, response cache "
+                + responseCache);
+
+        telemetry.locations = results.size();
+        telemetry.rowsFetched = fetchedCount;
+        telemetry.rowsChanged = changedCount;
+
+        // The status shown to the user, and the one we schedule by, is the one for the
+        // location they're looking at
+        if (!results.isEmpty()) {
+            @LocationStatus int status = results.get(0).status;
+            setLocationStatus(getContext(), status);
+            telemetry.status = status;
+
+            SyncScheduler scheduler = new SyncScheduler(getContext());
+            if (status == LOCATION_STATUS_OK) {
+                scheduler.onSyncSucceeded(change);
+            } else if (status == LOCATION_STATUS_SERVER_DOWN
+                    || status == LOCATION_STATUS_SERVER_INVALID) {
+                scheduler.onSyncFailed();
+            }
+            scheduler.reschedule(getContext());
+        }
+
+        telemetry.addPhase(SyncTelemetry.PHASE_TOTAL, SystemClock.elapsedRealtime() - syncStart);
+        SyncTelemetry.append(getContext(), telemetry);
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @return how much a location's fetched forecast differs from the stored one, as
+     * measured by {@link SyncScheduler#measureChange}.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr, String locationSetting) throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
-
+    private float measureForecastChange(BatchSyncEngine.LocationResult result) {
+        if (!result.hasForecast()) {
+            // Fresh or not modified: nothing moved.  On errors the value isn't used.
+            return 0f;
+        }
+        long locationId = LocationIdCache.getLocationId(getContext(), result.locationQuery);
+        if (locationId == -1) {
+            // A new location has nothing stored to compare against
+            return SyncScheduler.measureChange(null, result.forecast.days);
+        }
+        Cursor stored = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationIdWithStartDate(
+                        locationId, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE,
+                        WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                        WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                        WeatherContract.WeatherEntry.COLUMN_WEATHER_ID},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
+            return SyncScheduler.measureChange(stored, result.forecast.days);
+        } finally {
+            if (stored != null) {
+                stored.close();
             }
+        }
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+    /**
+     * Construct the URL for the OpenWeatherMap query
+     * Possible parameters are avaiable at OWM's forecast API page, at
+     * http://openweathermap.org/API#forecast
+     */
+    static URL buildForecastUrl(String locationQuery) throws MalformedURLException {
+        final String FORECAST_BASE_URL =
+                "http://api.openweathermap.org/data/2.5/forecast/daily?";
+        final String QUERY_PARAM = "q";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+        String format = "json";
+        String units = "metric";
+        int numDays = 14;
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
+        Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+        return new URL(builtUri.toString());
+    }
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+    /**
+     * Construct the URL for the OpenWeatherMap 3-hour forecast query, which covers five days
+     */
+    static URL buildHourlyForecastUrl(String locationQuery) throws MalformedURLException {
+        final String FORECAST_BASE_URL =
+                "http://api.openweathermap.org/data/2.5/forecast?";
+        final String QUERY_PARAM = "q";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String APPID_PARAM = "APPID";
+
+        Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .appendQueryParameter(FORMAT_PARAM, "json")
+                .appendQueryParameter(UNITS_PARAM, "metric")
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        return new URL(builtUri.toString());
+    }
 
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+    /**
+     * @return the location settings to refresh: the preferred one first, followed by every
+     * other location saved in the database.
+     */
+    private List<String> getSavedLocations(String preferredLocation) {
+        ArrayList<String> locations = new ArrayList<String>();
+        locations.add(preferredLocation);
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null,
+                null,
+                WeatherContract.LocationEntry._ID + " ASC");
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                String locationSetting = cursor.getString(0);
+                if (!locations.contains(locationSetting)) {
+                    locations.add(locationSetting);
+                }
+            }
+            cursor.close();
+        }
+        return locations;
+    }
 
-                double high;
-                double low;
+    /**
+     * @return the settings of every location the provider holds forecast rows for, from
+     * today onwards.
+     *
+     * @param contentUri the daily or the hourly forecast table, which share the location and
+     *                   date column names
+     */
+    private Set<String> getLocationsWithStoredForecast(Uri contentUri) {
+        HashSet<String> locations = new HashSet<String>();
+        ContentResolver resolver = getContext().getContentResolver();
+
+        HashSet<Long> locationIds = new HashSet<Long>();
+        Cursor weatherCursor = resolver.query(
+                contentUri,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY},
+                WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{Long.toString(
+                        WeatherContract.normalizeDate(System.currentTimeMillis()))},
+                null);
+        if (weatherCursor == null) {
+            return locations;
+        }
+        while (weatherCursor.moveToNext()) {
+            locationIds.add(weatherCursor.getLong(0));
+        }
+        weatherCursor.close();
+        if (locationIds.isEmpty()) {
+            return locations;
+        }
 
-                String description;
-                int weatherId;
+        Cursor locationCursor = resolver.query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null,
+                null,
+                null);
+        if (locationCursor != null) {
+            while (locationCursor.moveToNext()) {
+                if (locationIds.contains(locationCursor.getLong(0))) {
+                    locations.add(locationCursor.getString(1));
+                }
+            }
+            locationCursor.close();
+        }
+        return locations;
+    }
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+    /**
+     * Reads the whole response into a String for the non-streaming ingestion path.
+     *
+     * @return the response, or null if the stream was empty.
+     */
+    static String readFully(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        StringBuilder buffer = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
+            // But it does make debugging a *lot* easier if you print out the completed
+            // buffer for debugging.
+            buffer.append(line).append('\n');
+        }
+        return buffer.length() == 0 ? null : buffer.toString();
+    }
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
+    /**
+     * Maps the "cod" of a forecast response to the status we report for its location.
+     */
+    @LocationStatus
+    static int statusForMessageCode(int messageCode) {
+        switch (messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                return LOCATION_STATUS_OK;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                return LOCATION_STATUS_INVALID;
+            default:
+                return LOCATION_STATUS_SERVER_DOWN;
+        }
+    }
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+    /**
+     * Take the parsed forecasts, resolve their locations, and replace the stored weather with
+     * them.  All weather rows go through a single diffing bulkInsert, so the provider writes
+     * them in one transaction.  Responses are only committed to the cache once their rows are
+     * stored.
+     *
+     * The widgets, Muzei, Wear and the notification are told when a row changed, when the
+     * preferred location isn't the one they were last told about, and on every manual sync:
+     * switching to a stored location, or being answered with a 304, changes nothing here but
+     * still changes what they should show.
+     *
+     * @param manual whether the user asked for this sync
+     * @param telemetry receives the time spent in each storage and fan-out phase
+     * @return the number of weather rows written; unchanged rows are skipped.
+     */
+    int storeForecasts(List<BatchSyncEngine.LocationResult> results, boolean manual,
+                       SyncTelemetry.Record telemetry) {
+        ArrayList<ContentValues> rows = new ArrayList<ContentValues>();
+        ArrayList<BatchSyncEngine.LocationResult> storedResults =
+                new ArrayList<BatchSyncEngine.LocationResult>(results.size());
+        long deleteUpTo = 0;
+        for (BatchSyncEngine.LocationResult result : results) {
+            if (!result.hasForecast()) {
+                continue;
+            }
+            ForecastJsonParser.Forecast forecast = result.forecast;
+            telemetry.beginPhase();
+            long locationId = addLocation(result.locationQuery, forecast.cityName,
+                    forecast.cityLatitude, forecast.cityLongitude);
+            telemetry.endPhase(SyncTelemetry.PHASE_RESOLVE_LOCATION);
+            for (ContentValues weatherValues : forecast.days) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                rows.add(weatherValues);
+            }
+            deleteUpTo = result.parser.dateForOffset(-1);
+            storedResults.add(result);
+        }
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+        int rowCount = rows.size();
+        int changedCount = 0;
+        int deletedCount = 0;
+        // add to database
+        if ( rowCount > 0 ) {
+            ContentValues[] cvArray = rows.toArray(new ContentValues[rowCount]);
+            // Only the days that actually changed are rewritten and notified
+            telemetry.beginPhase();
+            changedCount = getContext().getContentResolver().bulkInsert(
+                    WeatherContract.WeatherEntry.buildWeatherDiffUri(), cvArray);
+            telemetry.endPhase(SyncTelemetry.PHASE_BULK_INSERT);
+
+            // move past days into the history tables, so the forecast table stays small;
+            // HistoryCompactor keeps the history itself from growing without bound
+            telemetry.beginPhase();
+            deletedCount = getContext().getContentResolver().delete(
+                    WeatherContract.WeatherEntry.buildWeatherArchivingUri(),
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                    new String[] {Long.toString(deleteUpTo)});
+            telemetry.endPhase(SyncTelemetry.PHASE_DELETE);
+        }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+        String preferredLocation = Utility.getPreferredLocation(getContext());
+        if (changedCount > 0 || deletedCount > 0 || manual || !preferredLocation.equals(
+                ForecastSnapshot.getPublishedLocationSetting(getContext()))) {
+            // One query for the whole fan-out: every consumer reads this snapshot, and
+            // consumers in a new process map the file it is written to
+            telemetry.beginPhase();
+            ForecastSnapshot snapshot = ForecastSnapshot.load(getContext(), preferredLocation);
+            ForecastSnapshot.publish(getContext(), snapshot);
+            telemetry.endPhase(SyncTelemetry.PHASE_SNAPSHOT);
+
+            telemetry.beginPhase();
+            updateWidgets();
+            telemetry.endPhase(SyncTelemetry.PHASE_WIDGETS);
+            telemetry.beginPhase();
+            updateMuzei();
+            telemetry.endPhase(SyncTelemetry.PHASE_MUZEI);
+            telemetry.beginPhase();
+            notifyWeather(snapshot);
+            telemetry.endPhase(SyncTelemetry.PHASE_NOTIFICATION);
+        }
+        Log.d(LOG_TAG, rowCount + " rows fetched: " + changedCount + " changed, "
+                + (rowCount - changedCount) + " skipped as unchanged");
 
-                ContentValues weatherValues = new ContentValues();
+        for (BatchSyncEngine.LocationResult result : storedResults) {
+            result.response.commit();
+        }
+        return changedCount;
+    }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
+    /**
+     * Replaces the stored 3-hour forecast of every location that fetched a new one, in one
+     * bulkInsert, and then drops the days before today.  Responses are only committed to the cache
+     * once their rows are stored.
+     *
+     * @return the number of hourly rows written, one per location-day
+     */
+    private int storeHourlyForecasts(List<BatchSyncEngine.LocationResult> results,
+                                     SyncTelemetry.Record telemetry) {
+        ArrayList<ContentValues> rows = new ArrayList<ContentValues>();
+        ArrayList<BatchSyncEngine.LocationResult> storedResults =
+                new ArrayList<BatchSyncEngine.LocationResult>(results.size());
+        for (BatchSyncEngine.LocationResult result : results) {
+            if (!result.hasHourly()) {
+                continue;
             }
-
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+            HourlyForecastJsonParser.Forecast hourly = result.hourly;
+            telemetry.beginPhase();
+            long locationId = addLocation(result.locationQuery, hourly.cityName,
+                    hourly.cityLatitude, hourly.cityLongitude);
+            telemetry.endPhase(SyncTelemetry.PHASE_RESOLVE_LOCATION);
+            for (ContentValues hourlyValues : hourly.toValues()) {
+                hourlyValues.put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, locationId);
+                rows.add(hourlyValues);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+            storedResults.add(result);
+        }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+        int rowCount = rows.size();
+        if (rowCount > 0) {
+            telemetry.beginPhase();
+            rowCount = getContext().getContentResolver().bulkInsert(
+                    WeatherContract.HourlyEntry.CONTENT_URI,
+                    rows.toArray(new ContentValues[rows.size()]));
+            telemetry.endPhase(SyncTelemetry.PHASE_BULK_INSERT);
+
+            // Past hours are of no further use, so unlike the daily forecast they aren't
+            // archived.  Like the daily delete, this waits for a sync that fetched something,
+            // so fresh hits and 304s don't cost a write transaction.
+            telemetry.beginPhase();
+            getContext().getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI,
+                    WeatherContract.HourlyEntry.COLUMN_DATE + " < ?",
+                    new String[]{Long.toString(
+                            WeatherContract.normalizeDate(System.currentTimeMillis()))});
+            telemetry.endPhase(SyncTelemetry.PHASE_DELETE);
         }
+
+        for (BatchSyncEngine.LocationResult result : storedResults) {
+            result.response.commit();
+        }
+        return rowCount;
     }
 
     private void updateWidgets() {
@@ -373,7 +578,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
-    private void notifyWeather() {
+    private void notifyWeather(ForecastSnapshot snapshot) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -388,22 +593,16 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+                // Today's forecast is the first day of the post-sync snapshot.
+                if (!snapshot.isEmpty()) {
+                    int weatherId = snapshot.getWeatherId(0);
+                    double high = snapshot.getHigh(0);
+                    double low = snapshot.getLow(0);
+                    String desc = snapshot.getDescription(0);
+
+                    int iconId = snapshot.getIconResourceId(0);
                     Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+                    int artResourceId = snapshot.getArtResourceId(0);
                     String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
 
                     // On Honeycomb and higher devices, we can retrieve the size of the large icon
@@ -475,7 +674,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
@@ -490,44 +688,33 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
+        // First, check if the location with this city name exists in the db.  Locations are
+        // almost always known already, so this is usually answered without a query.
+        long locationId = LocationIdCache.getLocationId(getContext(), locationSetting);
+        if (locationId != -1) {
+            return locationId;
+        }
 
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
+        // Now that the content provider is set up, inserting rows of data is pretty simple.
+        // First create a ContentValues object to hold the data you want to insert.
+        ContentValues locationValues = new ContentValues();
 
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
+        // Then add the data, along with the corresponding name of the data type,
+        // so the content provider knows what kind of value is being inserted.
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
 
-        locationCursor.close();
+        // Finally, insert location data into the database.
+        Uri insertedUri = getContext().getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                locationValues
+        );
+
+        // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
         // Wait, that worked?  Yes!
-        return locationId;
+        return ContentUris.parseId(insertedUri);
     }
 
     /**
@@ -550,10 +737,14 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately.  Calls made in quick succession
+     * are coalesced into a single sync, see {@link SyncScheduler#claimImmediateRequest()}.
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        if (!SyncScheduler.claimImmediateRequest()) {
+            return;
+        }
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
@@ -632,5 +823,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         SharedPreferences.Editor spe = sp.edit();
         spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
         spe.commit();
+        SettingsSnapshot.refresh(c);
     }
 }
\ No newline at end of file
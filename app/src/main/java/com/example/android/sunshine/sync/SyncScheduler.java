@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Picks the period of the next sync instead of always waiting {@link
+ * SunshineSyncAdapter#SYNC_INTERVAL}.
+ *
+ * After a successful sync the period is stretched when the forecast barely moved and shortened
+ * when it changed a lot, shortened while the device is charging on an unmetered network, and
+ * stretched when it isn't.  It is capped so the stored data never gets older than
+ * {@link #MAX_STALENESS_SECONDS}.  After a failure the period backs off exponentially with
+ * jitter, so devices don't all retry together when the server comes back.
+ *
+ * The backoff never goes below {@link #MIN_PERIODIC_SYNC_SECONDS}, the shortest period the
+ * platform keeps: below that SyncManager would round it up and flatten the curve.  Retries
+ * sooner than that are SyncManager's own, which it makes with its own backoff when the sync
+ * reports I/O or parse errors.
+ *
+ * The scheduler also coalesces bursts of {@link SunshineSyncAdapter#syncImmediately} calls.
+ */
+public class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    static final String PREFS_NAME = "sync_scheduler";
+
+    private static final String KEY_LAST_SUCCESS = "last_success";
+    private static final String KEY_LAST_CHANGE = "last_change";
+    private static final String KEY_FAILURES = "consecutive_failures";
+    private static final String KEY_INTERVAL = "interval";
+
+    // All periods are in seconds, like SYNC_INTERVAL
+    static final int MIN_INTERVAL_SECONDS = 60 * 60;
+    static final int MAX_INTERVAL_SECONDS = 60 * 60 * 12;
+    static final int MAX_STALENESS_SECONDS = 60 * 60 * 12;
+    // SyncManager runs periodic syncs no more often than this from Nougat on
+    static final int MIN_PERIODIC_SYNC_SECONDS = 60 * 15;
+    // The equal jitter below waits at least half the backoff, so this keeps every backoff at
+    // or above MIN_PERIODIC_SYNC_SECONDS
+    static final int INITIAL_BACKOFF_SECONDS = MIN_PERIODIC_SYNC_SECONDS * 2;
+    static final int MAX_BACKOFF_SECONDS = 60 * 60 * 12;
+    // Spread successful syncs by up to this fraction either way
+    static final float INTERVAL_JITTER = 0.1f;
+
+    // Changes within this many degrees (Celsius) are considered noise
+    private static final double SIGNIFICANT_TEMP_CHANGE = 5.0;
+    // Only the next few days matter for how soon we should look again
+    private static final int CHANGE_WINDOW_DAYS = 3;
+
+    // Immediate sync requests this close together are folded into the first one
+    static final long COALESCE_WINDOW_MILLIS = 10 * 1000;
+    private static final Object sRequestLock = new Object();
+    private static long sPendingRequestAt = -1;
+
+    /**
+     * Device state that makes a sync cheaper or more expensive.
+     */
+    static final class Conditions {
+        final boolean charging;
+        final boolean unmetered;
+
+        Conditions(boolean charging, boolean unmetered) {
+            this.charging = charging;
+            this.unmetered = unmetered;
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+    private final Random mRandom;
+
+    public SyncScheduler(Context context) {
+        this(context, new Random());
+    }
+
+    SyncScheduler(Context context, Random random) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mRandom = random;
+    }
+
+    /**
+     * Reads the battery and network state.  Both come from sticky or cached system state, so
+     * this doesn't wake anything up.
+     */
+    static Conditions readConditions(Context context) {
+        Intent battery = context.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        boolean charging = false;
+        if (battery != null) {
+            int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                    || status == BatteryManager.BATTERY_STATUS_FULL;
+        }
+
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        boolean unmetered = activeNetwork != null && activeNetwork.isConnected()
+                && !ConnectivityManagerCompat.isActiveNetworkMetered(cm);
+        return new Conditions(charging, unmetered);
+    }
+
+    /**
+     * Records a sync that left the stored forecast current.
+     *
+     * @param change how much the forecast moved, from 0 (not at all) to 1, as returned by
+     *               {@link #measureChange}.
+     */
+    public void onSyncSucceeded(float change) {
+        mPrefs.edit()
+                .putLong(KEY_LAST_SUCCESS, System.currentTimeMillis())
+                .putFloat(KEY_LAST_CHANGE, change)
+                .putInt(KEY_FAILURES, 0)
+                .commit();
+    }
+
+    /**
+     * Records a sync that couldn't reach or understand the server.
+     */
+    public void onSyncFailed() {
+        mPrefs.edit().putInt(KEY_FAILURES, getConsecutiveFailures() + 1).commit();
+    }
+
+    public int getConsecutiveFailures() {
+        return mPrefs.getInt(KEY_FAILURES, 0);
+    }
+
+    public long getLastSuccess() {
+        return mPrefs.getLong(KEY_LAST_SUCCESS, 0);
+    }
+
+    /**
+     * @return the period last handed to {@link SunshineSyncAdapter#configurePeriodicSync}, or
+     * 0 if the scheduler hasn't chosen one yet.
+     */
+    public int getCurrentInterval() {
+        return mPrefs.getInt(KEY_INTERVAL, 0);
+    }
+
+    /**
+     * Chooses the next period from the recorded history and the current conditions, and
+     * reschedules the periodic sync if it differs from the current one.
+     *
+     * @return the chosen period, in seconds.
+     */
+    int reschedule(Context context) {
+        Conditions conditions = readConditions(context);
+        long now = System.currentTimeMillis();
+        long lastSuccess = getLastSuccess();
+        long staleSeconds = lastSuccess == 0 ? Long.MAX_VALUE : (now - lastSuccess) / 1000;
+        int interval = chooseInterval(staleSeconds,
+                mPrefs.getFloat(KEY_LAST_CHANGE, 1f),
+                conditions,
+                getConsecutiveFailures(),
+                mRandom.nextFloat());
+
+        int current = getCurrentInterval();
+        // Small differences are just jitter; re-adding the periodic sync isn't free
+        if (current == 0 || Math.abs(current - interval) > current * INTERVAL_JITTER) {
+            SunshineSyncAdapter.configurePeriodicSync(context, interval, interval / 3);
+            mPrefs.edit().putInt(KEY_INTERVAL, interval).commit();
+            Log.d(LOG_TAG, "Next sync in " + interval + "s (failures="
+                    + getConsecutiveFailures() + ", charging=" + conditions.charging
+                    + ", unmetered=" + conditions.unmetered + ")");
+        } else {
+            interval = current;
+        }
+        return interval;
+    }
+
+    /**
+     * The scheduling policy, free of any Android state so it can be tested directly.
+     *
+     * @param staleSeconds how long ago the last successful sync was
+     * @param change       how much the last fetched forecast moved, from 0 to 1
+     * @param failures     consecutive failed syncs
+     * @param random       a uniformly distributed value in [0, 1) used for jitter
+     * @return the next sync period, in seconds
+     */
+    static int chooseInterval(long staleSeconds, float change, Conditions conditions,
+                              int failures, float random) {
+        if (failures > 0) {
+            // Exponential backoff with "equal jitter": half the delay is fixed, half is random
+            long backoff = INITIAL_BACKOFF_SECONDS;
+            for (int i = 1; i < failures && backoff < MAX_BACKOFF_SECONDS; i++) {
+                backoff *= 2;
+            }
+            backoff = Math.min(backoff, MAX_BACKOFF_SECONDS);
+            return (int) (backoff / 2 + (long) (backoff / 2 * random));
+        }
+
+        double interval = SunshineSyncAdapter.SYNC_INTERVAL;
+        if (change >= 0.5f) {
+            interval /= 2;
+        } else if (change < 0.1f) {
+            interval *= 2;
+        }
+        if (conditions.charging && conditions.unmetered) {
+            interval /= 2;
+        } else if (!conditions.charging && !conditions.unmetered) {
+            interval *= 1.5;
+        }
+        interval *= 1 + INTERVAL_JITTER * (2 * random - 1);
+
+        // Never let the data get older than MAX_STALENESS_SECONDS
+        long remaining = MAX_STALENESS_SECONDS - Math.min(staleSeconds, MAX_STALENESS_SECONDS);
+        interval = Math.min(interval, Math.max(remaining, MIN_INTERVAL_SECONDS));
+
+        return (int) Math.max(MIN_INTERVAL_SECONDS, Math.min(MAX_INTERVAL_SECONDS, interval));
+    }
+
+    /**
+     * Compares the stored forecast with a freshly fetched one over the next few days.
+     *
+     * @param stored  the stored rows, with the date, max temp, min temp and weather id columns,
+     *                or null if nothing is stored
+     * @param fetched the new rows, ordered by date
+     * @return 0 if nothing moved, up to 1 for a new condition category or a large temperature
+     * swing.  1 when there was nothing to compare against.
+     */
+    static float measureChange(Cursor stored, List<ContentValues> fetched) {
+        if (stored == null || !stored.moveToFirst()) {
+            return 1f;
+        }
+        int dateIndex = stored.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+        int maxIndex = stored.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        int minIndex = stored.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        int weatherIdIndex = stored.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+
+        float change = 0f;
+        int compared = 0;
+        int window = Math.min(CHANGE_WINDOW_DAYS, fetched.size());
+        do {
+            long date = stored.getLong(dateIndex);
+            for (int i = 0; i < window; i++) {
+                ContentValues values = fetched.get(i);
+                if (values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE) != date) {
+                    continue;
+                }
+                compared++;
+                // Weather condition codes are grouped by hundreds: 2xx storms, 5xx rain, 8xx clear
+                if (values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID) / 100
+                        != stored.getInt(weatherIdIndex) / 100) {
+                    return 1f;
+                }
+                double tempChange = Math.max(
+                        Math.abs(values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP)
+                                - stored.getDouble(maxIndex)),
+                        Math.abs(values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP)
+                                - stored.getDouble(minIndex)));
+                change = Math.max(change,
+                        (float) Math.min(1.0, tempChange / SIGNIFICANT_TEMP_CHANGE));
+            }
+        } while (stored.moveToNext());
+        return compared == 0 ? 1f : change;
+    }
+
+    /**
+     * Decides whether an immediate sync should actually be requested.  Requests made within
+     * {@link #COALESCE_WINDOW_MILLIS} of one that hasn't started yet are dropped; the pending
+     * sync reads the settings when it starts, so it picks up whatever the later calls wanted.
+     */
+    static boolean claimImmediateRequest() {
+        synchronized (sRequestLock) {
+            long now = SystemClock.elapsedRealtime();
+            if (sPendingRequestAt >= 0 && now - sPendingRequestAt < COALESCE_WINDOW_MILLIS) {
+                return false;
+            }
+            sPendingRequestAt = now;
+            return true;
+        }
+    }
+
+    /**
+     * Called when a sync starts, so that requests made from now on get a sync of their own.
+     */
+    static void onSyncStarted() {
+        synchronized (sRequestLock) {
+            sPendingRequestAt = -1;
+        }
+    }
+}
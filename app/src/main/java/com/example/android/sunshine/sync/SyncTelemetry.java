@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.sync;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.format.DateFormat;
+import android.util.Log;
+
+import com.example.android.sunshine.data.WeatherContract;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Per-phase timings of recent syncs, kept in a fixed-size ring buffer on disk so they survive
+ * process death and can be pulled off a real device.
+ *
+ * The file is a small header followed by {@link #CAPACITY} fixed-size slots; appending a record
+ * overwrites the oldest slot and rewrites the header, so the file never grows.  Read it with
+ * {@link #read} or {@link #dump}, which backs both the debug screen and
+ * {@code adb shell dumpsys activity service .sync.SunshineSyncService}.
+ */
+public class SyncTelemetry {
+    private static final String LOG_TAG = SyncTelemetry.class.getSimpleName();
+
+    static final String FILE_NAME = "sync_telemetry.bin";
+    static final int CAPACITY = 64;
+
+    // Phases are summed over every location the sync fetched
+    public static final int PHASE_CONNECT = 0;
+    public static final int PHASE_FIRST_BYTE = 1;
+    public static final int PHASE_DOWNLOAD = 2;
+    public static final int PHASE_PARSE = 3;
+    public static final int PHASE_RESOLVE_LOCATION = 4;
+    public static final int PHASE_BULK_INSERT = 5;
+    public static final int PHASE_DELETE = 6;
+    public static final int PHASE_SNAPSHOT = 7;
+    public static final int PHASE_WIDGETS = 8;
+    public static final int PHASE_MUZEI = 9;
+    public static final int PHASE_NOTIFICATION = 10;
+    public static final int PHASE_TOTAL = 11;
+    static final int PHASE_COUNT = 12;
+
+    private static final String[] PHASE_NAMES = {
+            "connect", "ttfb", "download", "parse", "resolve", "insert", "delete", "snapshot",
+            "widgets", "muzei", "notify", "total"
+    };
+
+    private static final int MAGIC = 0x53594e43;  // "SYNC"
+    private static final int VERSION = 1;
+    // magic, version, capacity, next slot, count
+    private static final int HEADER_SIZE = 5 * 4;
+    // startedAt, bytesReceived, status, locations, rowsFetched, rowsChanged, phases
+    static final int RECORD_SIZE = 8 + 8 + 4 * 4 + 4 * PHASE_COUNT;
+
+    private static final Object sFileLock = new Object();
+
+    /**
+     * One sync.  Filled in by the sync adapter as it goes, then appended.
+     */
+    public static final class Record {
+        public long startedAt;
+        public long bytesReceived;
+        @SunshineSyncAdapter.LocationStatus
+        public int status = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+        public int locations;
+        public int rowsFetched;
+        public int rowsChanged;
+        final int[] mPhaseMillis = new int[PHASE_COUNT];
+
+        private long mPhaseStart;
+
+        Record() {
+            startedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * Starts timing a phase; {@link #endPhase} adds the elapsed time to it.
+         */
+        void beginPhase() {
+            mPhaseStart = SystemClock.elapsedRealtime();
+        }
+
+        void endPhase(int phase) {
+            addPhase(phase, SystemClock.elapsedRealtime() - mPhaseStart);
+        }
+
+        void addPhase(int phase, long millis) {
+            mPhaseMillis[phase] += (int) Math.min(Integer.MAX_VALUE, millis);
+        }
+
+        public int getPhaseMillis(int phase) {
+            return mPhaseMillis[phase];
+        }
+
+        void writeTo(ByteBuffer buffer) {
+            buffer.putLong(startedAt);
+            buffer.putLong(bytesReceived);
+            buffer.putInt(status);
+            buffer.putInt(locations);
+            buffer.putInt(rowsFetched);
+            buffer.putInt(rowsChanged);
+            for (int millis : mPhaseMillis) {
+                buffer.putInt(millis);
+            }
+        }
+
+        static Record readFrom(ByteBuffer buffer) {
+            Record record = new Record();
+            record.startedAt = buffer.getLong();
+            record.bytesReceived = buffer.getLong();
+            //noinspection WrongConstant
+            record.status = buffer.getInt();
+            record.locations = buffer.getInt();
+            record.rowsFetched = buffer.getInt();
+            record.rowsChanged = buffer.getInt();
+            for (int i = 0; i < PHASE_COUNT; i++) {
+                record.mPhaseMillis[i] = buffer.getInt();
+            }
+            return record;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(160);
+            sb.append(DateFormat.format("yyyy-MM-dd kk:mm:ss", startedAt))
+                    .append(" status=").append(status)
+                    .append(" locations=").append(locations)
+                    .append(" rows=").append(rowsChanged).append('/').append(rowsFetched)
+                    .append(" bytes=").append(bytesReceived);
+            for (int i = 0; i < PHASE_COUNT; i++) {
+                sb.append(' ').append(PHASE_NAMES[i]).append('=')
+                        .append(mPhaseMillis[i]).append("ms");
+            }
+            return sb.toString();
+        }
+    }
+
+    private static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Appends a record, overwriting the oldest one once the buffer is full.  Does disk I/O.
+     */
+    static void append(Context context, Record record) {
+        synchronized (sFileLock) {
+            RandomAccessFile file = null;
+            try {
+                file = new RandomAccessFile(getFile(context), "rw");
+                int next = 0;
+                int count = 0;
+                if (file.length() >= HEADER_SIZE) {
+                    file.seek(0);
+                    if (file.readInt() == MAGIC && file.readInt() == VERSION
+                            && file.readInt() == CAPACITY) {
+                        next = file.readInt();
+                        count = file.readInt();
+                    }
+                }
+                if (next < 0 || next >= CAPACITY || count < 0 || count > CAPACITY) {
+                    next = 0;
+                    count = 0;
+                }
+
+                ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+                record.writeTo(buffer);
+                file.seek(HEADER_SIZE + (long) next * RECORD_SIZE);
+                file.write(buffer.array());
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putInt(CAPACITY)
+                        .putInt((next + 1) % CAPACITY).putInt(Math.min(count + 1, CAPACITY));
+                file.seek(0);
+                file.write(header.array());
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error writing sync telemetry", e);
+            } finally {
+                closeQuietly(file);
+            }
+        }
+    }
+
+    /**
+     * @return the stored records, newest first.  Does disk I/O.
+     */
+    public static List<Record> read(Context context) {
+        ArrayList<Record> records = new ArrayList<Record>();
+        synchronized (sFileLock) {
+            File path = getFile(context);
+            if (!path.exists()) {
+                return records;
+            }
+            RandomAccessFile file = null;
+            try {
+                file = new RandomAccessFile(path, "r");
+                if (file.length() < HEADER_SIZE || file.readInt() != MAGIC
+                        || file.readInt() != VERSION || file.readInt() != CAPACITY) {
+                    return records;
+                }
+                int next = file.readInt();
+                int count = Math.min(file.readInt(), CAPACITY);
+                byte[] slot = new byte[RECORD_SIZE];
+                for (int i = 1; i <= count; i++) {
+                    int index = (next - i + CAPACITY) % CAPACITY;
+                    file.seek(HEADER_SIZE + (long) index * RECORD_SIZE);
+                    file.readFully(slot);
+                    records.add(Record.readFrom(ByteBuffer.wrap(slot)));
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error reading sync telemetry", e);
+            } finally {
+                closeQuietly(file);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Drops every record.
+     */
+    public static void clear(Context context) {
+        synchronized (sFileLock) {
+            if (!getFile(context).delete()) {
+                Log.d(LOG_TAG, "No sync telemetry to clear");
+            }
+        }
+    }
+
+    /**
+     * Writes the stored records, newest first, in a dumpsys-friendly format.
+     */
+    public static void dump(Context context, PrintWriter writer) {
+        List<Record> records = read(context);
+        writer.println("Sync telemetry (" + records.size() + "/" + CAPACITY + " records):");
+        for (Record record : records) {
+            writer.print("  ");
+            writer.println(record);
+        }
+        writer.println("Response cache: " + new ForecastResponseCache(context));
+        SyncScheduler scheduler = new SyncScheduler(context);
+        writer.println("Scheduler: interval=" + scheduler.getCurrentInterval() + "s failures="
+                + scheduler.getConsecutiveFailures());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            writer.println("Query cache: " + readQueryCacheStats(context));
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static String readQueryCacheStats(Context context) {
+        Bundle stats = context.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_QUERY_CACHE_STATS, null, null);
+        if (stats == null) {
+            return "off";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String key : new TreeSet<String>(stats.keySet())) {
+            sb.append(key).append('=').append(stats.get(key)).append(' ');
+        }
+        return sb.toString().trim();
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing sync telemetry", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.shared;
+
+import java.util.Arrays;
+
+/**
+ * Which art goes with each OpenWeatherMap condition id, as one table indexed by the id, for
+ * both the app and the watch face.
+ *
+ * The art is given as one of the ART_ codes rather than a drawable, since each module has its
+ * own resources: a module keeps an array of its drawables in ART_ order and indexes it with
+ * {@link #getArt}.  The codes also index {@link #ART_NAMES}, the names art packs use in their
+ * urls.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public final class WeatherConditions {
+
+    public static final int NO_ART = -1;
+    public static final int ART_STORM = 0;
+    public static final int ART_LIGHT_RAIN = 1;
+    public static final int ART_RAIN = 2;
+    public static final int ART_SNOW = 3;
+    public static final int ART_FOG = 4;
+    public static final int ART_CLEAR = 5;
+    public static final int ART_LIGHT_CLOUDS = 6;
+    public static final int ART_CLOUDS = 7;
+    public static final int ART_COUNT = 8;
+
+    /**
+     * The name of each art, in ART_ order, as art pack urls have it.
+     */
+    public static final String[] ART_NAMES = {
+            "storm", "light_rain", "rain", "snow", "fog", "clear", "light_clouds", "clouds"
+    };
+
+    /**
+     * Condition ids run from 0 up to this; anything outside has no art.
+     */
+    public static final int MAX_WEATHER_ID = 999;
+
+    // First, last and art of each range of ids.  Where ranges overlap the first one wins, as
+    // it did in the if/else chains this replaced: 761 is fog, not storm.
+    private static final int[] RANGES = {
+            200, 232, ART_STORM,
+            300, 321, ART_LIGHT_RAIN,
+            500, 504, ART_RAIN,
+            511, 511, ART_SNOW,
+            520, 531, ART_RAIN,
+            600, 622, ART_SNOW,
+            701, 761, ART_FOG,
+            761, 761, ART_STORM,
+            781, 781, ART_STORM,
+            800, 800, ART_CLEAR,
+            801, 801, ART_LIGHT_CLOUDS,
+            802, 804, ART_CLOUDS
+    };
+
+    // The art of every id, built once
+    private static final byte[] sArt = new byte[MAX_WEATHER_ID + 1];
+
+    static {
+        Arrays.fill(sArt, (byte) NO_ART);
+        // Backwards, so earlier ranges overwrite later ones
+        for (int i = RANGES.length - 3; i >= 0; i -= 3) {
+            for (int id = RANGES[i]; id <= RANGES[i + 1]; id++) {
+                sArt[id] = (byte) RANGES[i + 2];
+            }
+        }
+    }
+
+    private WeatherConditions() {
+    }
+
+    /**
+     * @return the ART_ code for a condition id, or {@link #NO_ART} if it has none.
+     */
+    public static int getArt(int weatherId) {
+        return weatherId >= 0 && weatherId <= MAX_WEATHER_ID ? sArt[weatherId] : NO_ART;
+    }
+}
@@ -42,6 +42,7 @@ import android.view.Gravity;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import com.example.android.sunshine.shared.WeatherConditions;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.PendingResult;
@@ -87,6 +88,13 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
     private static final int WEATHER_BITMAP_HEIGHT = 60;
     private static final int WEATHER_BITMAP_WIDTH = 60;
 
+    // In WeatherConditions' ART_ order
+    private static final int[] ART_RESOURCES = {
+            R.drawable.art_storm, R.drawable.art_light_rain, R.drawable.art_rain,
+            R.drawable.art_snow, R.drawable.art_fog, R.drawable.art_clear,
+            R.drawable.art_light_clouds, R.drawable.art_clouds
+    };
+
     // Update twice a second to blink colons
     private static final long INTERACTIVE_UPDATE_RATE_MS = 500;
     private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
@@ -595,30 +603,8 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService {
         }
 
         private int getResourceIdFromWeatherId(int weatherId) {
-            if (weatherId >= 200 && weatherId <= 232) {
-                return R.drawable.art_storm;
-            } else if (weatherId >= 300 && weatherId <= 321) {
-                return R.drawable.art_light_rain;
-            } else if (weatherId >= 500 && weatherId <= 504) {
-                return R.drawable.art_rain;
-            } else if (weatherId == 511) {
-                return R.drawable.art_snow;
-            } else if (weatherId >= 520 && weatherId <= 531) {
-                return R.drawable.art_rain;
-            } else if (weatherId >= 600 && weatherId <= 622) {
-                return R.drawable.art_snow;
-            } else if (weatherId >= 701 && weatherId <= 761) {
-                return R.drawable.art_fog;
-            } else if (weatherId == 761 || weatherId == 781) {
-                return R.drawable.art_storm;
-            } else if (weatherId == 800) {
-                return R.drawable.art_clear;
-            } else if (weatherId == 801) {
-                return R.drawable.art_light_clouds;
-            } else if (weatherId >= 802 && weatherId <= 804) {
-                return R.drawable.art_clouds;
-            }
-            return -1;
+            int art = WeatherConditions.getArt(weatherId);
+            return art == WeatherConditions.NO_ART ? -1 : ART_RESOURCES[art];
         }
     }
 }